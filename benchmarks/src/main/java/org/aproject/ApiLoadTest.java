@@ -0,0 +1,171 @@
+package org.aproject;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load generator for {@link ApiServer}: every client is a virtual thread that issues
+ * requests back to back for the configured duration.
+ *
+ * <pre>
+ * java -cp benchmarks.jar org.aproject.ApiLoadTest [clients] [seconds] [bearer|basic] [baseUrl]
+ * </pre>
+ *
+ * Without a base URL an in-process server is started on an in-memory H2 database. {@code bearer}
+ * authenticates with a session token from {@code /login}; {@code basic} sends the password on every
+ * request so the two can be compared.
+ */
+public class ApiLoadTest {
+
+    private static final String USERNAME = "loadtest";
+    private static final String PASSWORD = "correct horse battery staple";
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        boolean bearer = args.length <= 2 || !args[2].equalsIgnoreCase("basic");
+        String baseUrl = args.length > 3 ? args[3] : null;
+
+        ApiServer server = null;
+        PasswordHasher hasher = null;
+        SessionManager sessions = null;
+        if (baseUrl == null) {
+            ConnectionPool pool = EmbeddedDatabase.start("api", 16);
+            // Low cost keeps the run about the server, not about BCrypt
+            hasher = new PasswordHasher(4, Runtime.getRuntime().availableProcessors(), 1024);
+            DatabaseManager users = new DatabaseManager(new JdbcUserRepository(new DatabaseManager()), hasher);
+            TaskManager tasks = new TaskManager(new JdbcTaskRepository(new DatabaseManager()));
+            sessions = SessionManager.fromEnv();
+            server = new ApiServer(users, tasks, sessions, 0, 16_384, pool.getMaxSize(), 30_000);
+            server.start();
+            baseUrl = "http://localhost:" + server.getPort();
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        String auth = "Basic " + Base64.getEncoder()
+                .encodeToString((USERNAME + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+        seed(client, baseUrl, auth);
+        if (bearer) {
+            auth = "Bearer " + login(client, baseUrl);
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder ok = new LongAdder();
+        AtomicLongArray statuses = new AtomicLongArray(600);
+        LongAdder failures = new LongAdder();
+        HttpRequest list = HttpRequest.newBuilder(URI.create(baseUrl + "/tasks"))
+                .header("Authorization", auth)
+                .timeout(Duration.ofSeconds(60))
+                .GET()
+                .build();
+
+        System.out.println("Running " + clients + " clients for " + seconds + " s against " + baseUrl
+                + " using " + (bearer ? "session tokens" : "basic auth"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long started = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(list, HttpResponse.BodyHandlers.discarding());
+                            latency.record(System.nanoTime() - start);
+                            statuses.incrementAndGet(Math.min(response.statusCode(), 599));
+                            if (response.statusCode() == 200) {
+                                ok.increment();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Exception e) {
+                            failures.increment();
+                        }
+                    }
+                });
+            }
+        }
+        double elapsed = (System.nanoTime() - started) / 1_000_000_000.0;
+
+        System.out.printf("Requests: %d ok, %d transport failures in %.1f s%n", ok.sum(), failures.sum(), elapsed);
+        System.out.printf("Throughput: %.0f req/s%n", ok.sum() / elapsed);
+        System.out.printf("Latency ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(90)),
+                millis(latency.getValueAtPercentile(99)), millis(latency.getValueAtPercentile(99.9)),
+                millis(latency.getMax()));
+        for (int status = 0; status < statuses.length(); status++) {
+            if (statuses.get(status) > 0) {
+                System.out.println("HTTP " + status + ": " + statuses.get(status));
+            }
+        }
+
+        if (server != null) {
+            server.close();
+            sessions.close();
+            hasher.close();
+            EmbeddedDatabase.stop();
+        }
+    }
+
+    private static void seed(HttpClient client, String baseUrl, String auth) throws Exception {
+        client.send(post(baseUrl + "/register", null,
+                "{\"username\":\"" + USERNAME + "\",\"password\":\"" + PASSWORD + "\",\"email\":\"loadtest@example.com\"}"),
+                HttpResponse.BodyHandlers.discarding());
+
+        List<HttpRequest> creates = new ArrayList<>();
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 20; i++) {
+            creates.add(post(baseUrl + "/tasks", auth, "{\"name\":\"Task " + i + "\",\"description\":\"Load test task\","
+                    + "\"endDate\":\"" + today.plusDays(i) + "\"}"));
+        }
+        for (HttpRequest create : creates) {
+            HttpResponse<String> response = client.send(create, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 201) {
+                throw new IllegalStateException("Seeding failed: HTTP " + response.statusCode() + " " + response.body());
+            }
+        }
+    }
+
+    private static String login(HttpClient client, String baseUrl) throws Exception {
+        HttpResponse<String> response = client.send(post(baseUrl + "/login", null,
+                "{\"username\":\"" + USERNAME + "\",\"password\":\"" + PASSWORD + "\"}"),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Login failed: HTTP " + response.statusCode() + " " + response.body());
+        }
+        // Tokens are base64url plus a dot, so they never contain escapes
+        String body = response.body();
+        int start = body.indexOf("\"token\":\"") + "\"token\":\"".length();
+        return body.substring(start, body.indexOf('"', start));
+    }
+
+    private static HttpRequest post(String url, String auth, String json) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json));
+        if (auth != null) {
+            builder.header("Authorization", auth);
+        }
+        return builder.build();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
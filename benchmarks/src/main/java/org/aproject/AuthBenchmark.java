@@ -0,0 +1,58 @@
+package org.aproject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthBenchmark {
+
+    @Param({"10", "12"})
+    public int cost;
+
+    private final AtomicInteger counter = new AtomicInteger();
+    private PasswordHasher hasher;
+    private DatabaseManager dbm;
+
+    @Setup
+    public void setUp() throws SQLException {
+        EmbeddedDatabase.start("auth", 8);
+        hasher = new PasswordHasher(cost, Runtime.getRuntime().availableProcessors(), 1024);
+        dbm = new DatabaseManager(new JdbcUserRepository(new DatabaseManager()), hasher);
+        dbm.registerUser("bench", "correct horse battery staple", "bench@example.com");
+    }
+
+    @TearDown
+    public void tearDown() {
+        hasher.close();
+        EmbeddedDatabase.stop();
+    }
+
+    @Benchmark
+    public boolean registerUser() {
+        return dbm.registerUser("user" + counter.incrementAndGet(), "correct horse battery staple", "user@example.com");
+    }
+
+    @Benchmark
+    public User loginUser() {
+        return dbm.loginUser("bench", "correct horse battery staple");
+    }
+}
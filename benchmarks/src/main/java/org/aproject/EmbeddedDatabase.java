@@ -0,0 +1,54 @@
+package org.aproject;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+final class EmbeddedDatabase {
+
+    private EmbeddedDatabase() {
+    }
+
+    static String url(String name) {
+        return "jdbc:h2:mem:" + name + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    }
+
+    static ConnectionPool start(String name, int poolSize) throws SQLException {
+        ConnectionPool pool = new ConnectionPool(url(name + System.nanoTime()), "sa", "", 1, poolSize, 5000, 60000, 0);
+        DatabaseManager.setPool(pool);
+        SchemaManager.invalidate();
+        try (Connection con = pool.borrow()) {
+            SchemaManager.bootstrap(con);
+        }
+        return pool;
+    }
+
+    // An extra in-memory database set up as task shard number index of a ShardRouter
+    static ConnectionPool startShard(String name, int index, int poolSize) {
+        ConnectionPool pool = new ConnectionPool(url(name + index + "-" + System.nanoTime()), "sa", "", 1, poolSize, 5000, 60000, 0);
+        ShardRouter.bootstrapShard(pool, index);
+        return pool;
+    }
+
+    static void stop() {
+        DatabaseManager.closePool();
+    }
+
+    static User createUser(String username) {
+        JdbcUserRepository users = new JdbcUserRepository(new DatabaseManager());
+        users.insertUser(username, "$2a$04$notarealhashnotarealhashnotarealhashnotarealhashnot", username + "@example.com");
+        return users.findByUsername(username).getUser();
+    }
+
+    static List<Task> generateTasks(int count) {
+        List<Task> tasks = new ArrayList<>(count);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < count; i++) {
+            tasks.add(new Task(0, "Task " + i, "Generated benchmark task number " + i,
+                    today.plusDays(i % 365 - 30), i % 3 == 0));
+        }
+        return tasks;
+    }
+}
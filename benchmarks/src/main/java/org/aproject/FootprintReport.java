@@ -0,0 +1,54 @@
+package org.aproject;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the retained heap size of the per-user {@code LinkedHashMap<Integer, Task>} that
+ * {@link TaskManager} keeps with the same tasks held in a {@link CompactTaskStore}.
+ *
+ * <pre>
+ * java -Djdk.attach.allowAttachSelf=true -cp benchmarks.jar org.aproject.FootprintReport [users] [tasksPerUser]
+ * </pre>
+ */
+public class FootprintReport {
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int tasksPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        List<Task> template = EmbeddedDatabase.generateTasks(tasksPerUser);
+        Map<Integer, Map<Integer, Task>> maps = new LinkedHashMap<>();
+        CompactTaskStore store = new CompactTaskStore(users * tasksPerUser);
+
+        int nextId = 1;
+        for (int user = 1; user <= users; user++) {
+            Map<Integer, Task> tasks = new LinkedHashMap<>();
+            for (Task t : template) {
+                // Fresh objects per user, as they would be after loading each user from the database
+                Task task = new Task(nextId++, new String(t.getName()), new String(t.getDescription()),
+                        t.getEnd_Date(), t.isStatus());
+                tasks.put(task.getId(), task);
+                store.put(user, task);
+            }
+            maps.put(user, tasks);
+        }
+
+        long total = (long) users * tasksPerUser;
+        long mapBytes = GraphLayout.parseInstance(maps).totalSize();
+        long storeBytes = GraphLayout.parseInstance(store).totalSize();
+
+        System.out.printf("%,d users x %,d tasks = %,d tasks%n", users, tasksPerUser, total);
+        System.out.printf("%-36s %,15d bytes %8.1f bytes/task%n", "LinkedHashMap<Integer, Task>", mapBytes, (double) mapBytes / total);
+        System.out.printf("%-36s %,15d bytes %8.1f bytes/task%n", "CompactTaskStore", storeBytes, (double) storeBytes / total);
+        System.out.printf("%-36s %,15d bytes%n", "CompactTaskStore.estimatedBytes()", store.estimatedBytes());
+        System.out.printf("Reduction: %.1fx%n", (double) mapBytes / storeBytes);
+
+        Map<Integer, Task> sample = maps.values().iterator().next();
+        System.out.println();
+        System.out.println(GraphLayout.parseInstance(sample).toFootprint());
+    }
+}
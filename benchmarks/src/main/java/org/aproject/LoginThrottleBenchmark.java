@@ -0,0 +1,108 @@
+package org.aproject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Legitimate logins measured while attacker threads replay wrong passwords against a handful of
+ * accounts from a few addresses. Without the throttle every bad attempt costs a BCrypt verification
+ * and the legitimate login queues behind them; with it, attackers are turned away after their burst
+ * and the {@code underAttack:legitimateLogin} latency should stay at the {@code idle} baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginThrottleBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final String[] VICTIMS = {"alice", "bob", "carol", "dave"};
+    private static final String[] ATTACKERS = {"203.0.113.7", "203.0.113.8", "203.0.113.9"};
+
+    @Param({"false", "true"})
+    public boolean throttled;
+
+    @Param({"10"})
+    public int cost;
+
+    private final AtomicInteger sourceCounter = new AtomicInteger();
+    private PasswordHasher hasher;
+    private DatabaseManager dbm;
+
+    @Setup
+    public void setUp() throws SQLException {
+        EmbeddedDatabase.start("login-throttle", 8);
+        hasher = new PasswordHasher(cost, Runtime.getRuntime().availableProcessors(), 1024);
+        // The default limits; the legitimate logins succeed, so their username token comes back, and they
+        // come from many addresses, so none of them reaches the per-address limit
+        LoginThrottle throttle = throttled ? new LoginThrottle(10, 5, 60, 20, 100000) : null;
+        dbm = new DatabaseManager(new JdbcUserRepository(new DatabaseManager()), hasher, throttle);
+        dbm.registerUser("bench", PASSWORD, "bench@example.com");
+        for (String victim : VICTIMS) {
+            dbm.registerUser(victim, PASSWORD, victim + "@example.com");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        hasher.close();
+        EmbeddedDatabase.stop();
+    }
+
+    @Benchmark
+    @Group("idle")
+    @GroupThreads(1)
+    public User idleLogin() {
+        return login("bench", PASSWORD, legitimateSource());
+    }
+
+    @Benchmark
+    @Group("underAttack")
+    @GroupThreads(1)
+    public User legitimateLogin() {
+        return login("bench", PASSWORD, legitimateSource());
+    }
+
+    @Benchmark
+    @Group("underAttack")
+    @GroupThreads(16)
+    public User attack() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return login(VICTIMS[random.nextInt(VICTIMS.length)], "guess" + random.nextInt(),
+                ATTACKERS[random.nextInt(ATTACKERS.length)]);
+    }
+
+    // A different address of 198.51.100.0/24 for each call, 256 of them at 60 attempts a minute each
+    private String legitimateSource() {
+        return "198.51.100." + (sourceCounter.getAndIncrement() & 0xff);
+    }
+
+    // Rejections count as completed calls: the point is how fast the server is done with them
+    private User login(String username, String password, String source) {
+        try {
+            return dbm.loginUserAsync(username, password, source).join();
+        } catch (CompletionException e) {
+            return null;
+        }
+    }
+}
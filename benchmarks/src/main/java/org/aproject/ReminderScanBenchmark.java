@@ -0,0 +1,92 @@
+package org.aproject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Full reminder scan over {@code users * tasksPerUser} tasks at increasing ForkJoin parallelism.
+ * With enough partitions the score should drop close to linearly until the cores or the
+ * connection pool run out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReminderScanBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    @Param({"10000"})
+    public int users;
+
+    @Param({"100"})
+    public int tasksPerUser;
+
+    ReminderScheduler scheduler;
+    LocalDate day;
+
+    @Setup
+    public void setUp() throws SQLException {
+        EmbeddedDatabase.start("reminders", 16);
+        DatabaseManager dbm = new DatabaseManager();
+        // Dates spread over a year around today, so roughly a tenth of the tasks are due or overdue
+        List<Task> template = EmbeddedDatabase.generateTasks(tasksPerUser);
+        try (Connection connection = DatabaseManager.getPool().borrow()) {
+            for (int i = 0; i < users; i++) {
+                User user = EmbeddedDatabase.createUser("reminder" + i);
+                dbm.insertTasksIntoDB(connection, copies(template), user);
+            }
+        }
+        // Partitions are kept small relative to the user count so every worker has several to steal
+        scheduler = new ReminderScheduler(new JdbcTaskRepository(dbm), new CountingSink(), 1,
+                Math.max(1, users / 64), parallelism, 1000, TimeUnit.MINUTES.toMillis(10));
+        day = LocalDate.now();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.close();
+        EmbeddedDatabase.stop();
+    }
+
+    @Benchmark
+    public long scan() {
+        // Every call reads the same rows; reminders after the first call are filtered as already sent
+        return scheduler.scan(day).getRows();
+    }
+
+    private static List<Task> copies(List<Task> template) {
+        return template.stream()
+                .map(t -> new Task(0, t.getName(), t.getDescription(), t.getEnd_Date(), t.isStatus()))
+                .toList();
+    }
+
+    private static final class CountingSink implements ReminderSink {
+        private final LongAdder count = new LongAdder();
+
+        @Override
+        public void accept(Reminder reminder) {
+            count.increment();
+        }
+    }
+}
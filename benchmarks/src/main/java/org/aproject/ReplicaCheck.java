@@ -0,0 +1,187 @@
+package org.aproject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Exercises {@link ReplicaRouter} against an in-memory H2 primary and two H2 "replicas" that a
+ * background thread refreshes from the primary every {@code lag} milliseconds, then prints a line
+ * per property:
+ *
+ * <ul>
+ *   <li>every task a user inserts is in that user's next read, although the replicas are behind;</li>
+ *   <li>once the replicas catch up, reads are served by them;</li>
+ *   <li>a replica that goes away is taken out of rotation and reads fail over to the other;</li>
+ *   <li>with no replica left, reads fall back to the primary.</li>
+ * </ul>
+ *
+ * <pre>
+ * java -cp benchmarks.jar org.aproject.ReplicaCheck [lagMillis]
+ * </pre>
+ */
+public class ReplicaCheck {
+
+    // Parents first; the copy deletes in reverse order for the tasks foreign key
+    private static final String[] TABLES = {"users", "tasks", "task_versions", "task_tombstones", "replica_heartbeat"};
+
+    public static void main(String[] args) throws Exception {
+        long lag = args.length > 0 ? Long.parseLong(args[0]) : 300;
+
+        EmbeddedDatabase.start("replica-primary", 8);
+        List<ConnectionPool> pools = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            ConnectionPool pool = new ConnectionPool(EmbeddedDatabase.url("replica" + i + "-" + System.nanoTime()),
+                    "sa", "", 1, 4, 2000, 60000, 0);
+            try (Connection con = pool.borrow()) {
+                SchemaManager.bootstrap(con);
+            }
+            pools.add(pool);
+        }
+        boolean[] down = new boolean[pools.size()];
+        ScheduledExecutorService replication = Executors.newSingleThreadScheduledExecutor();
+        replication.scheduleWithFixedDelay(() -> {
+            for (int i = 0; i < pools.size(); i++) {
+                if (!down[i]) {
+                    replicate(pools.get(i));
+                }
+            }
+        }, lag, lag, TimeUnit.MILLISECONDS);
+
+        DatabaseManager dbm = new DatabaseManager();
+        ReplicaRouter router = new ReplicaRouter(dbm, pools, List.of("replica1", "replica2"), lag * 4, 50);
+        boolean passed = true;
+        try {
+            TaskRepository tasks = new ReplicaTaskRepository(new JdbcTaskRepository(dbm), router);
+            User user = EmbeddedDatabase.createUser("replica-reader");
+            passed &= check("both replicas healthy", awaitTrue(() -> router.getHealthyCount() == 2, lag * 10));
+
+            int seen = 0;
+            int writes = 200;
+            for (int i = 0; i < writes; i++) {
+                Task task = new Task(0, "Task " + i, "Written then read back", LocalDate.now(), false);
+                tasks.insertTask(task, user);
+                if (tasks.getAllTasks(user).containsKey(task.getId())) {
+                    seen++;
+                }
+            }
+            passed &= check("read-your-writes (" + seen + "/" + writes + ")", seen == writes);
+
+            Thread.sleep(lag * 3);
+            long before = replicaReads();
+            int count = tasks.getAllTasks(user).size();
+            passed &= check("caught-up read served by a replica", replicaReads() == before + 1 && count == writes);
+
+            down[0] = true;
+            shutdown(pools.get(0));
+            int ok = 0;
+            for (int i = 0; i < 20; i++) {
+                if (tasks.getAllTasks(user).size() == writes) {
+                    ok++;
+                }
+            }
+            passed &= check("failover to the remaining replica (" + ok + "/20)", ok == 20 && !router.isHealthy(0));
+
+            down[1] = true;
+            shutdown(pools.get(1));
+            long primaryBefore = Metrics.counter("replica_primary_reads_total").get();
+            count = tasks.getAllTasks(user).size();
+            passed &= check("fallback to the primary", count == writes
+                    && Metrics.counter("replica_primary_reads_total").get() > primaryBefore);
+        } finally {
+            replication.shutdownNow();
+            router.close();
+            EmbeddedDatabase.stop();
+        }
+        System.out.println(passed ? "ALL PASSED" : "FAILURES");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean check(String name, boolean ok) {
+        System.out.printf("%-50s %s%n", name, ok ? "PASS" : "FAIL");
+        return ok;
+    }
+
+    private static long replicaReads() {
+        return Metrics.counter("replica_reads_total").get();
+    }
+
+    private static boolean awaitTrue(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    // Drops the in-memory database; the next connection opens an empty one, like a replica rebuilt from scratch
+    private static void shutdown(ConnectionPool pool) throws SQLException {
+        try (Connection con = pool.borrow(); Statement statement = con.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+
+    // Replaces every table on the replica with the primary's rows in one transaction. The heartbeat is
+    // read first, so the copied rows are at least as new as the beat the replica reports.
+    private static void replicate(ConnectionPool replica) {
+        try (Connection from = DatabaseManager.getPool().borrow(); Connection to = replica.borrow()) {
+            List<List<Object[]>> snapshot = new ArrayList<>();
+            List<Integer> widths = new ArrayList<>();
+            for (int t = TABLES.length - 1; t >= 0; t--) {
+                List<Object[]> rows = new ArrayList<>();
+                try (Statement statement = from.createStatement();
+                     ResultSet rs = statement.executeQuery("SELECT * FROM " + TABLES[t])) {
+                    int columns = rs.getMetaData().getColumnCount();
+                    while (rs.next()) {
+                        Object[] row = new Object[columns];
+                        for (int c = 0; c < columns; c++) {
+                            row[c] = rs.getObject(c + 1);
+                        }
+                        rows.add(row);
+                    }
+                    widths.add(0, columns);
+                }
+                snapshot.add(0, rows);
+            }
+
+            to.setAutoCommit(false);
+            try (Statement statement = to.createStatement()) {
+                for (int t = TABLES.length - 1; t >= 0; t--) {
+                    statement.executeUpdate("DELETE FROM " + TABLES[t]);
+                }
+            }
+            for (int t = 0; t < TABLES.length; t++) {
+                if (snapshot.get(t).isEmpty()) {
+                    continue;
+                }
+                String placeholders = "?" + ", ?".repeat(widths.get(t) - 1);
+                try (PreparedStatement insert = to.prepareStatement("INSERT INTO " + TABLES[t] + " VALUES (" + placeholders + ")")) {
+                    for (Object[] row : snapshot.get(t)) {
+                        for (int c = 0; c < row.length; c++) {
+                            insert.setObject(c + 1, row[c]);
+                        }
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                }
+            }
+            to.commit();
+        } catch (SQLException e) {
+            System.err.println("Replication failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.aproject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query latency of {@link TaskSearchIndex} with one user owning {@code tasks} tasks. The index is
+ * filled in memory, so no database is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class SearchBenchmark {
+
+    private static final String[] WORDS = {"buy", "call", "email", "report", "review", "fix",
+            "plan", "meet", "pay", "clean", "write", "read"};
+
+    @Param({"1000", "1000000"})
+    public int tasks;
+
+    // Exact rare term, prefix plus common word, and two common words
+    @Param({"item12345", "report item99", "buy call"})
+    public String query;
+
+    TaskSearchIndex index;
+    User user;
+
+    @Setup
+    public void setUp() {
+        index = new TaskSearchIndex(null, null);
+        user = new User(1, "bench", "bench@example.com");
+        // Marks the index as synced, so the null repository is never asked for changes
+        index.apply(user, -1, new TaskChanges(0, true, List.of(), new int[0]));
+
+        Random random = new Random(42);
+        List<Task> batch = new ArrayList<>();
+        for (int i = 1; i <= tasks; i++) {
+            batch.add(new Task(i, WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " item" + i,
+                    "note " + (i % 1000) + " " + WORDS[random.nextInt(WORDS.length)], null, false));
+            if (batch.size() == 10_000) {
+                index.add(user, batch);
+                batch.clear();
+            }
+        }
+        index.add(user, batch);
+    }
+
+    @Benchmark
+    public int[] search() {
+        return index.search(user, query, 10);
+    }
+}
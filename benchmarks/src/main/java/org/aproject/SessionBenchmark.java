@@ -0,0 +1,65 @@
+package org.aproject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+@Fork(1)
+public class SessionBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"10", "12"})
+    public int cost;
+
+    private PasswordHasher hasher;
+    private DatabaseManager dbm;
+    private SessionManager sessions;
+    private String token;
+
+    @Setup
+    public void setUp() throws SQLException {
+        EmbeddedDatabase.start("sessions", 8);
+        hasher = new PasswordHasher(cost, Runtime.getRuntime().availableProcessors(), 1024);
+        dbm = new DatabaseManager(new JdbcUserRepository(new DatabaseManager()), hasher);
+        dbm.registerUser("bench", PASSWORD, "bench@example.com");
+        sessions = new SessionManager(new byte[32], TimeUnit.HOURS.toMillis(1), 60000);
+        token = sessions.create(dbm.loginUser("bench", PASSWORD));
+    }
+
+    @TearDown
+    public void tearDown() {
+        sessions.close();
+        hasher.close();
+        EmbeddedDatabase.stop();
+    }
+
+    @Benchmark
+    public User authenticateWithPassword() {
+        return dbm.loginUser("bench", PASSWORD);
+    }
+
+    @Benchmark
+    public User authenticateWithSession() {
+        return sessions.resolve(token);
+    }
+}
@@ -0,0 +1,89 @@
+package org.aproject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Aggregate task insert throughput of many concurrent users through a {@link ShardRouter} over
+ * 1, 2 and 4 embedded databases. Each shard has its own pool and its own H2 instance, so the score
+ * should grow with the shard count until the cores run out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class ShardWriteBenchmark {
+
+    @Param({"1", "2", "4"})
+    public int shards;
+
+    @Param({"64"})
+    public int users;
+
+    @Param({"100"})
+    public int batchSize;
+
+    ShardRouter router;
+    User[] accounts;
+    final AtomicInteger nextAccount = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws SQLException {
+        EmbeddedDatabase.start("shard-write", 8);
+        List<ConnectionPool> pools = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        pools.add(DatabaseManager.getPool());
+        names.add("shard-0");
+        for (int i = 1; i < shards; i++) {
+            pools.add(EmbeddedDatabase.startShard("shard-write", i, 8));
+            names.add("shard-" + i);
+        }
+        router = new ShardRouter(new DatabaseManager(), pools, names, 128, new ShardDirectory(DatabaseManager.getPool()));
+        accounts = new User[users];
+        for (int i = 0; i < users; i++) {
+            accounts[i] = EmbeddedDatabase.createUser("shard-writer" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        router.close();
+        EmbeddedDatabase.stop();
+    }
+
+    @Benchmark
+    public void insertTasks(Writer writer) {
+        router.insertTasks(EmbeddedDatabase.generateTasks(batchSize), writer.user);
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        User user;
+
+        @Setup
+        public void pick(ShardWriteBenchmark benchmark) {
+            // Threads write as different users, which the ring spreads over the shards
+            user = benchmark.accounts[benchmark.nextAccount.getAndIncrement() % benchmark.users];
+        }
+    }
+}
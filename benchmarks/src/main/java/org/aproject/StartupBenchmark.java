@@ -0,0 +1,136 @@
+package org.aproject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Launches the console application repeatedly and measures the time from process start to the
+ * first prompt, and the resident set size at that moment, for the default launch, {@code --fast-start},
+ * and {@code --fast-start} with the AppCDS archive built by the {@code appcds} profile.
+ *
+ * <pre>
+ * java -cp benchmarks.jar org.aproject.StartupBenchmark target/ToDoApp-1.0-SNAPSHOT.jar [runs] [target/todoapp.jsa]
+ * </pre>
+ *
+ * The application runs on a scratch embedded store unless STORAGE is set in the environment, so
+ * set STORAGE=mysql and the DATABASE_* variables to include the MySQL connect in the measurement.
+ * RSS is read from /proc and reported as -1 elsewhere.
+ */
+public class StartupBenchmark {
+
+    private static final String LAST_PROMPT_LINE = "EXIT (0)";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: StartupBenchmark <application jar> [runs] [cds archive]");
+            System.exit(2);
+        }
+        String jar = args[0];
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String archive = args.length > 2 ? args[2] : null;
+
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        variants.put("default", List.of(java, "-cp", jar, "org.aproject.Main"));
+        variants.put("fast-start", List.of(java, "-cp", jar, "org.aproject.Main", "--fast-start"));
+        if (archive != null) {
+            if (!Files.exists(Path.of(archive))) {
+                throw new IllegalArgumentException("No CDS archive at " + archive + "; build with -Pappcds first.");
+            }
+            variants.put("fast-start + AppCDS", List.of(java, "-XX:SharedArchiveFile=" + archive, "-Xshare:auto",
+                    "-cp", jar, "org.aproject.Main", "--fast-start"));
+        }
+
+        Path scratch = Files.createTempDirectory("startup-bench");
+        Map<String, long[]> millis = new LinkedHashMap<>();
+        Map<String, long[]> rss = new LinkedHashMap<>();
+        variants.keySet().forEach(name -> {
+            millis.put(name, new long[runs]);
+            rss.put(name, new long[runs]);
+        });
+
+        // One untimed launch each warms the page cache; the variants then alternate so drift hits all of them
+        for (int run = -1; run < runs; run++) {
+            for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+                long[] sample = launch(variant.getValue(), scratch);
+                if (run >= 0) {
+                    millis.get(variant.getKey())[run] = sample[0];
+                    rss.get(variant.getKey())[run] = sample[1];
+                }
+            }
+        }
+
+        System.out.printf("%d runs per variant%n", runs);
+        System.out.printf("%-22s %14s %14s %14s%n", "variant", "median ms", "min ms", "median RSS MB");
+        for (String name : variants.keySet()) {
+            long[] times = millis.get(name).clone();
+            long[] sizes = rss.get(name).clone();
+            Arrays.sort(times);
+            Arrays.sort(sizes);
+            long medianRss = sizes[runs / 2];
+            System.out.printf("%-22s %14d %14d %14s%n", name, times[runs / 2], times[0],
+                    medianRss < 0 ? "n/a" : String.format("%.1f", medianRss / 1024.0 / 1024.0));
+        }
+    }
+
+    // Returns {milliseconds to the first prompt, RSS in bytes at that point}
+    private static long[] launch(List<String> command, Path scratch) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD);
+        if (System.getenv("STORAGE") == null) {
+            builder.environment().put("STORAGE", "embedded");
+            builder.environment().put("STORAGE_PATH", scratch.resolve("todoapp.db").toString());
+            builder.environment().put("SEARCH_INDEX_PATH", "none");
+        }
+
+        long start = System.nanoTime();
+        Process process = builder.start();
+        long elapsed = -1;
+        long resident = -1;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+             OutputStream in = process.getOutputStream()) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.contains(LAST_PROMPT_LINE)) {
+                    elapsed = (System.nanoTime() - start) / 1_000_000;
+                    resident = residentBytes(process.pid());
+                    break;
+                }
+            }
+            in.write("0\n".getBytes(StandardCharsets.UTF_8));
+            in.flush();
+            while (out.readLine() != null) {
+                // Drain until the application exits
+            }
+        }
+        process.waitFor();
+        if (elapsed < 0) {
+            throw new IllegalStateException("The application exited with " + process.exitValue()
+                    + " before printing its first prompt: " + String.join(" ", command));
+        }
+        return new long[]{elapsed, resident};
+    }
+
+    private static long residentBytes(long pid) {
+        Path status = Path.of("/proc", String.valueOf(pid), "status");
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux, or the process is already gone
+        }
+        return -1;
+    }
+}
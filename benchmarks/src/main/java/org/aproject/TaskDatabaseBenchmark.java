@@ -0,0 +1,80 @@
+package org.aproject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskDatabaseBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int tasksPerUser;
+
+    DatabaseManager dbm;
+    Connection connection;
+    User user;
+
+    @Setup
+    public void setUp() throws SQLException {
+        EmbeddedDatabase.start("tasks", 4);
+        dbm = new DatabaseManager();
+        user = EmbeddedDatabase.createUser("bench");
+        connection = DatabaseManager.getPool().borrow();
+        dbm.insertTasksIntoDB(connection, EmbeddedDatabase.generateTasks(tasksPerUser), user);
+    }
+
+    @TearDown
+    public void tearDown() {
+        DatabaseManager.closeConnection(connection);
+        EmbeddedDatabase.stop();
+    }
+
+    @Benchmark
+    public int insertTaskIntoDB() throws SQLException {
+        Task task = new Task(0, "Benchmark task", "Inserted by the benchmark", LocalDate.now(), false);
+        dbm.insertTaskIntoDB(connection, task, user);
+        return task.getId();
+    }
+
+    @Benchmark
+    public void removeTaskFromDB(PendingTask pending) throws SQLException {
+        dbm.removeTaskFromDB(connection, pending.task.getId(), user);
+    }
+
+    @Benchmark
+    public Map<Integer, Task> getAllTasks() throws SQLException {
+        return dbm.getAllTasks(connection, user);
+    }
+
+    @State(Scope.Thread)
+    public static class PendingTask {
+        Task task;
+
+        @Setup(Level.Invocation)
+        public void insert(TaskDatabaseBenchmark benchmark) throws SQLException {
+            task = new Task(0, "Doomed task", "Removed by the benchmark", LocalDate.now(), false);
+            benchmark.dbm.insertTaskIntoDB(benchmark.connection, task, benchmark.user);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.aproject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskManagerBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int tasksPerUser;
+
+    TaskManager manager;
+    User user;
+
+    @Setup
+    public void setUp() throws SQLException {
+        EmbeddedDatabase.start("manager", 4);
+        manager = new TaskManager();
+        user = EmbeddedDatabase.createUser("bench");
+        manager.createTasks(user, EmbeddedDatabase.generateTasks(tasksPerUser));
+        manager.loadTasksFromDB(user);
+    }
+
+    @TearDown
+    public void tearDown() {
+        EmbeddedDatabase.stop();
+    }
+
+    @Benchmark
+    public void removeTask(PendingTask pending) {
+        manager.removeTask(user, pending.id);
+    }
+
+    @Benchmark
+    public int loadTasksFromDB() {
+        manager.loadTasksFromDB(user);
+        return manager.getCache().size();
+    }
+
+    @State(Scope.Thread)
+    public static class PendingTask {
+        int id;
+
+        @Setup(Level.Invocation)
+        public void create(TaskManagerBenchmark benchmark) {
+            benchmark.manager.createTask(benchmark.user, "Doomed task", "Removed by the benchmark", "2030/01/01");
+            id = benchmark.manager.resolveOrdinal(benchmark.user, benchmark.manager.getTasks(benchmark.user).size());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.aproject;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * Generates a task file, imports it into an in-memory H2 database and exports it again, printing
+ * rows per second for each step in both formats.
+ *
+ * <pre>
+ * java -Xmx512m -cp benchmarks.jar org.aproject.TransferReport [rows] [directory]
+ * </pre>
+ *
+ * The small heap is deliberate: a 10M-row import must not need the whole file in memory.
+ */
+public class TransferReport {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Path dir = args.length > 1 ? Path.of(args[1]) : Files.createTempDirectory("task-transfer");
+
+        EmbeddedDatabase.start("transfer", 4);
+        try {
+            User source = EmbeddedDatabase.createUser("transfer-source");
+            TaskRepository repository = new JdbcTaskRepository(new DatabaseManager());
+            TaskTransfer transfer = TaskTransfer.fromEnv(repository);
+
+            // Written line by line and imported through the transfer itself, so the rows never sit in memory
+            Path seed = dir.resolve("seed.csv");
+            writeSeed(seed, rows);
+            System.out.printf("%-20s %s%n", "seed import", transfer.importTasks(source, seed, TaskTransfer.Format.CSV));
+
+            for (TaskTransfer.Format format : TaskTransfer.Format.values()) {
+                Path file = dir.resolve("tasks." + format.name().toLowerCase());
+                System.out.printf("%-20s %s%n", format + " export", transfer.exportTasks(source, file, format));
+
+                User target = EmbeddedDatabase.createUser("transfer-" + format.name().toLowerCase());
+                System.out.printf("%-20s %s%n", format + " import", transfer.importTasks(target, file, format));
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(seed);
+        } finally {
+            EmbeddedDatabase.stop();
+        }
+    }
+
+    private static void writeSeed(Path seed, int rows) throws Exception {
+        LocalDate today = LocalDate.now();
+        try (BufferedWriter out = Files.newBufferedWriter(seed)) {
+            out.write("name,description,end_date,status\n");
+            for (int i = 0; i < rows; i++) {
+                out.write("Task " + i + ",Generated transfer task number " + i + ","
+                        + today.plusDays(i % 365 - 30) + "," + (i % 3 == 0) + "\n");
+            }
+        }
+    }
+}
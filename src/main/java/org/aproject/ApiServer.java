@@ -0,0 +1,410 @@
+package org.aproject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ApiServer implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ApiServer.class.getName());
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+
+    private static final Metrics.Timer REQUEST = Metrics.timer("api_request");
+    private static final Metrics.Timer PERMIT_WAIT = Metrics.timer("api_permit_wait");
+    private static final Metrics.Counter REJECTED = Metrics.counter("api_requests_rejected_total");
+    private static final Metrics.Counter ERRORS = Metrics.counter("api_requests_failed_total");
+
+    private final DatabaseManager users;
+    private final TaskManager tasks;
+    private final SessionManager sessions;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final long permitTimeoutMillis;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    public ApiServer(DatabaseManager users, TaskManager tasks, SessionManager sessions, int port, int backlog,
+                     int maxConcurrency, long permitTimeoutMillis) throws IOException {
+        this.users = users;
+        this.tasks = tasks;
+        this.sessions = sessions;
+        // A signed-out user's cached task session would otherwise stay in the TaskManager for good
+        sessions.setSignedOutListener(tasks::closeSession);
+        this.permitTimeoutMillis = permitTimeoutMillis;
+        // Requests beyond what the storage layer can serve at once wait here, on a cheap virtual
+        // thread, instead of queueing inside the connection pool or the password hasher.
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        this.server = HttpServer.create(new InetSocketAddress(port), backlog);
+        server.setExecutor(executor);
+        server.createContext("/register", exchange -> handle(exchange, this::register));
+        server.createContext("/login", exchange -> handle(exchange, this::login));
+        server.createContext("/logout", exchange -> handle(exchange, this::logout));
+        server.createContext("/tasks", exchange -> handle(exchange, this::tasks));
+
+        Metrics.gauge("api_permits_available", permits::availablePermits);
+        Metrics.gauge("api_permits_waiting", permits::getQueueLength);
+    }
+
+    public void start() {
+        server.start();
+        logger.info("API server listening on port " + getPort() + " (max concurrency " + permits.availablePermits() + ").");
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void awaitShutdown() throws InterruptedException {
+        stopped.await();
+    }
+
+    @Override
+    public void close() {
+        if (stopped.getCount() == 0) {
+            return;
+        }
+        server.stop(1);
+        executor.shutdown();
+        stopped.countDown();
+        logger.info("API server stopped.");
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        long start = System.nanoTime();
+        boolean acquired = false;
+        try {
+            long waitStart = System.nanoTime();
+            acquired = permits.tryAcquire(permitTimeoutMillis, TimeUnit.MILLISECONDS);
+            PERMIT_WAIT.recordSince(waitStart);
+            if (!acquired) {
+                REJECTED.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, Json.error("Server is busy, try again later."));
+                return;
+            }
+            handler.handle(exchange);
+        } catch (ApiException e) {
+            send(exchange, e.status, Json.error(e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, Json.error("Server is shutting down."));
+        } catch (RuntimeException e) {
+            ERRORS.increment();
+            logger.log(Level.SEVERE, "Error handling " + exchange.getRequestMethod() + " " + exchange.getRequestURI(), e);
+            send(exchange, 500, Json.error("Internal server error."));
+        } finally {
+            if (acquired) {
+                permits.release();
+            }
+            exchange.close();
+            REQUEST.recordSince(start);
+        }
+    }
+
+    private void register(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        Map<String, String> body = readBody(exchange);
+        String username = require(body, "username");
+        String password = require(body, "password");
+        String email = require(body, "email");
+
+        boolean registered;
+        try {
+            registered = users.registerUserAsync(username, password, email, source(exchange)).join();
+        } catch (CompletionException e) {
+            throw translate(exchange, e.getCause());
+        }
+        if (!registered) {
+            throw new ApiException(409, "Username is already taken.");
+        }
+        send(exchange, 201, "{\"username\":" + Json.quote(username) + "}");
+    }
+
+    private void login(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        Map<String, String> body = readBody(exchange);
+        User user = authenticate(exchange, require(body, "username"), require(body, "password"));
+        String token = sessions.create(user);
+        send(exchange, 200, "{\"token\":" + Json.quote(token)
+                + ",\"expiresAt\":" + sessions.getExpiresAt(token)
+                + ",\"user\":" + Json.toJson(user) + "}");
+    }
+
+    private void logout(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        String token = bearerToken(exchange);
+        if (token == null || !sessions.invalidate(token)) {
+            throw new ApiException(401, "Invalid or expired session.");
+        }
+        send(exchange, 204, null);
+    }
+
+    private void tasks(HttpExchange exchange) throws IOException {
+        User user = authenticate(exchange);
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+
+        if (path.equals("/tasks") || path.equals("/tasks/")) {
+            if (method.equals("GET")) {
+                send(exchange, 200, Json.toJson(listTasks(user, queryParam(exchange, "filter"))));
+            } else if (method.equals("POST")) {
+                Map<String, String> body = readBody(exchange);
+                LocalDate endDate;
+                try {
+                    endDate = LocalDate.parse(require(body, "endDate"));
+                } catch (DateTimeParseException e) {
+                    throw new ApiException(400, "endDate must be formatted as yyyy-MM-dd.");
+                }
+                Task task = tasks.createTask(user, require(body, "name"), body.get("description"), endDate);
+                send(exchange, 201, Json.toJson(task));
+            } else {
+                throw new ApiException(405, "Method not allowed.");
+            }
+            return;
+        }
+
+        if (path.equals("/tasks/search")) {
+            requireMethod(exchange, "GET");
+            String query = queryParam(exchange, "q");
+            if (query == null || query.isBlank()) {
+                throw new ApiException(400, "Missing q.");
+            }
+            String limit = queryParam(exchange, "limit");
+            int max;
+            try {
+                max = limit == null ? 20 : Integer.parseInt(limit);
+            } catch (NumberFormatException e) {
+                throw new ApiException(400, "limit must be a number.");
+            }
+            if (max < 1 || max > 1000) {
+                throw new ApiException(400, "limit must be between 1 and 1000.");
+            }
+            send(exchange, 200, Json.toJson(tasks.searchTasks(user, query, max)));
+            return;
+        }
+
+        if (path.equals("/tasks/changes")) {
+            requireMethod(exchange, "GET");
+            String since = queryParam(exchange, "since");
+            long sinceVersion;
+            try {
+                sinceVersion = since == null ? -1 : Long.parseLong(since);
+            } catch (NumberFormatException e) {
+                throw new ApiException(400, "since must be a version number.");
+            }
+            send(exchange, 200, Json.toJson(tasks.getTasksChangedSince(user, sinceVersion)));
+            return;
+        }
+
+        if (path.equals("/tasks/stats")) {
+            requireMethod(exchange, "GET");
+            send(exchange, 200, Json.toJson(tasks.getTaskStats(user)));
+            return;
+        }
+
+        int id;
+        try {
+            id = Integer.parseInt(path.substring("/tasks/".length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new ApiException(404, "Not found.");
+        }
+        if (method.equals("PATCH")) {
+            String status = require(readBody(exchange), "status");
+            if (!status.equals("true") && !status.equals("false")) {
+                throw new ApiException(400, "status must be true or false.");
+            }
+            if (!tasks.setTaskStatus(user, id, Boolean.parseBoolean(status))) {
+                throw new ApiException(404, "Task " + id + " not found.");
+            }
+            send(exchange, 200, Json.toJson(tasks.getTasks(user).get(id)));
+            return;
+        }
+        requireMethod(exchange, "DELETE");
+        if (!tasks.removeTask(user, id)) {
+            throw new ApiException(404, "Task " + id + " not found.");
+        }
+        send(exchange, 204, null);
+    }
+
+    private Collection<Task> listTasks(User user, String filter) {
+        if (filter == null) {
+            // Picks up what other clients and servers wrote since this user's last request
+            tasks.loadTasksFromDB(user);
+            return tasks.getTasks(user).values();
+        }
+        try {
+            return tasks.findTasks(user, TaskFilter.valueOf(filter.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, "Unknown filter: " + filter);
+        }
+    }
+
+    // Bearer tokens from /login resolve from memory; Basic auth still works but pays for a
+    // full password verification on every call.
+    private User authenticate(HttpExchange exchange) {
+        String token = bearerToken(exchange);
+        if (token != null) {
+            User user = sessions.resolve(token);
+            if (user == null) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer error=\"invalid_token\"");
+                throw new ApiException(401, "Invalid or expired session.");
+            }
+            return user;
+        }
+
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.regionMatches(true, 0, "Basic ", 0, 6)) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer realm=\"todoapp\"");
+            throw new ApiException(401, "Missing credentials.");
+        }
+        String decoded;
+        try {
+            decoded = new String(Base64.getDecoder().decode(header.substring(6).trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(401, "Malformed credentials.");
+        }
+        int colon = decoded.indexOf(':');
+        if (colon < 0) {
+            throw new ApiException(401, "Malformed credentials.");
+        }
+        return authenticate(exchange, decoded.substring(0, colon), decoded.substring(colon + 1));
+    }
+
+    private User authenticate(HttpExchange exchange, String username, String password) {
+        User user;
+        try {
+            user = users.loginUserAsync(username, password, source(exchange)).join();
+        } catch (CompletionException e) {
+            throw translate(exchange, e.getCause());
+        }
+        if (user == null) {
+            throw new ApiException(401, "Invalid username or password.");
+        }
+        return user;
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return null;
+        }
+        return header.substring(7).trim();
+    }
+
+    private static String source(HttpExchange exchange) {
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return remote == null || remote.getAddress() == null ? null : remote.getAddress().getHostAddress();
+    }
+
+    private static RuntimeException translate(HttpExchange exchange, Throwable cause) {
+        if (cause instanceof RejectedExecutionException) {
+            return new ApiException(503, "Password hashing service is overloaded.");
+        }
+        if (cause instanceof LoginThrottledException) {
+            long retryAfterMillis = ((LoginThrottledException) cause).getRetryAfterMillis();
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf((retryAfterMillis + 999) / 1000));
+            return new ApiException(429, cause.getMessage());
+        }
+        if (cause instanceof StorageException && cause.getCause() instanceof SQLIntegrityConstraintViolationException) {
+            return new ApiException(409, "Username is already taken.");
+        }
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw new ApiException(405, "Method not allowed.");
+        }
+    }
+
+    private static String require(Map<String, String> body, String field) {
+        String value = body.get(field);
+        if (value == null || value.isBlank()) {
+            throw new ApiException(400, "Missing field: " + field);
+        }
+        return value;
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        byte[] bytes;
+        try (InputStream in = exchange.getRequestBody()) {
+            bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+        if (bytes.length > MAX_BODY_BYTES) {
+            throw new ApiException(413, "Request body too large.");
+        }
+        try {
+            return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, "Invalid JSON: " + e.getMessage());
+        }
+    }
+
+    // Split on the raw query so an encoded '&' or '=' stays inside its value
+    private static String queryParam(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        try {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0 && URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8).equals(name)) {
+                    return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, "Malformed query string.");
+        }
+        return null;
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        if (json == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException, InterruptedException;
+    }
+
+    private static final class ApiException extends RuntimeException {
+        private final int status;
+
+        private ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.aproject;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Storage, the task manager and their background jobs; close() shuts them down in reverse order.
+// Nothing here is needed for the first prompt, so fast-start mode opens it with openAsync().
+public class AppContext implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(AppContext.class.getName());
+
+    private static final Metrics.Timer OPEN = Metrics.timer("app_context_open");
+
+    private EmbeddedStore store;
+    private WriteBehindTaskRepository writeBehind;
+    private ReminderScheduler reminders;
+    private TaskStatsRepair statsRepair;
+    private TaskSearchIndex searchIndex;
+    private ShardRouter shards;
+    private ShardRebalancer rebalancer;
+    private ReplicaRouter replicas;
+    private DatabaseManager database;
+    private TaskManager tasks;
+
+    private AppContext() {
+    }
+
+    public static AppContext open() throws IOException, SQLException {
+        long start = System.nanoTime();
+        AppContext context = new AppContext();
+        try {
+            context.start();
+            return context;
+        } catch (IOException | SQLException | RuntimeException e) {
+            context.close();
+            throw e;
+        } finally {
+            OPEN.recordSince(start);
+        }
+    }
+
+    // Runs open() on its own non-daemon thread, so a context still opening when the user quits is closed cleanly
+    public static CompletableFuture<AppContext> openAsync() {
+        CompletableFuture<AppContext> opened = new CompletableFuture<>();
+        new Thread(() -> {
+            try {
+                opened.complete(open());
+            } catch (Throwable e) {
+                opened.completeExceptionally(e);
+            }
+        }, "app-startup").start();
+        return opened;
+    }
+
+    private void start() throws IOException, SQLException {
+        String metricsPort = DatabaseManager.env("METRICS_PORT", null);
+        if (metricsPort != null) {
+            Metrics.startHttpExporter(Integer.parseInt(metricsPort));
+        }
+
+        if ("embedded".equalsIgnoreCase(DatabaseManager.env("STORAGE", "mysql"))) {
+            store = new EmbeddedStore(Path.of(DatabaseManager.env("STORAGE_PATH", "todoapp.db")),
+                    Long.parseLong(DatabaseManager.env("STORAGE_COMPACTION_INTERVAL_MS", "60000")));
+            tasks = new TaskManager(store);
+            database = new DatabaseManager(store);
+        } else {
+            Connection con = DatabaseManager.getConnection();
+            try {
+                if (con != null) {
+                    SchemaManager.bootstrap(con);
+                }
+            } finally {
+                DatabaseManager.closeConnection(con);
+            }
+
+            database = new DatabaseManager();
+            long tombstoneRetention = Long.parseLong(DatabaseManager.env("TASK_TOMBSTONE_RETENTION_MS", "604800000"));
+            int pruned;
+            TaskRepository repository;
+            if (Integer.parseInt(DatabaseManager.env("DATABASE_SHARDS", "1")) > 1) {
+                shards = ShardRouter.fromEnv(database);
+                rebalancer = ShardRebalancer.fromEnv(shards);
+                // Must finish before any request: users whose ring shard changed are pinned to
+                // the shard that still holds their rows
+                rebalancer.reconcile();
+                if (Boolean.parseBoolean(DatabaseManager.env("SHARD_REBALANCE", "false"))) {
+                    rebalancer.start(Long.parseLong(DatabaseManager.env("SHARD_REBALANCE_INTERVAL_MS", "60000")));
+                }
+                pruned = shards.pruneTombstones(tombstoneRetention);
+                repository = shards;
+            } else {
+                JdbcTaskRepository jdbcRepository = new JdbcTaskRepository(database);
+                pruned = jdbcRepository.pruneTombstones(tombstoneRetention);
+                repository = jdbcRepository;
+            }
+            if (pruned > 0) {
+                logger.info("Pruned " + pruned + " task tombstones.");
+            }
+            if (Integer.parseInt(DatabaseManager.env("DATABASE_REPLICAS", "0")) > 0) {
+                // Replicas copy the primary, so with shards only user lookups can use them
+                replicas = ReplicaRouter.fromEnv(database);
+                database = new DatabaseManager(new ReplicaUserRepository(new JdbcUserRepository(database), replicas));
+                if (shards == null) {
+                    repository = new ReplicaTaskRepository(repository, replicas);
+                }
+            }
+            if (Boolean.parseBoolean(DatabaseManager.env("WRITE_BEHIND", "false"))) {
+                // Opened after the schema bootstrap because replaying the journal writes to the tables
+                writeBehind = new WriteBehindTaskRepository(repository,
+                        Path.of(DatabaseManager.env("WRITE_BEHIND_JOURNAL", "todoapp-journal.log")),
+                        Long.parseLong(DatabaseManager.env("WRITE_BEHIND_FLUSH_INTERVAL_MS", "200")),
+                        Integer.parseInt(DatabaseManager.env("WRITE_BEHIND_BATCH_SIZE", "500")),
+                        Boolean.parseBoolean(DatabaseManager.env("WRITE_BEHIND_FSYNC", "true")));
+                repository = writeBehind;
+            }
+            tasks = new TaskManager(repository);
+            if (rebalancer != null) {
+                rebalancer.setMoveListener(new ShardRebalancer.MoveListener() {
+                    @Override
+                    public void beforeMove(int userId) {
+                        if (writeBehind != null) {
+                            writeBehind.flush(new User(userId, null, null));
+                        }
+                    }
+
+                    @Override
+                    public void afterMove(int userId) {
+                        tasks.onUserMoved(userId);
+                    }
+                });
+            }
+        }
+
+        searchIndex = tasks.getSearchIndex();
+
+        long reminderInterval = Long.parseLong(DatabaseManager.env("REMINDER_INTERVAL_MS", "0"));
+        if (reminderInterval > 0) {
+            reminders = ReminderScheduler.fromEnv(tasks.getRepository(), ReminderSink.fromEnv());
+            reminders.start(reminderInterval);
+        }
+
+        long statsRepairInterval = Long.parseLong(DatabaseManager.env("TASK_STATS_REPAIR_INTERVAL_MS", "0"));
+        if (statsRepairInterval > 0) {
+            statsRepair = TaskStatsRepair.fromEnv(tasks.getRepository());
+            statsRepair.start(statsRepairInterval);
+        }
+    }
+
+    public DatabaseManager getDatabaseManager() {
+        return database;
+    }
+
+    public TaskManager getTaskManager() {
+        return tasks;
+    }
+
+    // Size of the request permits: what the storage layer can actually serve in parallel
+    public int getMaxConcurrency() {
+        return store != null
+                ? Integer.parseInt(DatabaseManager.env("API_MAX_CONCURRENCY", "64"))
+                : DatabaseManager.getPool().getMaxSize();
+    }
+
+    @Override
+    public void close() {
+        // Returning the connections and shutting down the pool
+        if (reminders != null) {
+            reminders.close();
+        }
+        if (statsRepair != null) {
+            statsRepair.close();
+        }
+        if (searchIndex != null) {
+            try {
+                searchIndex.save();
+            } catch (StorageException e) {
+                logger.log(Level.WARNING, "Search index not saved; it will be rebuilt on the next start", e);
+            }
+        }
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+        if (rebalancer != null) {
+            rebalancer.close();
+        }
+        if (shards != null) {
+            shards.close();
+        }
+        if (replicas != null) {
+            replicas.close();
+        }
+        DatabaseManager.closePool();
+        Metrics.stopHttpExporter();
+        if (store != null) {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.aproject;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Scripted console session the appcds profile runs under -XX:ArchiveClassesAtExit, so the archive holds the
+// classes a real session loads; embedded storage only, on a scratch file.
+public class CdsTraining {
+
+    private static final String SESSION = String.join("\n",
+            "2", "cds@example.com", "cds-training", "cds-training-password",
+            "1", "cds-training", "cds-training-password",
+            "1", "Training task", "Created by the CDS training run", "2030/01/01",
+            "3",
+            "4",
+            "5", "1",
+            "8", "training",
+            "9", "1",
+            "2", "1",
+            "0", "");
+
+    public static void main(String[] args) {
+        if (!"embedded".equalsIgnoreCase(DatabaseManager.env("STORAGE", "mysql"))) {
+            throw new IllegalStateException("The training run needs STORAGE=embedded and a scratch STORAGE_PATH.");
+        }
+        InputStream stdin = System.in;
+        System.setIn(new ByteArrayInputStream(SESSION.getBytes(StandardCharsets.UTF_8)));
+        try {
+            Main.main(new String[]{"--fast-start"});
+        } finally {
+            System.setIn(stdin);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package org.aproject;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+// Columnar task storage: parallel primitive arrays with pooled UTF-8 strings, one insertion-ordered chain of
+// rows per user; removed rows are reclaimed by compact(), which runs once dead rows outnumber live ones.
+public class CompactTaskStore {
+
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int NO_ROW = -1;
+    private static final int MIN_COMPACTION_ROWS = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int[] ids;
+    private int[] userIds;
+    private int[] endDays;
+    private int[] names;
+    private int[] descriptions;
+    private int[] nextOfUser;
+    private BitSet status = new BitSet();
+    private BitSet deleted = new BitSet();
+    private int rows;
+    private int live;
+
+    private IntIntMap rowById;
+    private IntIntMap headOfUser;
+    private IntIntMap tailOfUser;
+    private StringPool strings;
+
+    public CompactTaskStore() {
+        this(1024);
+    }
+
+    public CompactTaskStore(int initialCapacity) {
+        allocate(Math.max(16, initialCapacity));
+    }
+
+    public void put(int userId, Task task) {
+        lock.writeLock().lock();
+        try {
+            int row = rowById.get(task.getId());
+            if (row != IntIntMap.MISSING && userIds[row] != userId) {
+                delete(row);
+                row = IntIntMap.MISSING;
+            }
+            if (row == IntIntMap.MISSING) {
+                row = append(userId, task.getId());
+            }
+            // Overwritten strings stay in the pool until the next compaction
+            names[row] = strings.intern(task.getName());
+            descriptions[row] = strings.intern(task.getDescription());
+            endDays[row] = task.getEnd_Date() == null ? NO_DATE : (int) task.getEnd_Date().toEpochDay();
+            status.set(row, task.isStatus());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void putAll(int userId, Iterable<Task> tasks) {
+        lock.writeLock().lock();
+        try {
+            for (Task task : tasks) {
+                put(userId, task);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(int taskId) {
+        lock.writeLock().lock();
+        try {
+            int row = rowById.get(taskId);
+            if (row == IntIntMap.MISSING) {
+                return false;
+            }
+            delete(row);
+            maybeCompact();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeUser(int userId) {
+        lock.writeLock().lock();
+        try {
+            for (int row = headOfUser.get(userId); row != NO_ROW; row = nextOfUser[row]) {
+                if (!deleted.get(row)) {
+                    delete(row);
+                }
+            }
+            headOfUser.remove(userId);
+            tailOfUser.remove(userId);
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            allocate(16);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(int taskId) {
+        lock.readLock().lock();
+        try {
+            return rowById.containsKey(taskId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Task get(int taskId) {
+        lock.readLock().lock();
+        try {
+            int row = rowById.get(taskId);
+            return row == IntIntMap.MISSING ? null : read(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void forEach(int userId, Consumer<Task> action) {
+        lock.readLock().lock();
+        try {
+            for (int row = headOfUser.get(userId); row != NO_ROW; row = nextOfUser[row]) {
+                if (!deleted.get(row)) {
+                    action.accept(read(row));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Map<Integer, Task> getTasks(int userId) {
+        Map<Integer, Task> tasks = new LinkedHashMap<>();
+        forEach(userId, task -> tasks.put(task.getId(), task));
+        return tasks;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            return 6L * Integer.BYTES * ids.length
+                    + status.size() / 8 + deleted.size() / 8
+                    + rowById.estimatedBytes() + headOfUser.estimatedBytes() + tailOfUser.estimatedBytes()
+                    + strings.estimatedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            int[] oldIds = ids;
+            int[] oldUserIds = userIds;
+            int[] oldEndDays = endDays;
+            int[] oldNames = names;
+            int[] oldDescriptions = descriptions;
+            BitSet oldStatus = status;
+            BitSet oldDeleted = deleted;
+            StringPool oldStrings = strings;
+            int oldRows = rows;
+
+            allocate(Math.max(16, live));
+            // Rows are appended in their original order, which keeps every user's chain in insertion order
+            for (int row = 0; row < oldRows; row++) {
+                if (oldDeleted.get(row)) {
+                    continue;
+                }
+                int newRow = append(oldUserIds[row], oldIds[row]);
+                names[newRow] = strings.intern(oldStrings.get(oldNames[row]));
+                descriptions[newRow] = strings.intern(oldStrings.get(oldDescriptions[row]));
+                endDays[newRow] = oldEndDays[row];
+                status.set(newRow, oldStatus.get(row));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int append(int userId, int taskId) {
+        if (rows == ids.length) {
+            grow(rows << 1);
+        }
+        int row = rows++;
+        ids[row] = taskId;
+        userIds[row] = userId;
+        nextOfUser[row] = NO_ROW;
+
+        int tail = tailOfUser.get(userId);
+        if (tail == IntIntMap.MISSING) {
+            headOfUser.put(userId, row);
+        } else {
+            nextOfUser[tail] = row;
+        }
+        tailOfUser.put(userId, row);
+        rowById.put(taskId, row);
+        live++;
+        return row;
+    }
+
+    private void delete(int row) {
+        deleted.set(row);
+        rowById.remove(ids[row]);
+        live--;
+    }
+
+    private void maybeCompact() {
+        int dead = rows - live;
+        if (dead > MIN_COMPACTION_ROWS && dead > live) {
+            compact();
+        }
+    }
+
+    private Task read(int row) {
+        int day = endDays[row];
+        return new Task(ids[row], strings.get(names[row]), strings.get(descriptions[row]),
+                day == NO_DATE ? null : LocalDate.ofEpochDay(day), status.get(row));
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        userIds = new int[capacity];
+        endDays = new int[capacity];
+        names = new int[capacity];
+        descriptions = new int[capacity];
+        nextOfUser = new int[capacity];
+        status = new BitSet(capacity);
+        deleted = new BitSet(capacity);
+        rows = 0;
+        live = 0;
+        rowById = new IntIntMap(capacity);
+        headOfUser = new IntIntMap(64);
+        tailOfUser = new IntIntMap(64);
+        strings = new StringPool(capacity);
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        userIds = Arrays.copyOf(userIds, capacity);
+        endDays = Arrays.copyOf(endDays, capacity);
+        names = Arrays.copyOf(names, capacity);
+        descriptions = Arrays.copyOf(descriptions, capacity);
+        nextOfUser = Arrays.copyOf(nextOfUser, capacity);
+    }
+
+    // Deduplicated strings stored back to back as UTF-8; a reference is the string's index
+    private static final class StringPool {
+        private static final int NULL_REF = -1;
+
+        private byte[] data;
+        private int dataLength;
+        private int[] offsets;
+        private int[] hashes;
+        private int count;
+        private int[] table;
+        private int mask;
+
+        private StringPool(int expectedStrings) {
+            data = new byte[Math.max(256, expectedStrings * 16)];
+            offsets = new int[Math.max(16, expectedStrings) + 1];
+            hashes = new int[offsets.length - 1];
+            table = new int[Integer.highestOneBit(Math.max(8, expectedStrings * 2) - 1) << 1];
+            mask = table.length - 1;
+        }
+
+        private int intern(String value) {
+            if (value == null) {
+                return NULL_REF;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int hash = Arrays.hashCode(bytes);
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (table[slot] != 0) {
+                int ref = table[slot] - 1;
+                if (hashes[ref] == hash && Arrays.equals(data, offsets[ref], offsets[ref + 1], bytes, 0, bytes.length)) {
+                    return ref;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            int ref = count++;
+            if (count == hashes.length) {
+                offsets = Arrays.copyOf(offsets, (hashes.length << 1) + 1);
+                hashes = Arrays.copyOf(hashes, hashes.length << 1);
+            }
+            if (dataLength + bytes.length > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length << 1, dataLength + bytes.length));
+            }
+            System.arraycopy(bytes, 0, data, dataLength, bytes.length);
+            offsets[ref] = dataLength;
+            dataLength += bytes.length;
+            offsets[ref + 1] = dataLength;
+            hashes[ref] = hash;
+            table[slot] = ref + 1;
+            if (count * 3 >= table.length * 2) {
+                rehash();
+            }
+            return ref;
+        }
+
+        private String get(int ref) {
+            if (ref == NULL_REF) {
+                return null;
+            }
+            return new String(data, offsets[ref], offsets[ref + 1] - offsets[ref], StandardCharsets.UTF_8);
+        }
+
+        private long estimatedBytes() {
+            return data.length + 4L * (offsets.length + hashes.length + table.length);
+        }
+
+        private void rehash() {
+            table = new int[table.length << 1];
+            mask = table.length - 1;
+            for (int ref = 0; ref < count; ref++) {
+                int slot = (hashes[ref] ^ (hashes[ref] >>> 16)) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = ref + 1;
+            }
+        }
+    }
+}
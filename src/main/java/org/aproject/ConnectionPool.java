@@ -0,0 +1,345 @@
+package org.aproject;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ConnectionPool implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final Metrics.Timer ACQUIRE = Metrics.timer("pool_acquire");
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final boolean traceLeaks;
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Map<PooledConnection, Long> borrowed = new ConcurrentHashMap<>();
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowTimeouts = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long borrowTimeoutMillis, long idleTimeoutMillis, long leakThresholdMillis) {
+        this(url, user, password, minSize, maxSize, borrowTimeoutMillis, idleTimeoutMillis, leakThresholdMillis, false);
+    }
+
+    // traceLeaks captures the borrower's stack trace for leak reports; it costs a stack walk per borrow
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long borrowTimeoutMillis, long idleTimeoutMillis, long leakThresholdMillis,
+                          boolean traceLeaks) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.traceLeaks = traceLeaks && leakThresholdMillis > 0;
+        this.permits = new Semaphore(maxSize, true);
+
+        for (int i = 0; i < minSize; i++) {
+            try {
+                idle.offerLast(openConnection());
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "Failed to pre-open pooled connection.", e);
+                break;
+            }
+        }
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, leakThresholdMillis) / 2);
+        housekeeper.scheduleAtFixedRate(this::housekeeping, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection.", e);
+        }
+        long waited = System.nanoTime() - start;
+        ACQUIRE.record(waited);
+        borrowWaitNanos.addAndGet(waited);
+        maxBorrowWaitNanos.accumulateAndGet(waited, Math::max);
+
+        if (!acquired) {
+            borrowTimeouts.incrementAndGet();
+            throw new SQLException("Timed out after " + borrowTimeoutMillis + " ms waiting for a connection.");
+        }
+
+        try {
+            PooledConnection pooled = takeValidConnection();
+            if (leakThresholdMillis > 0) {
+                pooled.borrowThread = Thread.currentThread().getName();
+                pooled.borrowedBy = traceLeaks ? new Throwable("Connection borrowed here") : null;
+            }
+            borrowed.put(pooled, System.currentTimeMillis());
+            borrowCount.incrementAndGet();
+            return new Handle(pooled).proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeValidConnection() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isValid(pooled)) {
+                return pooled;
+            }
+            validationFailures.incrementAndGet();
+            destroy(pooled);
+        }
+        return openConnection();
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return !pooled.raw.isClosed() && pooled.raw.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        Connection raw = DriverManager.getConnection(url, user, password);
+        totalConnections.incrementAndGet();
+        return new PooledConnection(raw);
+    }
+
+    private void release(PooledConnection pooled) {
+        if (borrowed.remove(pooled) == null) {
+            return;
+        }
+        pooled.lastUsed = System.currentTimeMillis();
+        pooled.borrowedBy = null;
+
+        try {
+            if (!pooled.raw.getAutoCommit()) {
+                pooled.raw.rollback();
+                pooled.raw.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            destroy(pooled);
+            permits.release();
+            return;
+        }
+
+        if (closed) {
+            destroy(pooled);
+        } else {
+            idle.offerFirst(pooled);
+        }
+        permits.release();
+    }
+
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        try {
+            pooled.raw.close();
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "Error closing pooled connection.", e);
+        }
+    }
+
+    private void housekeeping() {
+        long now = System.currentTimeMillis();
+
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && totalConnections.get() > minSize) {
+            PooledConnection pooled = it.next();
+            if (now - pooled.lastUsed > idleTimeoutMillis && idle.remove(pooled)) {
+                destroy(pooled);
+            }
+        }
+
+        if (leakThresholdMillis > 0) {
+            for (Map.Entry<PooledConnection, Long> entry : borrowed.entrySet()) {
+                PooledConnection pooled = entry.getKey();
+                if (!pooled.leakReported && now - entry.getValue() > leakThresholdMillis) {
+                    pooled.leakReported = true;
+                    leaksDetected.incrementAndGet();
+                    logger.log(Level.WARNING, "Connection borrowed by thread " + pooled.borrowThread
+                            + " not returned to the pool after " + (now - entry.getValue()) + " ms. Possible leak."
+                            + (traceLeaks ? "" : " Set DATABASE_POOL_LEAK_TRACE=true to log where it was borrowed."),
+                            pooled.borrowedBy);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        List<PooledConnection> drained = new ArrayList<>();
+        idle.drainTo(drained);
+        for (PooledConnection pooled : drained) {
+            destroy(pooled);
+        }
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public int getTotalCount() {
+        return totalConnections.get();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getBorrowTimeouts() {
+        return borrowTimeouts.get();
+    }
+
+    public long getAverageBorrowWaitMicros() {
+        long count = borrowCount.get() + borrowTimeouts.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(borrowWaitNanos.get() / count);
+    }
+
+    public long getMaxBorrowWaitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxBorrowWaitNanos.get());
+    }
+
+    public long getValidationFailures() {
+        return validationFailures.get();
+    }
+
+    public long getLeaksDetected() {
+        return leaksDetected.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "active=" + getActiveCount() +
+                ", idle=" + getIdleCount() +
+                ", total=" + getTotalCount() +
+                ", borrows=" + getBorrowCount() +
+                ", timeouts=" + getBorrowTimeouts() +
+                ", avgWaitUs=" + getAverageBorrowWaitMicros() +
+                ", maxWaitUs=" + getMaxBorrowWaitMicros() +
+                ", leaks=" + getLeaksDetected() +
+                '}';
+    }
+
+    private static final class PooledConnection {
+        private final Connection raw;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile String borrowThread;
+        private volatile Throwable borrowedBy;
+        private volatile boolean leakReported;
+
+        private PooledConnection(Connection raw) {
+            this.raw = raw;
+        }
+    }
+
+    // One per borrow, so a late close() or a stale reference cannot reach the next borrower's connection
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final Connection proxy;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+            this.proxy = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (closed.compareAndSet(false, true)) {
+                        pooled.leakReported = false;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed.get() || pooled.raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.raw;
+                default:
+                    if (closed.get()) {
+                        throw new SQLException("Connection has already been returned to the pool.");
+                    }
+                    try {
+                        return method.invoke(pooled.raw, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
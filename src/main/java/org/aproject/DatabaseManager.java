@@ -1,47 +1,122 @@
 package org.aproject;
 
-import at.favre.lib.crypto.bcrypt.BCrypt;
 import io.github.cdimascio.dotenv.Dotenv;
 
-import java.io.Console;
 import java.sql.*;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class DatabaseManager {
 
-    private static final Dotenv dotenv = Dotenv.configure().load();
-    private static final String URL = dotenv.get("DATABASE_URL");
-    private static final String USER = dotenv.get("DATABASE_USER");
-    private static final String PASSWORD = dotenv.get("DATABASE_PASSWORD");
     private static final Logger logger = Logger.getLogger(DatabaseManager.class.getName());
 
-    public static Connection getConnection() {
-        Connection connection = null;
+    private static final Metrics.Timer REGISTER_USER = Metrics.timer("user_register");
+    private static final Metrics.Timer LOGIN_USER = Metrics.timer("user_login");
+    private static final Metrics.Timer INSERT_USER = Metrics.timer("db_insert_user");
+    private static final Metrics.Timer UPDATE_PASSWORD_HASH = Metrics.timer("db_update_password_hash");
+    private static final Metrics.Timer FIND_USER = Metrics.timer("db_find_user");
+    private static final Metrics.Timer INSERT_TASK = Metrics.timer("db_insert_task");
+    private static final Metrics.Timer REMOVE_TASK = Metrics.timer("db_remove_task");
+    private static final Metrics.Timer INSERT_TASKS = Metrics.timer("db_insert_tasks_batch");
+    private static final Metrics.Timer REMOVE_TASKS = Metrics.timer("db_remove_tasks_batch");
+    private static final Metrics.Timer GET_ALL_TASKS = Metrics.timer("db_get_all_tasks");
+    private static final Metrics.Timer GET_TASKS_PAGE = Metrics.timer("db_get_tasks_page");
+    private static final Metrics.Timer GET_VERSION_STAMP = Metrics.timer("db_get_version_stamp");
+    private static final Metrics.Timer GET_CHANGES = Metrics.timer("db_get_tasks_changed_since");
+    private static final Metrics.Timer SET_STATUS = Metrics.timer("db_set_task_status");
+    private static final Metrics.Timer GET_STATS = Metrics.timer("db_get_task_stats");
+    private static final Metrics.Counter ROWS_INSERTED = Metrics.counter("db_tasks_rows_inserted_total");
+    private static final Metrics.Counter ROWS_REMOVED = Metrics.counter("db_tasks_rows_removed_total");
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static volatile ConnectionPool pool;
+
+    // The .env file is read on the first env() call, not when DatabaseManager is loaded
+    private static final class Config {
+        private static final Dotenv DOTENV = Dotenv.configure().ignoreIfMissing().load();
+    }
 
-        Console console = System.console();
-        if (console == null) {
-            System.out.println("Console unavailable. Use Scanner for reading.");
-            return null;
+    static String env(String key, String defaultValue) {
+        String value = Config.DOTENV.get(key);
+        return value == null || value.isBlank() ? defaultValue : value;
+    }
+
+    public static ConnectionPool getPool() {
+        ConnectionPool current = pool;
+        if (current == null) {
+            synchronized (DatabaseManager.class) {
+                current = pool;
+                if (current == null) {
+                    String url = Config.DOTENV.get("DATABASE_URL");
+                    assert url != null;
+                    current = newPool(url, Config.DOTENV.get("DATABASE_USER"), Config.DOTENV.get("DATABASE_PASSWORD"));
+                    pool = current;
+                    registerPoolGauges();
+                    logger.info("Connection pool initialized.");
+                }
+            }
         }
+        return current;
+    }
 
-        try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            assert URL != null;
-            connection = DriverManager.getConnection(URL, USER, PASSWORD);
-            logger.info("Connection established successfully.");
+    // Every data source, the primary and each task shard, is sized from the same settings
+    static ConnectionPool newPool(String url, String user, String password) {
+        return new ConnectionPool(url, user, password,
+                Integer.parseInt(env("DATABASE_POOL_MIN", "2")),
+                Integer.parseInt(env("DATABASE_POOL_MAX", "10")),
+                Long.parseLong(env("DATABASE_POOL_BORROW_TIMEOUT_MS", "5000")),
+                Long.parseLong(env("DATABASE_POOL_IDLE_TIMEOUT_MS", "300000")),
+                Long.parseLong(env("DATABASE_POOL_LEAK_THRESHOLD_MS", "60000")),
+                Boolean.parseBoolean(env("DATABASE_POOL_LEAK_TRACE", "false")));
+    }
+
+    public static synchronized void setPool(ConnectionPool newPool) {
+        ConnectionPool old = pool;
+        pool = newPool;
+        registerPoolGauges();
+        if (old != null && old != newPool) {
+            old.close();
+        }
+    }
 
-        } catch (ClassNotFoundException e) {
-            logger.log(Level.SEVERE, "Failed to access driver.", e);
+    private static void registerPoolGauges() {
+        Metrics.gauge("pool_active_connections", () -> pool == null ? 0 : pool.getActiveCount());
+        Metrics.gauge("pool_idle_connections", () -> pool == null ? 0 : pool.getIdleCount());
+        Metrics.gauge("pool_borrow_timeouts_total", () -> pool == null ? 0 : pool.getBorrowTimeouts());
+        Metrics.gauge("pool_leaks_detected_total", () -> pool == null ? 0 : pool.getLeaksDetected());
+    }
+
+    public static synchronized void closePool() {
+        if (pool != null) {
+            logger.info("Closing connection pool: " + pool);
+            pool.close();
+            pool = null;
+        }
+    }
+
+    public static Connection getConnection() {
+        try {
+            return getPool().borrow();
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Failed to access the database.", e);
             throw new RuntimeException(e);
         }
-
-        return connection;
     }
 
     public static void createUsersTableIfNotExists(Connection connection) {
@@ -62,14 +137,19 @@ public class DatabaseManager {
     }
 
     public static void createTasksTableIfNotExists(Connection connection) {
+        createTasksTableIfNotExists(connection, true);
+    }
+
+    // Task shards hold no users table, so their tasks cannot reference it
+    public static void createTasksTableIfNotExists(Connection connection, boolean ownerKey) {
         String createTableSQL = "CREATE TABLE IF NOT EXISTS tasks ("
                 + "id INT AUTO_INCREMENT PRIMARY KEY,"
                 + "user_id INT NOT NULL,"
                 + "name VARCHAR(255) NOT NULL,"
                 + "description VARCHAR(255),"
                 + "end_date DATE,"
-                + "status BOOLEAN DEFAULT FALSE,"
-                + "FOREIGN KEY (user_id) REFERENCES users(id)"
+                + "status BOOLEAN DEFAULT FALSE"
+                + (ownerKey ? ",FOREIGN KEY (user_id) REFERENCES users(id)" : "")
                 + ")";
 
         try (Statement statement = connection.createStatement()) {
@@ -80,163 +160,807 @@ public class DatabaseManager {
         }
     }
 
-    public boolean registerUser(String username, String password, String email) {
-        String sql = "INSERT INTO users (username, password, email) VALUES (?, ?, ?)";
+    private static volatile PasswordHasher defaultHasher;
+    private static volatile LoginThrottle defaultThrottle;
 
-        try (Connection conn = getConnection()) {
-            assert conn != null;
-            PreparedStatement pstmt = conn.prepareStatement(sql);
+    private final UserRepository userRepository;
+    private final PasswordHasher hasher;
+    // Null when attempts are not rate limited
+    private final LoginThrottle throttle;
 
-            String hashedPassword = hashPassword(password);
+    public DatabaseManager() {
+        this.userRepository = new JdbcUserRepository(this);
+        this.hasher = getDefaultHasher();
+        this.throttle = getDefaultThrottle();
+    }
 
-            pstmt.setString(1, username);
-            pstmt.setString(2, hashedPassword);
-            pstmt.setString(3, email);
-            pstmt.executeUpdate();
-            return true;
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to register user.", e);
+    public DatabaseManager(UserRepository userRepository) {
+        this(userRepository, getDefaultHasher(), getDefaultThrottle());
+    }
+
+    public DatabaseManager(UserRepository userRepository, PasswordHasher hasher) {
+        this(userRepository, hasher, null);
+    }
+
+    public DatabaseManager(UserRepository userRepository, PasswordHasher hasher, LoginThrottle throttle) {
+        this.userRepository = userRepository;
+        this.hasher = hasher;
+        this.throttle = throttle;
+    }
+
+    public static PasswordHasher getDefaultHasher() {
+        PasswordHasher current = defaultHasher;
+        if (current == null) {
+            synchronized (DatabaseManager.class) {
+                current = defaultHasher;
+                if (current == null) {
+                    current = new PasswordHasher(
+                            Integer.parseInt(env("BCRYPT_COST", "12")),
+                            Integer.parseInt(env("BCRYPT_THREADS", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                            Integer.parseInt(env("BCRYPT_QUEUE_CAPACITY", "64")));
+                    defaultHasher = current;
+                    PasswordHasher registered = current;
+                    Metrics.gauge("password_hasher_queue_depth", registered::getQueueDepth);
+                    Metrics.gauge("password_hasher_rejected_total", registered::getRejectedCount);
+                }
+            }
+        }
+        return current;
+    }
+
+    // Shared by every DatabaseManager, like the hasher it protects; null when LOGIN_THROTTLE=false
+    public static LoginThrottle getDefaultThrottle() {
+        if (!Boolean.parseBoolean(env("LOGIN_THROTTLE", "true"))) {
+            return null;
+        }
+        LoginThrottle current = defaultThrottle;
+        if (current == null) {
+            synchronized (DatabaseManager.class) {
+                current = defaultThrottle;
+                if (current == null) {
+                    current = LoginThrottle.fromEnv();
+                    defaultThrottle = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    public boolean registerUser(String username, String password, String email) {
+        long start = System.nanoTime();
+        try {
+            return registerUserAsync(username, password, email).join();
+        } catch (CompletionException e) {
+            logRejection("Failed to register user.", e.getCause());
             return false;
+        } finally {
+            REGISTER_USER.recordSince(start);
         }
     }
 
-    private String hashPassword(String password) {
-        return BCrypt.withDefaults().hashToString(12, password.toCharArray());
+    public CompletableFuture<Boolean> registerUserAsync(String username, String password, String email) {
+        return registerUserAsync(username, password, email, null);
+    }
+
+    // source is the client address for per-source rate limiting, null when there is none
+    public CompletableFuture<Boolean> registerUserAsync(String username, String password, String email, String source) {
+        if (throttle != null) {
+            try {
+                throttle.acquireRegistration(source);
+            } catch (LoginThrottledException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return hasher.hash(password)
+                .thenApply(hashedPassword -> userRepository.insertUser(username, hashedPassword, email));
     }
 
     public User loginUser(String username, String password) {
-        String sql = "SELECT * FROM users WHERE username = ?";
+        long start = System.nanoTime();
+        try {
+            return loginUserAsync(username, password).join();
+        } catch (CompletionException e) {
+            logRejection("Failed to login user.", e.getCause());
+            return null;
+        } catch (StorageException e) {
+            logger.log(Level.SEVERE, "Failed to login user.", e);
+            return null;
+        } finally {
+            LOGIN_USER.recordSince(start);
+        }
+    }
+
+    public CompletableFuture<User> loginUserAsync(String username, String password) {
+        return loginUserAsync(username, password, null);
+    }
+
+    // Throttled attempts fail fast with a LoginThrottledException, before the user lookup and the hash
+    public CompletableFuture<User> loginUserAsync(String username, String password, String source) {
+        if (throttle != null) {
+            try {
+                throttle.acquireLogin(username, source);
+            } catch (LoginThrottledException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        StoredUser stored = userRepository.findByUsername(username);
+        if (stored == null) {
+            return CompletableFuture.completedFuture(null);
+        }
 
-        try (Connection conn = getConnection()) {
-            assert conn != null;
-            PreparedStatement pstmt = conn.prepareStatement(sql);
+        return hasher.verify(password, stored.getPasswordHash()).thenApply(verified -> {
+            if (!verified) {
+                return null;
+            }
+            if (throttle != null) {
+                throttle.onLoginSucceeded(username);
+            }
+            if (hasher.needsRehash(stored.getPasswordHash())) {
+                rehash(stored.getUser(), password);
+            }
+            return stored.getUser();
+        });
+    }
 
-            pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
+    private void rehash(User user, String password) {
+        hasher.hash(password)
+                .thenAccept(newHash -> {
+                    userRepository.updatePasswordHash(user.getId(), newHash);
+                    logger.info("Password hash upgraded to cost " + hasher.getCost() + " for user " + user.getId() + ".");
+                })
+                .exceptionally(e -> {
+                    logger.log(Level.WARNING, "Failed to upgrade password hash for user " + user.getId() + ".", e);
+                    return null;
+                });
+    }
 
-            if (rs.next()) {
-                String storedHash = rs.getString("password");
-                BCrypt.Result result = BCrypt.verifyer().verify(password.toCharArray(), storedHash);
-                if (result.verified) {
-                    return new User(rs.getInt("id"), rs.getString("username"), rs.getString("email"));
+    private static void logRejection(String message, Throwable cause) {
+        if (cause instanceof RejectedExecutionException) {
+            logger.warning(message + " Password hashing service is overloaded.");
+        } else if (cause instanceof LoginThrottledException) {
+            logger.warning(message + " " + cause.getMessage() + " Retry in "
+                    + (((LoginThrottledException) cause).getRetryAfterMillis() + 999) / 1000 + " s.");
+        } else {
+            logger.log(Level.SEVERE, message, cause);
+        }
+    }
+
+    protected boolean insertUserIntoDB(Connection connection, String username, String passwordHash, String email) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            String sql = "INSERT INTO users (username, password, email) VALUES (?, ?, ?)";
+
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setString(1, username);
+                pstmt.setString(2, passwordHash);
+                pstmt.setString(3, email);
+                return pstmt.executeUpdate() > 0;
+            } catch (SQLIntegrityConstraintViolationException e) {
+                // The unique username index turned it down, like EmbeddedStore does with its own check
+                if (isDuplicateKey(e)) {
+                    return false;
                 }
+                throw e;
             }
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to login user.", e);
+        } finally {
+            INSERT_USER.recordSince(start);
         }
-        return null;
     }
 
-    private boolean tableExists(Connection connection) throws SQLException {
-        DatabaseMetaData metaData = connection.getMetaData();
-        try (ResultSet resultSet = metaData.getTables(null, null, "tasks", null)) {
-            return resultSet.next();
+    // 23505 is the standard unique violation; MySQL reports 23000 for every constraint, so its error code decides
+    private static boolean isDuplicateKey(SQLException e) {
+        return "23505".equals(e.getSQLState()) || e.getErrorCode() == 1062;
+    }
+
+    protected void updatePasswordHashInDB(Connection connection, int userId, String passwordHash) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            String sql = "UPDATE users SET password = ? WHERE id = ?";
+
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setString(1, passwordHash);
+                pstmt.setInt(2, userId);
+                pstmt.executeUpdate();
+            }
+        } finally {
+            UPDATE_PASSWORD_HASH.recordSince(start);
         }
     }
 
-    private boolean taskExists(Connection connection, int taskId, int userId) throws SQLException {
-        String sqlCheck = "SELECT id FROM tasks WHERE id = ? AND user_id = ?";
-        try (PreparedStatement pstmtCheck = connection.prepareStatement(sqlCheck)) {
-            pstmtCheck.setInt(1, taskId);
-            pstmtCheck.setInt(2, userId);
-            try (ResultSet rs = pstmtCheck.executeQuery()) {
-                return rs.next();
+    protected StoredUser findUserInDB(Connection connection, String username) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            String sql = "SELECT id, username, password, email FROM users WHERE username = ?";
+
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setString(1, username);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        User user = new User(rs.getInt("id"), rs.getString("username"), rs.getString("email"));
+                        return new StoredUser(user, rs.getString("password"));
+                    }
+                }
             }
+            return null;
+        } finally {
+            FIND_USER.recordSince(start);
         }
     }
 
     protected void insertTaskIntoDB(Connection connection, Task task, User user) throws SQLException {
-        if (tableExists(connection)) {
-            String sqlInsert = "INSERT INTO tasks (id, user_id, name, description, end_date, status) VALUES (?, ?, ?, ?, ?, ?)";
-            try (PreparedStatement pstmtInsert = connection.prepareStatement(sqlInsert)) {
-                pstmtInsert.setInt(1, task.getId());
-                pstmtInsert.setInt(2, user.getId());
-                pstmtInsert.setString(3, task.getName());
-                pstmtInsert.setString(4, task.getDescription());
-                pstmtInsert.setDate(5, java.sql.Date.valueOf(task.getEnd_Date()));
-                pstmtInsert.setBoolean(6, task.isStatus());
+        long start = System.nanoTime();
+        try {
+            if (SchemaManager.isReady(connection)) {
+                String sqlInsert = "INSERT INTO tasks (user_id, name, description, end_date, status, version) VALUES (?, ?, ?, ?, ?, ?)";
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try (PreparedStatement pstmtInsert = connection.prepareStatement(sqlInsert, Statement.RETURN_GENERATED_KEYS)) {
+                    pstmtInsert.setInt(1, user.getId());
+                    pstmtInsert.setString(2, task.getName());
+                    pstmtInsert.setString(3, task.getDescription());
+                    pstmtInsert.setDate(4, java.sql.Date.valueOf(task.getEnd_Date()));
+                    pstmtInsert.setBoolean(5, task.isStatus());
+                    pstmtInsert.setLong(6, nextTaskVersion(connection, user.getId()));
+
+                    int rowsAffected = pstmtInsert.executeUpdate();
+                    try (ResultSet keys = pstmtInsert.getGeneratedKeys()) {
+                        if (!keys.next()) {
+                            throw new SQLException("Inserting task did not return a generated key.");
+                        }
+                        task.setId(keys.getInt(1));
+                    }
+                    TaskQueries.adjustTaskStats(connection, user.getId(), task.isStatus() ? 0 : 1, task.isStatus() ? 1 : 0);
+                    if (!task.isStatus()) {
+                        TaskQueries.adjustDueCount(connection, user.getId(), task.getEnd_Date(), 1);
+                    }
+                    connection.commit();
+
+                    ROWS_INSERTED.add(rowsAffected);
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine("Rows affected by insertion: " + rowsAffected);
+                    }
+                    if (rowsAffected > 0) {
+                        logger.fine("Task inserted successfully.");
+                    }
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            } else {
+                logger.warning("This table does not exist.");
+            }
+        } finally {
+            INSERT_TASK.recordSince(start);
+        }
+    }
 
-                int rowsAffected = pstmtInsert.executeUpdate();
-                logger.info("Rows affected by insertion: " + rowsAffected);
+    // The DELETE is scoped by user_id, so its row count says whether the task existed and was the user's
+    protected boolean removeTaskFromDB(Connection connection, int taskId, User user) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!SchemaManager.isReady(connection)) {
+                logger.warning("This table does not exist.");
+                return false;
+            }
+            if (deleteTasks(connection, new int[]{taskId}, user) == 0) {
+                logger.warning("Task with ID " + taskId + " not found or does not belong to the user. No action taken.");
+                return false;
+            }
+            return true;
+        } finally {
+            REMOVE_TASK.recordSince(start);
+        }
+    }
 
-                logger.info("Task inserted successfully.");
+    protected void insertTasksIntoDB(Connection connection, Collection<Task> tasks, User user) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (tasks.isEmpty()) {
+                return;
             }
-        } else {
-            logger.warning("This table does not exist.");
+            if (!SchemaManager.isReady(connection)) {
+                logger.warning("This table does not exist.");
+                return;
+            }
+
+            String sqlInsert = "INSERT INTO tasks (user_id, name, description, end_date, status, version) VALUES (?, ?, ?, ?, ?, ?)";
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement pstmtInsert = connection.prepareStatement(sqlInsert, Statement.RETURN_GENERATED_KEYS)) {
+                long version = nextTaskVersion(connection, user.getId());
+                List<Task> pending = new ArrayList<>(Math.min(tasks.size(), BATCH_SIZE));
+                int rowsAffected = 0;
+                StatsDelta stats = new StatsDelta();
+                for (Task task : tasks) {
+                    stats.add(task.isStatus(), task.getEnd_Date(), 1);
+                    pstmtInsert.setInt(1, user.getId());
+                    pstmtInsert.setString(2, task.getName());
+                    pstmtInsert.setString(3, task.getDescription());
+                    pstmtInsert.setDate(4, java.sql.Date.valueOf(task.getEnd_Date()));
+                    pstmtInsert.setBoolean(5, task.isStatus());
+                    pstmtInsert.setLong(6, version);
+                    pstmtInsert.addBatch();
+                    pending.add(task);
+
+                    if (pending.size() == BATCH_SIZE) {
+                        rowsAffected += executeInsertBatch(pstmtInsert, pending);
+                    }
+                }
+                if (!pending.isEmpty()) {
+                    rowsAffected += executeInsertBatch(pstmtInsert, pending);
+                }
+                stats.apply(connection, user.getId());
+                connection.commit();
+                ROWS_INSERTED.add(rowsAffected);
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Rows affected by batch insertion: " + rowsAffected);
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } finally {
+            INSERT_TASKS.recordSince(start);
         }
     }
 
-    protected void removeTaskFromDB(Connection connection, int taskId, User user) throws SQLException {
-        if (!taskExists(connection, taskId, user.getId())) {
-            logger.warning("Task with ID " + taskId + " not found or does not belong to the user. No action taken.");
-            return;
+    protected int removeTasksFromDB(Connection connection, int[] taskIds, User user) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (taskIds.length == 0) {
+                return 0;
+            }
+            if (!SchemaManager.isReady(connection)) {
+                logger.warning("This table does not exist.");
+                return 0;
+            }
+
+            int rowsAffected = deleteTasks(connection, taskIds, user);
+            if (rowsAffected < taskIds.length) {
+                logger.warning((taskIds.length - rowsAffected) + " task(s) not found or not owned by the user.");
+            }
+            return rowsAffected;
+        } finally {
+            REMOVE_TASKS.recordSince(start);
         }
+    }
 
-        if (tableExists(connection)) {
-            String sqlRemove = "DELETE FROM tasks WHERE id = ? AND user_id = ?";
-            try (PreparedStatement pstmtRemove = connection.prepareStatement(sqlRemove)) {
-                pstmtRemove.setInt(1, taskId);
-                pstmtRemove.setInt(2, user.getId());
+    // Returns the rows deleted; when there were none, the version bump is rolled back with the rest
+    private static int deleteTasks(Connection connection, int[] taskIds, User user) throws SQLException {
+        int rowsAffected = 0;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            long version = nextTaskVersion(connection, user.getId());
+            StatsDelta stats = new StatsDelta();
+            for (int from = 0; from < taskIds.length; from += BATCH_SIZE) {
+                int to = Math.min(taskIds.length, from + BATCH_SIZE);
+                StringBuilder idList = new StringBuilder("(");
+                for (int i = from; i < to; i++) {
+                    idList.append(i == from ? "?" : ", ?");
+                }
+                idList.append(')');
+
+                String sqlCounts = "SELECT status, end_date, COUNT(*) FROM tasks WHERE user_id = ? AND id IN " + idList
+                        + " GROUP BY status, end_date";
+                try (PreparedStatement pstmtCounts = connection.prepareStatement(sqlCounts)) {
+                    pstmtCounts.setInt(1, user.getId());
+                    for (int i = from; i < to; i++) {
+                        pstmtCounts.setInt(i - from + 2, taskIds[i]);
+                    }
+                    try (ResultSet rs = pstmtCounts.executeQuery()) {
+                        while (rs.next()) {
+                            java.sql.Date endDate = rs.getDate(2);
+                            stats.add(rs.getBoolean(1), endDate == null ? null : endDate.toLocalDate(), -rs.getInt(3));
+                        }
+                    }
+                }
 
-                int rowsAffected = pstmtRemove.executeUpdate();
-                logger.info("Rows affected by removal: " + rowsAffected);
+                // Tombstones let change-feed readers learn about the removal
+                String sqlTombstone = "INSERT INTO task_tombstones (task_id, user_id, version) "
+                        + "SELECT id, user_id, ? FROM tasks WHERE user_id = ? AND id IN " + idList;
+                try (PreparedStatement pstmtTombstone = connection.prepareStatement(sqlTombstone)) {
+                    pstmtTombstone.setLong(1, version);
+                    pstmtTombstone.setInt(2, user.getId());
+                    for (int i = from; i < to; i++) {
+                        pstmtTombstone.setInt(i - from + 3, taskIds[i]);
+                    }
+                    pstmtTombstone.executeUpdate();
+                }
 
-                if (rowsAffected > 0) {
-                    logger.info("Task removed successfully.");
-                } else {
-                    logger.warning("Task not removed. It may not belong to the user.");
+                try (PreparedStatement pstmtRemove = connection.prepareStatement("DELETE FROM tasks WHERE user_id = ? AND id IN " + idList)) {
+                    pstmtRemove.setInt(1, user.getId());
+                    for (int i = from; i < to; i++) {
+                        pstmtRemove.setInt(i - from + 2, taskIds[i]);
+                    }
+                    rowsAffected += pstmtRemove.executeUpdate();
                 }
             }
-        } else {
-            logger.warning("This table does not exist.");
+            if (rowsAffected == 0) {
+                connection.rollback();
+                return 0;
+            }
+            stats.apply(connection, user.getId());
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
         }
+
+        ROWS_REMOVED.add(rowsAffected);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Rows affected by batch removal: " + rowsAffected);
+        }
+        return rowsAffected;
+    }
+
+    // Returns false when the task does not exist, is not the user's or already has that status
+    protected boolean setTaskStatusInDB(Connection connection, int taskId, boolean status, User user) throws SQLException {
+        long start = System.nanoTime();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            // Taken first, like every other write, so the end date read below cannot change underneath
+            long version = nextTaskVersion(connection, user.getId());
+            LocalDate endDate;
+            try (PreparedStatement pstmtRead = connection.prepareStatement(
+                    "SELECT end_date FROM tasks WHERE id = ? AND user_id = ? AND status = ?")) {
+                pstmtRead.setInt(1, taskId);
+                pstmtRead.setInt(2, user.getId());
+                pstmtRead.setBoolean(3, !status);
+                try (ResultSet rs = pstmtRead.executeQuery()) {
+                    if (!rs.next()) {
+                        // Nothing changed, so the version bump is rolled back with it
+                        connection.rollback();
+                        return false;
+                    }
+                    java.sql.Date date = rs.getDate(1);
+                    endDate = date == null ? null : date.toLocalDate();
+                }
+            }
+            try (PreparedStatement pstmtUpdate = connection.prepareStatement(
+                    "UPDATE tasks SET status = ?, version = ? WHERE id = ? AND user_id = ?")) {
+                pstmtUpdate.setBoolean(1, status);
+                pstmtUpdate.setLong(2, version);
+                pstmtUpdate.setInt(3, taskId);
+                pstmtUpdate.setInt(4, user.getId());
+                pstmtUpdate.executeUpdate();
+            }
+            StatsDelta stats = new StatsDelta();
+            stats.add(!status, endDate, -1);
+            stats.add(status, endDate, 1);
+            stats.apply(connection, user.getId());
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            SET_STATUS.recordSince(start);
+        }
+    }
+
+    protected TaskStats getTaskStats(Connection connection, User user, LocalDate today) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return TaskQueries.readTaskStats(connection, user.getId(), today);
+        } finally {
+            GET_STATS.recordSince(start);
+        }
+    }
+
+    // Summary changes of one write, applied once before its commit: one row per distinct end date
+    private static final class StatsDelta {
+        private int open;
+        private int completed;
+        private final Map<LocalDate, Integer> due = new HashMap<>();
+
+        void add(boolean status, LocalDate endDate, int count) {
+            if (status) {
+                completed += count;
+            } else {
+                open += count;
+                if (endDate != null) {
+                    due.merge(endDate, count, Integer::sum);
+                }
+            }
+        }
+
+        void apply(Connection connection, int userId) throws SQLException {
+            TaskQueries.adjustTaskStats(connection, userId, open, completed);
+            for (Map.Entry<LocalDate, Integer> entry : due.entrySet()) {
+                TaskQueries.adjustDueCount(connection, userId, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static int executeInsertBatch(PreparedStatement pstmtInsert, List<Task> pending) throws SQLException {
+        int rowsAffected = sum(pstmtInsert.executeBatch());
+        try (ResultSet keys = pstmtInsert.getGeneratedKeys()) {
+            for (Task task : pending) {
+                if (!keys.next()) {
+                    throw new SQLException("Batch insert returned fewer generated keys than rows.");
+                }
+                task.setId(keys.getInt(1));
+            }
+        }
+        pending.clear();
+        return rowsAffected;
+    }
+
+    private static int sum(int[] updateCounts) {
+        int total = 0;
+        for (int count : updateCounts) {
+            // Drivers may report SUCCESS_NO_INFO (-2) for rewritten multi-row statements
+            total += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+        }
+        return total;
     }
 
     public Map<Integer, Task> getAllTasks(Connection connection, User user) throws SQLException {
-        Map<Integer, Task> tasks = new LinkedHashMap<>();
-
-        String sqlGetUserId = "SELECT id FROM users WHERE username = ?";
-        int userId;
-        try (PreparedStatement pstmtGetUserId = connection.prepareStatement(sqlGetUserId)) {
-            pstmtGetUserId.setString(1, user.getUsername());
-            ResultSet rs = pstmtGetUserId.executeQuery();
-            if (rs.next()) {
-                userId = rs.getInt("id");
+        long start = System.nanoTime();
+        try {
+            Map<Integer, Task> tasks = new LinkedHashMap<>();
+            // The id comes from the logged-in user rather than a users lookup, which a task shard could not answer
+            int userId = user.getId();
+
+            if (SchemaManager.isReady(connection)) {
+                String sqlSelect = "SELECT id, name, description, end_date, status FROM tasks WHERE user_id = ?";
+
+                try (PreparedStatement pstmtSelect = connection.prepareStatement(sqlSelect)) {
+                    pstmtSelect.setInt(1, userId);
+                    ResultSet rs = pstmtSelect.executeQuery();
+
+                    while (rs.next()) {
+                        int id = rs.getInt("id");
+                        String name = rs.getString("name");
+                        String description = rs.getString("description");
+                        LocalDate endDate = rs.getDate("end_date").toLocalDate();
+                        boolean status = rs.getBoolean("status");
+
+                        Task task = new Task(id, name, description, endDate, status);
+                        tasks.put(id, task);
+                    }
+                }
             } else {
-                logger.warning("User not found.");
-                return tasks;
+                logger.warning("Table 'tasks' does not exist.");
             }
+            return tasks;
+        } finally {
+            GET_ALL_TASKS.recordSince(start);
         }
+    }
+
+    protected Stream<Task> streamTasks(Connection connection, User user, int fetchSize) throws SQLException {
+        String sqlSelect = "SELECT id, name, description, end_date, status FROM tasks WHERE user_id = ?";
+
+        PreparedStatement pstmtSelect = connection.prepareStatement(sqlSelect, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        ResultSet rs;
+        try {
+            pstmtSelect.setFetchSize(fetchSize);
+            pstmtSelect.setInt(1, user.getId());
+            rs = pstmtSelect.executeQuery();
+        } catch (SQLException e) {
+            pstmtSelect.close();
+            throw e;
+        }
+
+        Spliterator<Task> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Task> action) {
+                try {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    action.accept(readTask(rs));
+                    return true;
+                } catch (SQLException e) {
+                    throw new StorageException("Failed to read task row.", e);
+                }
+            }
+        };
+
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            try {
+                rs.close();
+                pstmtSelect.close();
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "Error closing task stream.", e);
+            }
+        });
+    }
 
-        if (tableExists(connection)) {
-            String sqlSelect = "SELECT id, name, description, end_date, status FROM tasks WHERE user_id = ?";
+    protected List<Task> getTasksPage(Connection connection, User user, Task after, int limit) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            String sqlPage = after == null
+                    ? "SELECT id, name, description, end_date, status FROM tasks WHERE user_id = ? "
+                    + "ORDER BY end_date, id LIMIT ?"
+                    : "SELECT id, name, description, end_date, status FROM tasks WHERE user_id = ? "
+                    + "AND (end_date > ? OR (end_date = ? AND id > ?)) ORDER BY end_date, id LIMIT ?";
+
+            List<Task> page = new ArrayList<>(limit);
+            try (PreparedStatement pstmtPage = connection.prepareStatement(sqlPage)) {
+                int i = 1;
+                pstmtPage.setInt(i++, user.getId());
+                if (after != null) {
+                    java.sql.Date afterDate = java.sql.Date.valueOf(after.getEnd_Date());
+                    pstmtPage.setDate(i++, afterDate);
+                    pstmtPage.setDate(i++, afterDate);
+                    pstmtPage.setInt(i++, after.getId());
+                }
+                pstmtPage.setInt(i, limit);
 
-            try (PreparedStatement pstmtSelect = connection.prepareStatement(sqlSelect)) {
-                pstmtSelect.setInt(1, userId);
-                ResultSet rs = pstmtSelect.executeQuery();
+                try (ResultSet rs = pstmtPage.executeQuery()) {
+                    while (rs.next()) {
+                        page.add(readTask(rs));
+                    }
+                }
+            }
+            return page;
+        } finally {
+            GET_TASKS_PAGE.recordSince(start);
+        }
+    }
 
-                while (rs.next()) {
-                    int id = rs.getInt("id");
-                    String name = rs.getString("name");
-                    String description = rs.getString("description");
-                    LocalDate endDate = rs.getDate("end_date").toLocalDate();
-                    boolean status = rs.getBoolean("status");
+    static Task readTask(ResultSet rs) throws SQLException {
+        return new Task(
+                rs.getInt("id"),
+                rs.getString("name"),
+                rs.getString("description"),
+                rs.getDate("end_date").toLocalDate(),
+                rs.getBoolean("status"));
+    }
 
-                    Task task = new Task(id, name, description, endDate, status);
-                    tasks.put(id, task);
+    protected long getTasksVersionStamp(Connection connection, User user) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            try (PreparedStatement pstmtStamp = connection.prepareStatement("SELECT version FROM task_versions WHERE user_id = ?")) {
+                pstmtStamp.setInt(1, user.getId());
+                try (ResultSet rs = pstmtStamp.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0;
                 }
             }
-        } else {
-            logger.warning("Table 'tasks' does not exist.");
+        } finally {
+            GET_VERSION_STAMP.recordSince(start);
+        }
+    }
+
+    protected TaskChanges getTasksChangedSince(Connection connection, User user, long sinceVersion) throws SQLException {
+        long start = System.nanoTime();
+        boolean autoCommit = connection.getAutoCommit();
+        // One transaction so the version, rows and tombstones come from the same snapshot
+        connection.setAutoCommit(false);
+        try {
+            long version = 0;
+            long floor = 0;
+            try (PreparedStatement pstmtVersion = connection.prepareStatement(
+                    "SELECT version, tombstone_floor FROM task_versions WHERE user_id = ?")) {
+                pstmtVersion.setInt(1, user.getId());
+                try (ResultSet rs = pstmtVersion.executeQuery()) {
+                    if (rs.next()) {
+                        version = rs.getLong(1);
+                        floor = rs.getLong(2);
+                    }
+                }
+            }
+
+            // Tombstones older than the floor were pruned, and a version from the future means the
+            // caller synced against different data; either way only a full snapshot is safe
+            boolean full = sinceVersion < 0 || sinceVersion < floor || sinceVersion > version;
+            TaskChanges changes;
+            if (!full && sinceVersion == version) {
+                changes = new TaskChanges(version, false, new ArrayList<>(), new int[0]);
+            } else {
+                List<Task> upserts = new ArrayList<>();
+                String sqlChanged = full
+                        ? "SELECT id, name, description, end_date, status FROM tasks WHERE user_id = ?"
+                        : "SELECT id, name, description, end_date, status FROM tasks WHERE user_id = ? AND version > ?";
+                try (PreparedStatement pstmtChanged = connection.prepareStatement(sqlChanged)) {
+                    pstmtChanged.setInt(1, user.getId());
+                    if (!full) {
+                        pstmtChanged.setLong(2, sinceVersion);
+                    }
+                    try (ResultSet rs = pstmtChanged.executeQuery()) {
+                        while (rs.next()) {
+                            upserts.add(readTask(rs));
+                        }
+                    }
+                }
+
+                List<Integer> removed = new ArrayList<>();
+                if (!full) {
+                    try (PreparedStatement pstmtRemoved = connection.prepareStatement(
+                            "SELECT task_id FROM task_tombstones WHERE user_id = ? AND version > ?")) {
+                        pstmtRemoved.setInt(1, user.getId());
+                        pstmtRemoved.setLong(2, sinceVersion);
+                        try (ResultSet rs = pstmtRemoved.executeQuery()) {
+                            while (rs.next()) {
+                                removed.add(rs.getInt(1));
+                            }
+                        }
+                    }
+                }
+                changes = new TaskChanges(version, full, upserts, removed.stream().mapToInt(Integer::intValue).toArray());
+            }
+            connection.commit();
+            return changes;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            GET_CHANGES.recordSince(start);
+        }
+    }
+
+    // Drops tombstones older than the cutoff; clients that synced before them get a full snapshot instead
+    protected int pruneTaskTombstones(Connection connection, Timestamp cutoff) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement pstmtFloor = connection.prepareStatement(
+                    "UPDATE task_versions SET tombstone_floor = (SELECT MAX(t.version) FROM task_tombstones t "
+                            + "WHERE t.user_id = task_versions.user_id AND t.deleted_at < ?) "
+                            + "WHERE user_id IN (SELECT user_id FROM task_tombstones WHERE deleted_at < ?)")) {
+                pstmtFloor.setTimestamp(1, cutoff);
+                pstmtFloor.setTimestamp(2, cutoff);
+                pstmtFloor.executeUpdate();
+            }
+            int pruned;
+            try (PreparedStatement pstmtPrune = connection.prepareStatement("DELETE FROM task_tombstones WHERE deleted_at < ?")) {
+                pstmtPrune.setTimestamp(1, cutoff);
+                pruned = pstmtPrune.executeUpdate();
+            }
+            connection.commit();
+            return pruned;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Must run inside the caller's transaction: the row lock taken here orders concurrent writers
+    // of the same user, so versions become visible in the order they were handed out
+    private static long nextTaskVersion(Connection connection, int userId) throws SQLException {
+        try (PreparedStatement pstmtBump = connection.prepareStatement("UPDATE task_versions SET version = version + 1 WHERE user_id = ?")) {
+            pstmtBump.setInt(1, userId);
+            if (pstmtBump.executeUpdate() == 0) {
+                try (PreparedStatement pstmtCreate = connection.prepareStatement("INSERT INTO task_versions (user_id, version) VALUES (?, 1)")) {
+                    pstmtCreate.setInt(1, userId);
+                    pstmtCreate.executeUpdate();
+                    return 1;
+                } catch (SQLIntegrityConstraintViolationException e) {
+                    // Another writer created the row first
+                    pstmtBump.executeUpdate();
+                }
+            }
+        }
+        try (PreparedStatement pstmtRead = connection.prepareStatement("SELECT version FROM task_versions WHERE user_id = ?")) {
+            pstmtRead.setInt(1, userId);
+            try (ResultSet rs = pstmtRead.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Task version row missing for user " + userId + ".");
+                }
+                return rs.getLong(1);
+            }
         }
-        return tasks;
     }
 
     public static void closeConnection(Connection connection) {
         if (connection != null) {
             try {
                 connection.close();
-                logger.info("Connection closed successfully.");
+                logger.fine("Connection returned to the pool.");
             } catch (SQLException e) {
                 logger.log(Level.SEVERE, "Error closing connection.", e);
             }
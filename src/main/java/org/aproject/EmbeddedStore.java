@@ -0,0 +1,600 @@
+package org.aproject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class EmbeddedStore implements TaskRepository, UserRepository, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(EmbeddedStore.class.getName());
+
+    // Written by older versions only: the email is always present
+    private static final byte PUT_USER = 1;
+    private static final byte PUT_TASK = 2;
+    private static final byte DELETE_TASK = 3;
+    private static final byte SET_VERSION = 4;
+    private static final byte PUT_USER_OPTIONAL_EMAIL = 5;
+    // Written by compaction, so ids of removed tasks and users are not handed out again after a restart
+    private static final byte SET_NEXT_IDS = 6;
+
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 1000;
+    private static final Comparator<Task> KEYSET_ORDER = Comparator
+            .comparing(Task::getEnd_Date, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparingInt(Task::getId);
+
+    private final Path file;
+    private final Map<String, StoredUser> usersByName = new HashMap<>();
+    private final Map<Integer, Map<Integer, Task>> tasksByUser = new HashMap<>();
+    private final Map<Integer, Long> versions = new HashMap<>();
+    private final Map<Integer, Long> taskVersions = new HashMap<>();
+    private final Map<Integer, Map<Integer, Long>> tombstones = new HashMap<>();
+    // Versions at the last compaction; tombstones before them are gone
+    private final Map<Integer, Long> tombstoneFloors = new HashMap<>();
+    private final Map<Integer, StatsCounter> stats = new HashMap<>();
+    private final ScheduledExecutorService compactor;
+
+    private DataOutputStream log;
+    private int nextUserId = 1;
+    private int nextTaskId = 1;
+    private long logRecords;
+    private long liveRecords;
+
+    public EmbeddedStore(Path file, long compactionIntervalMillis) {
+        this.file = file;
+        try {
+            replay();
+            openLog();
+        } catch (IOException e) {
+            throw new StorageException("Failed to open embedded store " + file, e);
+        }
+
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "embedded-store-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded,
+                compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized boolean insertUser(String username, String passwordHash, String email) {
+        if (usersByName.containsKey(username)) {
+            return false;
+        }
+        User user = new User(nextUserId, username, email);
+        write(out -> writeUser(out, user, passwordHash));
+        applyUser(user, passwordHash);
+        return true;
+    }
+
+    @Override
+    public synchronized StoredUser findByUsername(String username) {
+        StoredUser stored = usersByName.get(username);
+        if (stored == null) {
+            return null;
+        }
+        User user = stored.getUser();
+        return new StoredUser(new User(user.getId(), user.getUsername(), user.getEmail()), stored.getPasswordHash());
+    }
+
+    @Override
+    public synchronized void updatePasswordHash(int userId, String passwordHash) {
+        for (StoredUser stored : usersByName.values()) {
+            if (stored.getUser().getId() == userId) {
+                write(out -> writeUser(out, stored.getUser(), passwordHash));
+                applyUser(stored.getUser(), passwordHash);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void insertTask(Task task, User user) {
+        task.setId(nextTaskId);
+        write(out -> writeTask(out, user.getId(), task));
+        applyTask(user.getId(), copy(task));
+    }
+
+    @Override
+    public synchronized boolean removeTask(int taskId, User user) {
+        Map<Integer, Task> tasks = tasksByUser.get(user.getId());
+        if (tasks == null || !tasks.containsKey(taskId)) {
+            logger.warning("Task with ID " + taskId + " not found or does not belong to the user. No action taken.");
+            return false;
+        }
+        write(out -> {
+            out.writeByte(DELETE_TASK);
+            out.writeInt(user.getId());
+            out.writeInt(taskId);
+        });
+        applyDelete(user.getId(), taskId);
+        return true;
+    }
+
+    @Override
+    public synchronized void insertTasks(Collection<Task> tasks, User user) {
+        int id = nextTaskId;
+        for (Task task : tasks) {
+            task.setId(id++);
+        }
+        write(out -> {
+            for (Task task : tasks) {
+                writeTask(out, user.getId(), task);
+            }
+        }, tasks.size());
+        for (Task task : tasks) {
+            applyTask(user.getId(), copy(task));
+        }
+    }
+
+    @Override
+    public synchronized int removeTasks(int[] taskIds, User user) {
+        Map<Integer, Task> tasks = tasksByUser.get(user.getId());
+        if (tasks == null) {
+            return 0;
+        }
+        int[] owned = Arrays.stream(taskIds).filter(tasks::containsKey).distinct().toArray();
+        write(out -> {
+            for (int taskId : owned) {
+                out.writeByte(DELETE_TASK);
+                out.writeInt(user.getId());
+                out.writeInt(taskId);
+            }
+        }, owned.length);
+        for (int taskId : owned) {
+            applyDelete(user.getId(), taskId);
+        }
+        return owned.length;
+    }
+
+    @Override
+    public synchronized boolean setTaskStatus(int taskId, boolean status, User user) {
+        Map<Integer, Task> tasks = tasksByUser.get(user.getId());
+        Task task = tasks == null ? null : tasks.get(taskId);
+        if (task == null || task.isStatus() == status) {
+            return false;
+        }
+        Task updated = copy(task);
+        updated.setStatus(status);
+        write(out -> writeTask(out, user.getId(), updated));
+        applyTask(user.getId(), updated);
+        return true;
+    }
+
+    @Override
+    public synchronized Map<Integer, Task> getAllTasks(User user) {
+        Map<Integer, Task> result = new LinkedHashMap<>();
+        Map<Integer, Task> tasks = tasksByUser.get(user.getId());
+        if (tasks != null) {
+            for (Task task : tasks.values()) {
+                result.put(task.getId(), copy(task));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Stream<Task> streamTasks(User user, int fetchSize) {
+        return getAllTasks(user).values().stream();
+    }
+
+    @Override
+    public synchronized List<Task> getTasksPage(User user, Task after, int limit) {
+        Map<Integer, Task> tasks = tasksByUser.get(user.getId());
+        if (tasks == null) {
+            return new ArrayList<>();
+        }
+        return tasks.values().stream()
+                .filter(task -> after == null || KEYSET_ORDER.compare(task, after) > 0)
+                .sorted(KEYSET_ORDER)
+                .limit(limit)
+                .map(EmbeddedStore::copy)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized List<Task> findTasks(User user, TaskFilter filter) {
+        Map<Integer, Task> tasks = tasksByUser.get(user.getId());
+        if (tasks == null) {
+            return new ArrayList<>();
+        }
+        LocalDate today = LocalDate.now();
+        return tasks.values().stream()
+                .filter(task -> filter.matches(task, today))
+                .sorted(KEYSET_ORDER)
+                .map(EmbeddedStore::copy)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public int forEachDueTask(int fromUserId, int toUserId, LocalDate dueBy, int fetchSize, ObjIntConsumer<Task> action) {
+        List<Task> due = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Integer, Map<Integer, Task>> entry : tasksByUser.entrySet()) {
+                int userId = entry.getKey();
+                if (userId < fromUserId || userId > toUserId) {
+                    continue;
+                }
+                for (Task task : entry.getValue().values()) {
+                    if (!task.isStatus() && task.getEnd_Date() != null && !task.getEnd_Date().isAfter(dueBy)) {
+                        due.add(copy(task));
+                        owners.add(userId);
+                    }
+                }
+            }
+        }
+        // Delivered outside the lock so a slow consumer does not block writers
+        for (int i = 0; i < due.size(); i++) {
+            action.accept(due.get(i), owners.get(i));
+        }
+        return due.size();
+    }
+
+    @Override
+    public synchronized int getMaxTaskOwnerId() {
+        int max = 0;
+        for (Map.Entry<Integer, Map<Integer, Task>> entry : tasksByUser.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                max = Math.max(max, entry.getKey());
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public synchronized TaskStats getTaskStats(User user) {
+        StatsCounter counter = stats.get(user.getId());
+        return counter == null ? new TaskStats(0, 0, 0, null) : counter.snapshot(LocalDate.now());
+    }
+
+    @Override
+    public synchronized int rebuildTaskStats(int fromUserId, int toUserId) {
+        int users = 0;
+        stats.keySet().removeIf(userId -> userId >= fromUserId && userId <= toUserId);
+        for (Map.Entry<Integer, Map<Integer, Task>> entry : tasksByUser.entrySet()) {
+            int userId = entry.getKey();
+            if (userId < fromUserId || userId > toUserId || entry.getValue().isEmpty()) {
+                continue;
+            }
+            StatsCounter counter = new StatsCounter();
+            for (Task task : entry.getValue().values()) {
+                counter.add(task, 1);
+            }
+            stats.put(userId, counter);
+            users++;
+        }
+        return users;
+    }
+
+    @Override
+    public synchronized long getVersionStamp(User user) {
+        return versions.getOrDefault(user.getId(), 0L);
+    }
+
+    @Override
+    public synchronized TaskChanges getTasksChangedSince(User user, long sinceVersion) {
+        long version = versions.getOrDefault(user.getId(), 0L);
+        Map<Integer, Task> tasks = tasksByUser.getOrDefault(user.getId(), Map.of());
+        boolean full = sinceVersion < 0 || sinceVersion < tombstoneFloors.getOrDefault(user.getId(), 0L)
+                || sinceVersion > version;
+
+        List<Task> upserts = new ArrayList<>();
+        for (Task task : tasks.values()) {
+            if (full || taskVersions.getOrDefault(task.getId(), 0L) > sinceVersion) {
+                upserts.add(copy(task));
+            }
+        }
+        int[] removed = full ? new int[0] : tombstones.getOrDefault(user.getId(), Map.of()).entrySet().stream()
+                .filter(entry -> entry.getValue() > sinceVersion)
+                .mapToInt(Map.Entry::getKey)
+                .toArray();
+        return new TaskChanges(version, full, upserts, removed);
+    }
+
+    public synchronized void compact() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+        try {
+            long records = 0;
+            try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+                for (StoredUser stored : usersByName.values()) {
+                    writeUser(out, stored.getUser(), stored.getPasswordHash());
+                    records++;
+                }
+                for (Map.Entry<Integer, Map<Integer, Task>> entry : tasksByUser.entrySet()) {
+                    for (Task task : entry.getValue().values()) {
+                        writeTask(out, entry.getKey(), task);
+                        records++;
+                    }
+                }
+                // Keeps versions monotonic across compaction so change-feed clients are not confused
+                for (Map.Entry<Integer, Long> entry : versions.entrySet()) {
+                    writeVersion(out, entry.getKey(), entry.getValue());
+                    records++;
+                }
+                out.writeByte(SET_NEXT_IDS);
+                out.writeInt(nextUserId);
+                out.writeInt(nextTaskId);
+                records++;
+                out.flush();
+                fos.getFD().sync();
+            }
+
+            log.close();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            openLog();
+            tombstones.clear();
+            tombstoneFloors.putAll(versions);
+            logger.info("Embedded store compacted from " + logRecords + " to " + records + " records.");
+            logRecords = records;
+        } catch (IOException e) {
+            throw new StorageException("Failed to compact embedded store " + file, e);
+        }
+    }
+
+    private synchronized void compactIfNeeded() {
+        if (logRecords > MIN_RECORDS_BEFORE_COMPACTION && logRecords > 2 * liveRecords) {
+            try {
+                compact();
+            } catch (StorageException e) {
+                logger.log(Level.SEVERE, "Background compaction failed.", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        compactor.shutdownNow();
+        try {
+            log.close();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error closing embedded store.", e);
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long validLength = 0;
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)));
+             DataInputStream in = new DataInputStream(counter)) {
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    switch (op) {
+                        case PUT_USER:
+                        case PUT_USER_OPTIONAL_EMAIL:
+                            User user = new User(in.readInt(), in.readUTF(), null);
+                            String hash = in.readUTF();
+                            if (op == PUT_USER || in.readBoolean()) {
+                                user.setEmail(in.readUTF());
+                            }
+                            applyUser(user, hash);
+                            break;
+                        case PUT_TASK:
+                            int userId = in.readInt();
+                            applyTask(userId, readTask(in));
+                            break;
+                        case DELETE_TASK:
+                            applyDelete(in.readInt(), in.readInt());
+                            break;
+                        case SET_VERSION:
+                            applyVersion(in.readInt(), in.readLong());
+                            break;
+                        case SET_NEXT_IDS:
+                            nextUserId = Math.max(nextUserId, in.readInt());
+                            nextTaskId = Math.max(nextTaskId, in.readInt());
+                            break;
+                        default:
+                            throw new IOException("Corrupt record type " + op + " in " + file);
+                    }
+                } catch (EOFException e) {
+                    logger.warning("Discarding truncated record at the end of " + file);
+                    break;
+                }
+                logRecords++;
+                validLength = counter.count;
+            }
+        }
+
+        if (validLength < Files.size(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+    }
+
+    private void openLog() throws IOException {
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile(), true)));
+    }
+
+    private void write(RecordWriter writer) {
+        write(writer, 1);
+    }
+
+    private void write(RecordWriter writer, int records) {
+        try {
+            writer.write(log);
+            log.flush();
+            logRecords += records;
+        } catch (IOException e) {
+            throw new StorageException("Failed to append to embedded store " + file, e);
+        }
+    }
+
+    private void applyUser(User user, String passwordHash) {
+        if (usersByName.put(user.getUsername(), new StoredUser(user, passwordHash)) == null) {
+            liveRecords++;
+        }
+        nextUserId = Math.max(nextUserId, user.getId() + 1);
+    }
+
+    private void applyTask(int userId, Task task) {
+        nextTaskId = Math.max(nextTaskId, task.getId() + 1);
+        taskVersions.put(task.getId(), versions.merge(userId, 1L, Long::sum));
+        Task previous = tasksByUser.computeIfAbsent(userId, k -> new LinkedHashMap<>()).put(task.getId(), task);
+        StatsCounter counter = stats.computeIfAbsent(userId, k -> new StatsCounter());
+        if (previous == null) {
+            liveRecords++;
+        } else {
+            counter.add(previous, -1);
+        }
+        counter.add(task, 1);
+    }
+
+    private void applyDelete(int userId, int taskId) {
+        Map<Integer, Task> tasks = tasksByUser.get(userId);
+        Task removed = tasks == null ? null : tasks.remove(taskId);
+        if (removed != null) {
+            stats.get(userId).add(removed, -1);
+            long version = versions.merge(userId, 1L, Long::sum);
+            taskVersions.remove(taskId);
+            tombstones.computeIfAbsent(userId, k -> new HashMap<>()).put(taskId, version);
+            liveRecords--;
+        }
+    }
+
+    private void applyVersion(int userId, long version) {
+        versions.merge(userId, version, Math::max);
+        tombstoneFloors.put(userId, version);
+    }
+
+    private static void writeUser(DataOutputStream out, User user, String passwordHash) throws IOException {
+        out.writeByte(PUT_USER_OPTIONAL_EMAIL);
+        out.writeInt(user.getId());
+        out.writeUTF(user.getUsername());
+        out.writeUTF(passwordHash);
+        out.writeBoolean(user.getEmail() != null);
+        if (user.getEmail() != null) {
+            out.writeUTF(user.getEmail());
+        }
+    }
+
+    private static void writeVersion(DataOutputStream out, int userId, long version) throws IOException {
+        out.writeByte(SET_VERSION);
+        out.writeInt(userId);
+        out.writeLong(version);
+    }
+
+    private static void writeTask(DataOutputStream out, int userId, Task task) throws IOException {
+        out.writeByte(PUT_TASK);
+        out.writeInt(userId);
+        out.writeInt(task.getId());
+        out.writeUTF(task.getName());
+        out.writeBoolean(task.getDescription() != null);
+        if (task.getDescription() != null) {
+            out.writeUTF(task.getDescription());
+        }
+        out.writeBoolean(task.getEnd_Date() != null);
+        if (task.getEnd_Date() != null) {
+            out.writeLong(task.getEnd_Date().toEpochDay());
+        }
+        out.writeBoolean(task.isStatus());
+    }
+
+    private static Task readTask(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        String name = in.readUTF();
+        String description = in.readBoolean() ? in.readUTF() : null;
+        LocalDate endDate = in.readBoolean() ? LocalDate.ofEpochDay(in.readLong()) : null;
+        boolean status = in.readBoolean();
+        return new Task(id, name, description, endDate, status);
+    }
+
+    private static Task copy(Task task) {
+        return new Task(task.getId(), task.getName(), task.getDescription(), task.getEnd_Date(), task.isStatus());
+    }
+
+    // The in-memory counterpart of the task_stats tables, kept up to date by applyTask and applyDelete
+    private static final class StatsCounter {
+        private int open;
+        private int completed;
+        private final TreeMap<LocalDate, Integer> openByDate = new TreeMap<>();
+
+        void add(Task task, int count) {
+            if (task.isStatus()) {
+                completed += count;
+                return;
+            }
+            open += count;
+            if (task.getEnd_Date() != null && openByDate.merge(task.getEnd_Date(), count, Integer::sum) == 0) {
+                openByDate.remove(task.getEnd_Date());
+            }
+        }
+
+        TaskStats snapshot(LocalDate today) {
+            int overdue = 0;
+            for (int count : openByDate.headMap(today).values()) {
+                overdue += count;
+            }
+            return new TaskStats(open, completed, overdue, openByDate.ceilingKey(today));
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,66 @@
+package org.aproject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Appends one tab-separated line per reminder: kind, user id, task id, end date, name
+public class FileReminderSink implements ReminderSink {
+
+    private final Path file;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final BufferedWriter writer;
+
+    public FileReminderSink(Path file) {
+        this.file = file;
+        try {
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new StorageException("Failed to open reminder file " + file, e);
+        }
+    }
+
+    @Override
+    public void accept(Reminder reminder) {
+        Task task = reminder.getTask();
+        String line = reminder.getKind() + "\t" + reminder.getUserId() + "\t" + task.getId() + "\t"
+                + task.getEnd_Date() + "\t" + task.getName().replace('\t', ' ').replace('\n', ' ') + "\n";
+        lock.lock();
+        try {
+            writer.write(line);
+        } catch (IOException e) {
+            throw new StorageException("Failed to write reminder to " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new StorageException("Failed to flush reminder file " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new StorageException("Failed to close reminder file " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.aproject;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+
+public class JdbcTaskRepository implements TaskRepository {
+
+    private final DatabaseManager dbm;
+    // null means the primary pool, looked up per call so DatabaseManager.setPool still takes effect
+    private final ConnectionPool pool;
+
+    public JdbcTaskRepository(DatabaseManager dbm) {
+        this(dbm, null);
+    }
+
+    public JdbcTaskRepository(DatabaseManager dbm, ConnectionPool pool) {
+        this.dbm = dbm;
+        this.pool = pool;
+    }
+
+    private ConnectionPool pool() {
+        return pool != null ? pool : DatabaseManager.getPool();
+    }
+
+    @Override
+    public void insertTask(Task task, User user) {
+        try (Connection con = pool().borrow()) {
+            dbm.insertTaskIntoDB(con, task, user);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to insert task.", e);
+        }
+    }
+
+    @Override
+    public boolean removeTask(int taskId, User user) {
+        try (Connection con = pool().borrow()) {
+            return dbm.removeTaskFromDB(con, taskId, user);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to remove task.", e);
+        }
+    }
+
+    @Override
+    public void insertTasks(Collection<Task> tasks, User user) {
+        try (Connection con = pool().borrow()) {
+            dbm.insertTasksIntoDB(con, tasks, user);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to insert tasks.", e);
+        }
+    }
+
+    @Override
+    public int removeTasks(int[] taskIds, User user) {
+        try (Connection con = pool().borrow()) {
+            return dbm.removeTasksFromDB(con, taskIds, user);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to remove tasks.", e);
+        }
+    }
+
+    @Override
+    public boolean setTaskStatus(int taskId, boolean status, User user) {
+        try (Connection con = pool().borrow()) {
+            return dbm.setTaskStatusInDB(con, taskId, status, user);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to update task status.", e);
+        }
+    }
+
+    @Override
+    public Map<Integer, Task> getAllTasks(User user) {
+        try (Connection con = pool().borrow()) {
+            return dbm.getAllTasks(con, user);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to load tasks.", e);
+        }
+    }
+
+    @Override
+    public Stream<Task> streamTasks(User user, int fetchSize) {
+        Connection con = null;
+        try {
+            con = pool().borrow();
+            Connection borrowed = con;
+            return dbm.streamTasks(con, user, fetchSize).onClose(() -> DatabaseManager.closeConnection(borrowed));
+        } catch (SQLException e) {
+            DatabaseManager.closeConnection(con);
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to stream tasks.", e);
+        }
+    }
+
+    @Override
+    public List<Task> getTasksPage(User user, Task after, int limit) {
+        try (Connection con = pool().borrow()) {
+            return dbm.getTasksPage(con, user, after, limit);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to load task page.", e);
+        }
+    }
+
+    @Override
+    public List<Task> findTasks(User user, TaskFilter filter) {
+        try (Connection con = pool().borrow()) {
+            return TaskQueries.findTasks(con, user, filter, LocalDate.now());
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to query tasks.", e);
+        }
+    }
+
+    @Override
+    public long getVersionStamp(User user) {
+        try (Connection con = pool().borrow()) {
+            return dbm.getTasksVersionStamp(con, user);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to read task version stamp.", e);
+        }
+    }
+
+    @Override
+    public TaskChanges getTasksChangedSince(User user, long sinceVersion) {
+        try (Connection con = pool().borrow()) {
+            return dbm.getTasksChangedSince(con, user, sinceVersion);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to read task changes.", e);
+        }
+    }
+
+    @Override
+    public int forEachDueTask(int fromUserId, int toUserId, LocalDate dueBy, int fetchSize, ObjIntConsumer<Task> action) {
+        try (Connection con = pool().borrow()) {
+            return TaskQueries.forEachDueTask(con, fromUserId, toUserId, dueBy, fetchSize, action);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to scan due tasks.", e);
+        }
+    }
+
+    @Override
+    public int getMaxTaskOwnerId() {
+        try (Connection con = pool().borrow()) {
+            return TaskQueries.maxTaskOwnerId(con);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to read the highest task owner.", e);
+        }
+    }
+
+    @Override
+    public TaskStats getTaskStats(User user) {
+        try (Connection con = pool().borrow()) {
+            return dbm.getTaskStats(con, user, LocalDate.now());
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to read task stats.", e);
+        }
+    }
+
+    @Override
+    public int rebuildTaskStats(int fromUserId, int toUserId) {
+        try (Connection con = pool().borrow()) {
+            return TaskQueries.rebuildTaskStats(con, fromUserId, toUserId);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to rebuild task stats.", e);
+        }
+    }
+
+    public int pruneTombstones(long retentionMillis) {
+        try (Connection con = pool().borrow()) {
+            return dbm.pruneTaskTombstones(con, new Timestamp(System.currentTimeMillis() - retentionMillis));
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to prune task tombstones.", e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.aproject;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+public class JdbcUserRepository implements UserRepository {
+
+    private final DatabaseManager dbm;
+    // null means the primary pool, looked up per call so DatabaseManager.setPool still takes effect
+    private final ConnectionPool pool;
+
+    public JdbcUserRepository(DatabaseManager dbm) {
+        this(dbm, null);
+    }
+
+    public JdbcUserRepository(DatabaseManager dbm, ConnectionPool pool) {
+        this.dbm = dbm;
+        this.pool = pool;
+    }
+
+    private ConnectionPool pool() {
+        return pool != null ? pool : DatabaseManager.getPool();
+    }
+
+    @Override
+    public boolean insertUser(String username, String passwordHash, String email) {
+        try (Connection con = pool().borrow()) {
+            return dbm.insertUserIntoDB(con, username, passwordHash, email);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to insert user.", e);
+        }
+    }
+
+    @Override
+    public StoredUser findByUsername(String username) {
+        try (Connection con = pool().borrow()) {
+            return dbm.findUserInDB(con, username);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to find user.", e);
+        }
+    }
+
+    @Override
+    public void updatePasswordHash(int userId, String passwordHash) {
+        try (Connection con = pool().borrow()) {
+            dbm.updatePasswordHashInDB(con, userId, passwordHash);
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to update password hash.", e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.aproject;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class Json {
+
+    private Json() {
+    }
+
+    // Parses a flat JSON object; nested values are not needed by the API and are rejected.
+    static Map<String, String> parseObject(String json) {
+        Map<String, String> values = new LinkedHashMap<>();
+        Parser parser = new Parser(json);
+        parser.skipWhitespace();
+        parser.expect('{');
+        parser.skipWhitespace();
+        if (parser.peek() == '}') {
+            parser.pos++;
+            return values;
+        }
+        while (true) {
+            parser.skipWhitespace();
+            String key = parser.readString();
+            parser.skipWhitespace();
+            parser.expect(':');
+            parser.skipWhitespace();
+            values.put(key, parser.readValue());
+            parser.skipWhitespace();
+            char c = parser.next();
+            if (c == '}') {
+                break;
+            }
+            if (c != ',') {
+                throw new IllegalArgumentException("Expected ',' or '}' at position " + (parser.pos - 1));
+            }
+        }
+        return values;
+    }
+
+    static String toJson(User user) {
+        return "{\"id\":" + user.getId()
+                + ",\"username\":" + quote(user.getUsername())
+                + ",\"email\":" + quote(user.getEmail()) + "}";
+    }
+
+    static String toJson(Task task) {
+        return "{\"id\":" + task.getId()
+                + ",\"name\":" + quote(task.getName())
+                + ",\"description\":" + quote(task.getDescription())
+                + ",\"endDate\":" + quote(task.getEnd_Date() == null ? null : task.getEnd_Date().toString())
+                + ",\"status\":" + task.isStatus() + "}";
+    }
+
+    static String toJson(Collection<Task> tasks) {
+        StringBuilder out = new StringBuilder("[");
+        for (Task task : tasks) {
+            if (out.length() > 1) {
+                out.append(',');
+            }
+            out.append(toJson(task));
+        }
+        return out.append(']').toString();
+    }
+
+    static String toJson(TaskChanges changes) {
+        StringBuilder removed = new StringBuilder("[");
+        for (int id : changes.getRemovedIds()) {
+            if (removed.length() > 1) {
+                removed.append(',');
+            }
+            removed.append(id);
+        }
+        return "{\"version\":" + changes.getVersion()
+                + ",\"fullResync\":" + changes.isFullResync()
+                + ",\"upserts\":" + toJson(changes.getUpserts())
+                + ",\"removed\":" + removed.append(']') + "}";
+    }
+
+    static String toJson(TaskStats stats) {
+        return "{\"open\":" + stats.getOpen()
+                + ",\"completed\":" + stats.getCompleted()
+                + ",\"overdue\":" + stats.getOverdue()
+                + ",\"nextDeadline\":" + quote(stats.getNextDeadline() == null ? null : stats.getNextDeadline().toString()) + "}";
+    }
+
+    static String error(String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private static final class Parser {
+        private final String json;
+        private int pos;
+
+        private Parser(String json) {
+            this.json = json;
+        }
+
+        private char peek() {
+            if (pos >= json.length()) {
+                throw new IllegalArgumentException("Unexpected end of JSON");
+            }
+            return json.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char expected) {
+            char c = next();
+            if (c != expected) {
+                throw new IllegalArgumentException("Expected '" + expected + "' at position " + (pos - 1));
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private String readValue() {
+            char c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("Nested JSON values are not supported");
+            }
+            int start = pos;
+            while (pos < json.length() && ",}".indexOf(json.charAt(pos)) < 0 && !Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+            String literal = json.substring(start, pos);
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder out = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'n':
+                        out.append('\n');
+                        break;
+                    case 'r':
+                        out.append('\r');
+                        break;
+                    case 't':
+                        out.append('\t');
+                        break;
+                    case 'b':
+                        out.append('\b');
+                        break;
+                    case 'f':
+                        out.append('\f');
+                        break;
+                    case 'u':
+                        if (pos + 4 > json.length()) {
+                            throw new IllegalArgumentException("Truncated unicode escape");
+                        }
+                        out.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        out.append(escaped);
+                }
+            }
+        }
+    }
+}
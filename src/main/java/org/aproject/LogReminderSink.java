@@ -0,0 +1,13 @@
+package org.aproject;
+
+import java.util.logging.Logger;
+
+public class LogReminderSink implements ReminderSink {
+
+    private static final Logger logger = Logger.getLogger(LogReminderSink.class.getName());
+
+    @Override
+    public void accept(Reminder reminder) {
+        logger.info(reminder.toString());
+    }
+}
@@ -0,0 +1,168 @@
+package org.aproject;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+// Token buckets per username and per source address, checked before the password hasher; each bucket is one
+// CAS-updated long holding the time it is full again, and full buckets are evicted first when a table fills up.
+public class LoginThrottle {
+
+    private static final Metrics.Counter THROTTLED_USERS = Metrics.counter("login_throttled_username_total");
+    private static final Metrics.Counter THROTTLED_SOURCES = Metrics.counter("login_throttled_source_total");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("login_throttle_evictions_total");
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private final Buckets users;
+    private final Buckets sources;
+
+    public LoginThrottle(int userAttemptsPerMinute, int userBurst,
+                         int sourceAttemptsPerMinute, int sourceBurst, int maxKeys) {
+        if (userAttemptsPerMinute < 1 || userBurst < 1 || sourceAttemptsPerMinute < 1 || sourceBurst < 1 || maxKeys < 1) {
+            throw new IllegalArgumentException("Invalid login throttle settings.");
+        }
+        this.users = new Buckets(userAttemptsPerMinute, userBurst, maxKeys);
+        this.sources = new Buckets(sourceAttemptsPerMinute, sourceBurst, maxKeys);
+        Metrics.gauge("login_throttle_username_buckets", users.map::size);
+        Metrics.gauge("login_throttle_source_buckets", sources.map::size);
+    }
+
+    public static LoginThrottle fromEnv() {
+        return new LoginThrottle(
+                Integer.parseInt(DatabaseManager.env("LOGIN_USER_ATTEMPTS_PER_MINUTE", "10")),
+                Integer.parseInt(DatabaseManager.env("LOGIN_USER_BURST", "5")),
+                Integer.parseInt(DatabaseManager.env("LOGIN_SOURCE_ATTEMPTS_PER_MINUTE", "60")),
+                Integer.parseInt(DatabaseManager.env("LOGIN_SOURCE_BURST", "20")),
+                Integer.parseInt(DatabaseManager.env("LOGIN_THROTTLE_MAX_KEYS", "100000")));
+    }
+
+    // Takes a token for the username and one for the source, which may be null; throws
+    // LoginThrottledException and takes nothing when either bucket is empty
+    public void acquireLogin(String username, String source) {
+        long now = System.nanoTime();
+        String user = userKey(username);
+        long wait = users.tryAcquire(user, now);
+        if (wait > 0) {
+            THROTTLED_USERS.increment();
+            throw throttled("Too many login attempts for this user.", wait);
+        }
+        if (source != null) {
+            wait = sources.tryAcquire(source, now);
+            if (wait > 0) {
+                users.release(user);
+                THROTTLED_SOURCES.increment();
+                throw throttled("Too many login attempts from this address.", wait);
+            }
+        }
+    }
+
+    // Returns the username's token, so only wrong passwords count against an account; the source keeps
+    // paying for every attempt, or one valid login would let an address guess other accounts for free
+    public void onLoginSucceeded(String username) {
+        users.release(userKey(username));
+    }
+
+    // Registrations only count against their source, since the username is new
+    public void acquireRegistration(String source) {
+        if (source == null) {
+            return;
+        }
+        long wait = sources.tryAcquire(source, System.nanoTime());
+        if (wait > 0) {
+            THROTTLED_SOURCES.increment();
+            throw throttled("Too many registrations from this address.", wait);
+        }
+    }
+
+    // Usernames match under MySQL's case- and accent-insensitive collation, so "Alice" and "alíce " must
+    // share alice's bucket rather than each bringing a fresh burst against the same account
+    static String userKey(String username) {
+        String decomposed = Normalizer.normalize(username, Normalizer.Form.NFKD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT).stripTrailing();
+    }
+
+    private static LoginThrottledException throttled(String message, long waitNanos) {
+        return new LoginThrottledException(message, Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+    }
+
+    private static final class Buckets {
+        private final ConcurrentMap<String, Bucket> map = new ConcurrentHashMap<>();
+        private final AtomicBoolean evicting = new AtomicBoolean();
+        private final long intervalNanos;
+        private final long capacityNanos;
+        private final int maxKeys;
+
+        private Buckets(int attemptsPerMinute, int burst, int maxKeys) {
+            this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / attemptsPerMinute;
+            this.capacityNanos = intervalNanos * burst;
+            this.maxKeys = maxKeys;
+        }
+
+        // Returns 0 when a token was taken, otherwise the nanos until one is available
+        private long tryAcquire(String key, long now) {
+            Bucket bucket = map.get(key);
+            if (bucket == null) {
+                if (map.size() >= maxKeys) {
+                    evict(now);
+                }
+                bucket = map.computeIfAbsent(key, k -> new Bucket());
+            }
+            bucket.lastUsed = now;
+            while (true) {
+                long full = bucket.fullAt.get();
+                long next = Math.max(full, now) + intervalNanos;
+                if (next - now > capacityNanos) {
+                    return next - now - capacityNanos;
+                }
+                if (bucket.fullAt.compareAndSet(full, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        private void release(String key) {
+            Bucket bucket = map.get(key);
+            if (bucket != null) {
+                // Going below now is harmless: tryAcquire never starts from a time in the past
+                bucket.fullAt.updateAndGet(full -> Math.max(Long.MIN_VALUE + intervalNanos, full) - intervalNanos);
+            }
+        }
+
+        // One thread at a time; the others go on inserting, so the table may briefly overshoot
+        private void evict(long now) {
+            if (!evicting.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                int before = map.size();
+                // A full bucket behaves exactly like a missing one. A token taken from it in the
+                // meantime is lost, which only ever errs in the client's favour.
+                map.values().removeIf(bucket -> bucket.fullAt.get() <= now);
+                int excess = map.size() - (int) (maxKeys * 9L / 10);
+                if (excess > 0) {
+                    long[] stamps = map.values().stream().mapToLong(bucket -> bucket.lastUsed).toArray();
+                    if (stamps.length > 0) {
+                        Arrays.sort(stamps);
+                        long cutoff = stamps[Math.min(excess, stamps.length) - 1];
+                        map.values().removeIf(bucket -> bucket.lastUsed <= cutoff);
+                    }
+                }
+                EVICTIONS.add(Math.max(0, before - map.size()));
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    private static final class Bucket {
+        // nanoTime at which the bucket is full again; MIN_VALUE is full from the start
+        private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+        private volatile long lastUsed;
+    }
+}
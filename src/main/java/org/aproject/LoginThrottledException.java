@@ -0,0 +1,16 @@
+package org.aproject;
+
+public class LoginThrottledException extends RuntimeException {
+
+    private final long retryAfterMillis;
+
+    public LoginThrottledException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    // How long until the next attempt would be admitted, at least 1 ms
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -1,29 +1,57 @@
 package org.aproject;
 
-import java.sql.*;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.aproject.DatabaseManager.createTasksTableIfNotExists;
-import static org.aproject.DatabaseManager.createUsersTableIfNotExists;
-
 public class Main {
     private static final Logger logger = Logger.getLogger(Main.class.getName());
 
     public static void main(String[] args) {
 
-        Connection con = null;
+        ApiServer api = null;
+        SessionManager sessions = null;
+        CompletableFuture<AppContext> starting = null;
         try {
-            con = DatabaseManager.getConnection();
-            TaskManager task = new TaskManager();
-            DatabaseManager DB = new DatabaseManager();
+            TaskManager task;
+            DatabaseManager DB;
+
+            if (Arrays.asList(args).contains("--server")) {
+                AppContext context = AppContext.open();
+                starting = CompletableFuture.completedFuture(context);
+                sessions = SessionManager.fromEnv();
+                api = new ApiServer(context.getDatabaseManager(), context.getTaskManager(), sessions,
+                        Integer.parseInt(DatabaseManager.env("API_PORT", "8080")),
+                        Integer.parseInt(DatabaseManager.env("API_BACKLOG", "4096")),
+                        context.getMaxConcurrency(),
+                        Long.parseLong(DatabaseManager.env("API_PERMIT_TIMEOUT_MS", "5000")));
+                api.start();
 
-            if(con != null){
-                createUsersTableIfNotExists(con);
-                createTasksTableIfNotExists(con);
+                ApiServer running = api;
+                Thread mainThread = Thread.currentThread();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    running.close();
+                    try {
+                        mainThread.join(5000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+                api.awaitShutdown();
+                return;
             }
 
+            // Fast start prints the first prompt right away and opens the configuration, driver and
+            // storage while the user types; the default opens them first, so errors show before any prompt
+            starting = Arrays.asList(args).contains("--fast-start")
+                    ? AppContext.openAsync()
+                    : CompletableFuture.completedFuture(AppContext.open());
+
             Scanner sc = new Scanner(System.in);
 
             int option;
@@ -35,7 +63,7 @@ public class Main {
                 System.out.println("Register (2)");
                 System.out.println("EXIT (0)");
 
-                option = task.insertInt(sc);
+                option = TaskManager.insertInt(sc);
                 sc.nextLine();
 
                 switch (option) {
@@ -47,6 +75,7 @@ public class Main {
                         System.out.print("PASSWORD: ");
                         password = sc.nextLine();
 
+                        DB = await(starting).getDatabaseManager();
                         user = DB.loginUser(username, password);
                         if (user == null) {
                             logger.warning("Login failed. Please try again.");
@@ -60,6 +89,7 @@ public class Main {
                         System.out.print("PASSWORD: ");
                         password = sc.nextLine();
 
+                        DB = await(starting).getDatabaseManager();
                         boolean registered = DB.registerUser(username, password, email);
                         if (registered) {
                             logger.info("Registration successful. Please log in.");
@@ -71,17 +101,26 @@ public class Main {
                         System.out.println("Invalid option. Please try again.");
                 }
             } while (option != 0 && user == null);
+            if (user == null) {
+                return;
+            }
+            task = await(starting).getTaskManager();
 
             int option1;
             do {
-                task.loadTasksFromDB(con, user);
+                task.refreshTasks(user);
                 System.out.println("Choose an option: ");
                 System.out.println("1 - Insert Task");
                 System.out.println("2 - Remove Task");
                 System.out.println("3 - Show Table (TASKS)");
                 System.out.println("4 - User info");
+                System.out.println("5 - Filter tasks");
+                System.out.println("6 - Export tasks");
+                System.out.println("7 - Import tasks");
+                System.out.println("8 - Search tasks");
+                System.out.println("9 - Mark task completed/open");
                 System.out.println("0 - EXIT");
-                option1 = task.insertInt(sc);
+                option1 = TaskManager.insertInt(sc);
                 sc.nextLine();
 
                 switch (option1) {
@@ -93,36 +132,102 @@ public class Main {
                         System.out.print("Enter the task deadline (YYYY/MM/DD): ");
                         String date = sc.nextLine();
 
-                        task.createTask(con, user, name, description, date);
+                        task.createTask(user, name, description, date);
                         break;
                     case 2:
-                        if (TaskManager.getTask().isEmpty()) {
+                        if (task.getTasks(user).isEmpty()) {
                             logger.warning("No tasks exist.");
                             break;
                         }
-                        task.print();
-                        System.out.println("Enter the task ID: ");
-                        int id = task.insertInt(sc);
+                        task.print(user);
+                        System.out.println("Enter the task number (#): ");
+                        int id = task.resolveOrdinal(user, TaskManager.insertInt(sc));
                         sc.nextLine();
 
-                        task.removeTask(con, user, id);
+                        if (id < 0) {
+                            System.out.println("ID not found.");
+                            break;
+                        }
+                        task.removeTask(user, id);
                         break;
                     case 3:
-                        if (TaskManager.getTask().isEmpty()) {
+                        if (task.getTasks(user).isEmpty()) {
                             logger.warning("No tasks exist.");
                             break;
                         }
 
                         try {
                             assert user != null;
-                            task.showTasks(con, user.getId());
-                        } catch (SQLException ex) {
+                            task.showTasks(user);
+                        } catch (StorageException ex) {
                             logger.log(Level.SEVERE, "Error while showing tasks", ex);
                         }
                         break;
                     case 4:
                         assert user != null;
                         System.out.println("ID: " + user.getId() + " - Name: " + user.getUsername() + " - Email: " + user.getEmail());
+                        try {
+                            task.showStats(user);
+                        } catch (StorageException ex) {
+                            logger.log(Level.SEVERE, "Error while showing the task summary", ex);
+                        }
+                        break;
+                    case 5:
+                        System.out.println("1 - Overdue");
+                        System.out.println("2 - Due this week");
+                        System.out.println("3 - Incomplete");
+                        int filter = TaskManager.insertInt(sc);
+                        sc.nextLine();
+
+                        if (filter < 1 || filter > TaskFilter.values().length) {
+                            System.err.println("Invalid option, please try again.");
+                            break;
+                        }
+                        try {
+                            task.showTasks(user, TaskFilter.values()[filter - 1]);
+                        } catch (StorageException ex) {
+                            logger.log(Level.SEVERE, "Error while showing tasks", ex);
+                        }
+                        break;
+                    case 6:
+                        System.out.print("Enter the export file (.csv for CSV, anything else for binary): ");
+                        try {
+                            System.out.println("Exported " + task.exportTasks(user, Path.of(sc.nextLine().trim())));
+                        } catch (StorageException | InvalidPathException ex) {
+                            logger.log(Level.SEVERE, "Error while exporting tasks", ex);
+                        }
+                        break;
+                    case 7:
+                        System.out.print("Enter the file to import (.csv for CSV, anything else for binary): ");
+                        try {
+                            System.out.println("Imported " + task.importTasks(user, Path.of(sc.nextLine().trim())));
+                        } catch (StorageException | IllegalArgumentException ex) {
+                            logger.log(Level.SEVERE, "Error while importing tasks", ex);
+                        }
+                        break;
+                    case 8:
+                        System.out.print("Search: ");
+                        try {
+                            task.showSearch(user, sc.nextLine());
+                        } catch (StorageException ex) {
+                            logger.log(Level.SEVERE, "Error while searching tasks", ex);
+                        }
+                        break;
+                    case 9:
+                        if (task.getTasks(user).isEmpty()) {
+                            logger.warning("No tasks exist.");
+                            break;
+                        }
+                        task.print(user);
+                        System.out.println("Enter the task number (#): ");
+                        int toggled = task.resolveOrdinal(user, TaskManager.insertInt(sc));
+                        sc.nextLine();
+
+                        if (toggled < 0) {
+                            System.out.println("ID not found.");
+                            break;
+                        }
+                        task.setTaskStatus(user, toggled, !task.getTasks(user).get(toggled).isStatus());
                         break;
                     case 0:
                         break;
@@ -133,9 +238,28 @@ public class Main {
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error during program execution", e);
         } finally {
-            // Closing the database connection
-            DatabaseManager.closeConnection(con);
+            if (api != null) {
+                api.close();
+            }
+            if (sessions != null) {
+                sessions.close();
+            }
+            if (starting != null) {
+                // Closes right away, or on the startup thread once it is done if the user quit before that
+                starting.whenComplete((context, e) -> {
+                    if (context != null) {
+                        context.close();
+                    }
+                });
+            }
         }
+    }
 
+    private static AppContext await(CompletableFuture<AppContext> starting) {
+        try {
+            return starting.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
     }
 }
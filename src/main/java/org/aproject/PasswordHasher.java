@@ -0,0 +1,133 @@
+package org.aproject;
+
+import at.favre.lib.crypto.bcrypt.BCrypt;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+public class PasswordHasher implements AutoCloseable {
+
+    private static final Metrics.Timer HASH_WORK = Metrics.timer("password_hash_work");
+
+    private final int cost;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public PasswordHasher(int cost, int threads, int queueCapacity) {
+        if (cost < 4 || cost > 31) {
+            throw new IllegalArgumentException("BCrypt cost must be between 4 and 31: " + cost);
+        }
+        this.cost = cost;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "password-hasher-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public CompletableFuture<String> hash(String password) {
+        return submit(() -> BCrypt.withDefaults().hashToString(cost, password.toCharArray()));
+    }
+
+    public CompletableFuture<Boolean> verify(String password, String storedHash) {
+        return submit(() -> BCrypt.verifyer().verify(password.toCharArray(), storedHash).verified);
+    }
+
+    public boolean needsRehash(String storedHash) {
+        return costOf(storedHash) < cost;
+    }
+
+    static int costOf(String storedHash) {
+        // Modular crypt format: $2a$12$<salt+hash>
+        if (storedHash == null || storedHash.length() < 7 || storedHash.charAt(0) != '$' || storedHash.charAt(3) != '$') {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(storedHash.substring(4, 6));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    return work.get();
+                } finally {
+                    long elapsed = System.nanoTime() - start;
+                    HASH_WORK.record(elapsed);
+                    completed.incrementAndGet();
+                    totalLatencyNanos.addAndGet(elapsed);
+                    maxLatencyNanos.accumulateAndGet(elapsed, Math::max);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getAverageLatencyMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.get() / count);
+    }
+
+    public long getMaxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "PasswordHasher{" +
+                "cost=" + cost +
+                ", queueDepth=" + getQueueDepth() +
+                ", active=" + getActiveCount() +
+                ", completed=" + getCompletedCount() +
+                ", rejected=" + getRejectedCount() +
+                ", avgLatencyMs=" + getAverageLatencyMillis() +
+                ", maxLatencyMs=" + getMaxLatencyMillis() +
+                '}';
+    }
+}
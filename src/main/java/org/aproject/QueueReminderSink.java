@@ -0,0 +1,28 @@
+package org.aproject;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Bounded in-process hand-off; reminders are dropped rather than stalling the scan when nobody drains the queue
+public class QueueReminderSink implements ReminderSink {
+
+    private static final Metrics.Counter DROPPED = Metrics.counter("reminders_dropped_total");
+
+    private final BlockingQueue<Reminder> queue;
+
+    public QueueReminderSink(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        Metrics.gauge("reminder_queue_size", queue::size);
+    }
+
+    @Override
+    public void accept(Reminder reminder) {
+        if (!queue.offer(reminder)) {
+            DROPPED.increment();
+        }
+    }
+
+    public BlockingQueue<Reminder> getQueue() {
+        return queue;
+    }
+}
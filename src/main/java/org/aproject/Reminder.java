@@ -0,0 +1,42 @@
+package org.aproject;
+
+public class Reminder {
+
+    public enum Kind {
+        DUE_SOON,
+        OVERDUE
+    }
+
+    private final int userId;
+    private final Task task;
+    private final Kind kind;
+
+    public Reminder(int userId, Task task, Kind kind) {
+        this.userId = userId;
+        this.task = task;
+        this.kind = kind;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public Task getTask() {
+        return task;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    @Override
+    public String toString() {
+        return "Reminder{" +
+                "userId=" + userId +
+                ", kind=" + kind +
+                ", taskId=" + task.getId() +
+                ", name='" + task.getName() + '\'' +
+                ", endDate=" + task.getEnd_Date() +
+                '}';
+    }
+}
@@ -0,0 +1,361 @@
+package org.aproject;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Hands incomplete tasks due within lookaheadDays to a ReminderSink at most once per day and kind.
+// Scans partitions of user ids in parallel; partitions cut off by the budget go first on the next scan.
+public class ReminderScheduler implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ReminderScheduler.class.getName());
+
+    private static final Metrics.Timer SCAN = Metrics.timer("reminder_scan");
+    private static final Metrics.Timer PARTITION_SCAN = Metrics.timer("reminder_partition_scan");
+    private static final Metrics.Counter ROWS_SCANNED = Metrics.counter("reminder_rows_scanned_total");
+    private static final Metrics.Counter EMITTED = Metrics.counter("reminders_emitted_total");
+    private static final Metrics.Counter SKIPPED = Metrics.counter("reminder_partitions_skipped_total");
+    private static final Metrics.Counter FAILED = Metrics.counter("reminder_partitions_failed_total");
+
+    private final TaskRepository repository;
+    private final ReminderSink sink;
+    private final int lookaheadDays;
+    private final int partitionUsers;
+    private final int fetchSize;
+    private final long scanBudgetNanos;
+    private final ForkJoinPool pool;
+    private final ReentrantLock scanLock = new ReentrantLock();
+    private final AtomicInteger partitionsDone = new AtomicInteger();
+
+    private volatile Partition[] partitions = new Partition[0];
+    private ScheduledExecutorService timer;
+    private int nextStart;
+    private long notifiedDay = Long.MIN_VALUE;
+
+    public ReminderScheduler(TaskRepository repository, ReminderSink sink, int lookaheadDays, int partitionUsers,
+                             int parallelism, int fetchSize, long scanBudgetMillis) {
+        if (lookaheadDays < 0 || partitionUsers < 1 || parallelism < 1 || fetchSize < 1 || scanBudgetMillis < 1) {
+            throw new IllegalArgumentException("Invalid reminder scheduler settings.");
+        }
+        this.repository = repository;
+        this.sink = sink;
+        this.lookaheadDays = lookaheadDays;
+        this.partitionUsers = partitionUsers;
+        this.fetchSize = fetchSize;
+        this.scanBudgetNanos = TimeUnit.MILLISECONDS.toNanos(scanBudgetMillis);
+        this.pool = new ForkJoinPool(parallelism);
+
+        Metrics.gauge("reminder_partitions", () -> partitions.length);
+        Metrics.gauge("reminder_partitions_done", partitionsDone::get);
+    }
+
+    public static ReminderScheduler fromEnv(TaskRepository repository, ReminderSink sink) {
+        return new ReminderScheduler(repository, sink,
+                Integer.parseInt(DatabaseManager.env("REMINDER_LOOKAHEAD_DAYS", "1")),
+                Integer.parseInt(DatabaseManager.env("REMINDER_PARTITION_USERS", "10000")),
+                Integer.parseInt(DatabaseManager.env("REMINDER_PARALLELISM",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Integer.parseInt(DatabaseManager.env("TASK_FETCH_SIZE", "500")),
+                Long.parseLong(DatabaseManager.env("REMINDER_SCAN_BUDGET_MS", "60000")));
+    }
+
+    public synchronized void start(long intervalMillis) {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "reminder-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                scan(LocalDate.now());
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Reminder scan failed.", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public ScanResult scan(LocalDate today) {
+        long start = System.nanoTime();
+        scanLock.lock();
+        try {
+            int count = (int) ((repository.getMaxTaskOwnerId() + (long) partitionUsers - 1) / partitionUsers);
+            if (count > partitions.length) {
+                Partition[] grown = Arrays.copyOf(partitions, count);
+                for (int i = partitions.length; i < count; i++) {
+                    grown[i] = new Partition(i, partitionUsers);
+                }
+                partitions = grown;
+            }
+            if (today.toEpochDay() != notifiedDay) {
+                // Reminders repeat daily, so yesterday's bookkeeping can go
+                for (Partition partition : partitions) {
+                    partition.notified.clear();
+                }
+                notifiedDay = today.toEpochDay();
+            }
+
+            ScanContext context = new ScanContext(today, start + scanBudgetNanos, count, count == 0 ? 0 : nextStart % count);
+            partitionsDone.set(0);
+            if (count > 0) {
+                pool.invoke(new ScanTask(context, 0, count));
+            }
+            sink.flush();
+
+            int firstSkipped = context.firstSkipped.get();
+            nextStart = firstSkipped == Integer.MAX_VALUE ? 0 : (context.offset + firstSkipped) % count;
+
+            ScanResult result = new ScanResult(count, context.skipped.get(), context.failed.get(),
+                    context.rows.sum(), context.reminders.sum(), System.nanoTime() - start);
+            if (result.getSkipped() > 0) {
+                logger.warning("Reminder scan ran out of its budget, " + result.getSkipped()
+                        + " partition(s) deferred to the next scan: " + result);
+            } else {
+                logger.info("Reminder scan finished: " + result);
+            }
+            return result;
+        } finally {
+            scanLock.unlock();
+            SCAN.recordSince(start);
+        }
+    }
+
+    public List<PartitionStats> getPartitionStats() {
+        List<PartitionStats> stats = new ArrayList<>();
+        for (Partition partition : partitions) {
+            stats.add(new PartitionStats(partition.fromUserId, partition.toUserId, partition.lastRows,
+                    partition.lastReminders, partition.lastScanNanos, partition.lastScannedAt));
+        }
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+        }
+        pool.shutdown();
+        sink.close();
+    }
+
+    private void scanPartition(ScanContext context, int position) {
+        if (System.nanoTime() > context.deadline) {
+            context.skip(position);
+            SKIPPED.increment();
+            partitionsDone.incrementAndGet();
+            return;
+        }
+
+        // Each partition is visited by exactly one leaf per scan, so its bookkeeping needs no lock
+        Partition partition = partitions[(context.offset + position) % context.count];
+        int todayStamp = (int) context.today.toEpochDay() * 2;
+        int[] emitted = new int[1];
+        long start = System.nanoTime();
+        try {
+            int rows = repository.forEachDueTask(partition.fromUserId, partition.toUserId, context.dueBy, fetchSize,
+                    (task, userId) -> {
+                        Reminder.Kind kind = task.getEnd_Date().isBefore(context.today)
+                                ? Reminder.Kind.OVERDUE : Reminder.Kind.DUE_SOON;
+                        int stamp = todayStamp + kind.ordinal();
+                        if (partition.notified.get(task.getId()) != stamp) {
+                            sink.accept(new Reminder(userId, task, kind));
+                            partition.notified.put(task.getId(), stamp);
+                            emitted[0]++;
+                        }
+                    });
+
+            long elapsed = System.nanoTime() - start;
+            partition.lastRows = rows;
+            partition.lastReminders = emitted[0];
+            partition.lastScanNanos = elapsed;
+            partition.lastScannedAt = System.currentTimeMillis();
+            context.rows.add(rows);
+            context.reminders.add(emitted[0]);
+            ROWS_SCANNED.add(rows);
+            EMITTED.add(emitted[0]);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Reminder partition " + partition.fromUserId + "-" + partition.toUserId + ": "
+                        + rows + " rows, " + emitted[0] + " reminders in " + elapsed / 1_000_000 + " ms");
+            }
+        } catch (RuntimeException e) {
+            context.failed.incrementAndGet();
+            FAILED.increment();
+            logger.log(Level.WARNING, "Reminder scan of users " + partition.fromUserId + "-" + partition.toUserId + " failed.", e);
+        } finally {
+            PARTITION_SCAN.recordSince(start);
+            partitionsDone.incrementAndGet();
+        }
+    }
+
+    private final class ScanTask extends RecursiveAction {
+        private final ScanContext context;
+        private final int from;
+        private final int to;
+
+        private ScanTask(ScanContext context, int from, int to) {
+            this.context = context;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                scanPartition(context, from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ScanTask(context, from, mid), new ScanTask(context, mid, to));
+        }
+    }
+
+    // Positions are relative to offset, which rotates the partition order between scans
+    private final class ScanContext {
+        private final LocalDate today;
+        private final LocalDate dueBy;
+        private final long deadline;
+        private final int count;
+        private final int offset;
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder reminders = new LongAdder();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger firstSkipped = new AtomicInteger(Integer.MAX_VALUE);
+
+        private ScanContext(LocalDate today, long deadline, int count, int offset) {
+            this.today = today;
+            this.dueBy = today.plusDays(lookaheadDays);
+            this.deadline = deadline;
+            this.count = count;
+            this.offset = offset;
+        }
+
+        private void skip(int position) {
+            skipped.incrementAndGet();
+            firstSkipped.accumulateAndGet(position, Math::min);
+        }
+    }
+
+    private static final class Partition {
+        private final int fromUserId;
+        private final int toUserId;
+        // Task id -> epoch day * 2 + kind of the last reminder sent
+        private final IntIntMap notified = new IntIntMap(16);
+        private volatile int lastRows;
+        private volatile int lastReminders;
+        private volatile long lastScanNanos;
+        private volatile long lastScannedAt;
+
+        private Partition(int index, int partitionUsers) {
+            this.fromUserId = (int) Math.min(Integer.MAX_VALUE, (long) index * partitionUsers + 1);
+            this.toUserId = (int) Math.min(Integer.MAX_VALUE, (long) (index + 1) * partitionUsers);
+        }
+    }
+
+    public static final class PartitionStats {
+        private final int fromUserId;
+        private final int toUserId;
+        private final int rows;
+        private final int reminders;
+        private final long scanNanos;
+        private final long scannedAt;
+
+        private PartitionStats(int fromUserId, int toUserId, int rows, int reminders, long scanNanos, long scannedAt) {
+            this.fromUserId = fromUserId;
+            this.toUserId = toUserId;
+            this.rows = rows;
+            this.reminders = reminders;
+            this.scanNanos = scanNanos;
+            this.scannedAt = scannedAt;
+        }
+
+        public int getFromUserId() {
+            return fromUserId;
+        }
+
+        public int getToUserId() {
+            return toUserId;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public int getReminders() {
+            return reminders;
+        }
+
+        public long getScanNanos() {
+            return scanNanos;
+        }
+
+        // Epoch millis of the last completed scan, 0 if the partition was never scanned
+        public long getScannedAt() {
+            return scannedAt;
+        }
+    }
+
+    public static final class ScanResult {
+        private final int partitions;
+        private final int skipped;
+        private final int failed;
+        private final long rows;
+        private final long reminders;
+        private final long elapsedNanos;
+
+        private ScanResult(int partitions, int skipped, int failed, long rows, long reminders, long elapsedNanos) {
+            this.partitions = partitions;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.rows = rows;
+            this.reminders = reminders;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getReminders() {
+            return reminders;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d partitions (%d skipped, %d failed), %,d rows, %,d reminders in %d ms",
+                    partitions, skipped, failed, rows, reminders, elapsedNanos / 1_000_000);
+        }
+    }
+}
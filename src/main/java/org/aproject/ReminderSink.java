@@ -0,0 +1,31 @@
+package org.aproject;
+
+import java.nio.file.Path;
+
+// Receives reminders from several scan threads at once, so implementations must be thread-safe
+public interface ReminderSink extends AutoCloseable {
+
+    void accept(Reminder reminder);
+
+    // Called after every scan
+    default void flush() {
+    }
+
+    @Override
+    default void close() {
+    }
+
+    static ReminderSink fromEnv() {
+        String type = DatabaseManager.env("REMINDER_SINK", "log");
+        switch (type.toLowerCase()) {
+            case "log":
+                return new LogReminderSink();
+            case "file":
+                return new FileReminderSink(Path.of(DatabaseManager.env("REMINDER_FILE", "todoapp-reminders.log")));
+            case "queue":
+                return new QueueReminderSink(Integer.parseInt(DatabaseManager.env("REMINDER_QUEUE_CAPACITY", "100000")));
+            default:
+                throw new IllegalArgumentException("Unknown REMINDER_SINK '" + type + "', expected log, file or queue.");
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.aproject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Sends reads to replicas that a heartbeat shows are past the user's last write, writes to the primary.
+// Positions are primary wall-clock millis, so application clocks must agree to well within a heartbeat.
+public class ReplicaRouter implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ReplicaRouter.class.getName());
+
+    private static final Metrics.Counter REPLICA_READS = Metrics.counter("replica_reads_total");
+    private static final Metrics.Counter PRIMARY_READS = Metrics.counter("replica_primary_reads_total");
+    private static final Metrics.Counter FAILOVERS = Metrics.counter("replica_failovers_total");
+    private static final Metrics.Counter HEARTBEAT_FAILURES = Metrics.counter("replica_heartbeat_failures_total");
+
+    private final Replica[] replicas;
+    private final long maxLagMillis;
+    private final Map<Integer, Long> writePositions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ScheduledExecutorService heartbeat;
+    // Positions below this were dropped from writePositions, so no replica behind it may serve reads
+    private volatile long prunedHorizon;
+
+    public ReplicaRouter(DatabaseManager dbm, List<ConnectionPool> pools, List<String> names,
+                         long maxLagMillis, long heartbeatIntervalMillis) {
+        if (pools.isEmpty() || names.size() != pools.size() || maxLagMillis < 1 || heartbeatIntervalMillis < 1) {
+            throw new IllegalArgumentException("Invalid replica settings: " + pools.size() + " pools, "
+                    + names.size() + " names, maxLag=" + maxLagMillis + ", heartbeat=" + heartbeatIntervalMillis);
+        }
+        this.maxLagMillis = maxLagMillis;
+        replicas = new Replica[pools.size()];
+        for (int i = 0; i < replicas.length; i++) {
+            Replica replica = new Replica(names.get(i), pools.get(i), dbm);
+            replicas[i] = replica;
+            Metrics.gauge("replica_" + replica.name + "_lag_ms",
+                    () -> replica.position == 0 ? -1 : System.currentTimeMillis() - replica.position);
+        }
+        Metrics.gauge("replica_healthy", this::getHealthyCount);
+        Metrics.gauge("replica_tracked_write_positions", writePositions::size);
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, 0, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Replica i, numbered from 1, comes from DATABASE_REPLICA_i_URL, _USER and _PASSWORD
+    public static ReplicaRouter fromEnv(DatabaseManager dbm) {
+        int count = Integer.parseInt(DatabaseManager.env("DATABASE_REPLICAS", "0"));
+        List<ConnectionPool> pools = new ArrayList<>(count);
+        List<String> names = new ArrayList<>(count);
+        try {
+            for (int i = 1; i <= count; i++) {
+                String prefix = "DATABASE_REPLICA_" + i + "_";
+                String url = DatabaseManager.env(prefix + "URL", null);
+                if (url == null) {
+                    throw new IllegalArgumentException(prefix + "URL is not set.");
+                }
+                pools.add(DatabaseManager.newPool(url,
+                        DatabaseManager.env(prefix + "USER", null), DatabaseManager.env(prefix + "PASSWORD", null)));
+                names.add(DatabaseManager.env(prefix + "NAME", "replica" + i));
+            }
+            ReplicaRouter router = new ReplicaRouter(dbm, pools, names,
+                    Long.parseLong(DatabaseManager.env("REPLICA_MAX_LAG_MS", "5000")),
+                    Long.parseLong(DatabaseManager.env("REPLICA_HEARTBEAT_INTERVAL_MS", "500")));
+            logger.info("Routing reads over " + count + " replicas: " + String.join(", ", names) + ".");
+            return router;
+        } catch (RuntimeException e) {
+            pools.forEach(ConnectionPool::close);
+            throw e;
+        }
+    }
+
+    // Tries each healthy replica past the user's last write in turn, then the primary.
+    // userId 0 reads without a position, for scans not tied to a user.
+    <T> T read(int userId, Function<Replica, T> onReplica, Supplier<T> onPrimary) {
+        Long written = userId == 0 ? null : writePositions.get(userId);
+        int first = Math.floorMod(nextReplica.getAndIncrement(), replicas.length);
+        for (int k = 0; k < replicas.length; k++) {
+            Replica replica = replicas[(first + k) % replicas.length];
+            if (!replica.healthy || (written != null && replica.position <= written)) {
+                continue;
+            }
+            try {
+                T result = onReplica.apply(replica);
+                REPLICA_READS.increment();
+                return result;
+            } catch (StorageException e) {
+                replica.healthy = false;
+                FAILOVERS.increment();
+                logger.log(Level.WARNING, "Read failed on replica " + replica.name + "; taking it out of rotation.", e);
+            }
+        }
+        PRIMARY_READS.increment();
+        return onPrimary.get();
+    }
+
+    // Call after the write has committed; positions only move forward
+    void recordWrite(int userId) {
+        writePositions.merge(userId, System.currentTimeMillis(), Math::max);
+    }
+
+    public int getHealthyCount() {
+        int healthy = 0;
+        for (Replica replica : replicas) {
+            if (replica.healthy) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    public int getReplicaCount() {
+        return replicas.length;
+    }
+
+    public boolean isHealthy(int replica) {
+        return replicas[replica].healthy;
+    }
+
+    // Runs one heartbeat right away instead of waiting for the next scheduled one
+    public synchronized void heartbeat() {
+        // Taken before the write, so a replica holding this beat has everything committed before now
+        long beat = System.currentTimeMillis();
+        try (Connection con = DatabaseManager.getPool().borrow()) {
+            try (PreparedStatement update = con.prepareStatement("UPDATE replica_heartbeat SET beat = ? WHERE id = 1")) {
+                update.setLong(1, beat);
+                if (update.executeUpdate() == 0) {
+                    try (PreparedStatement insert = con.prepareStatement("INSERT INTO replica_heartbeat (id, beat) VALUES (1, ?)")) {
+                        insert.setLong(1, beat);
+                        insert.executeUpdate();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            HEARTBEAT_FAILURES.increment();
+            logger.log(Level.WARNING, "Failed to write the replica heartbeat.", e);
+        } catch (RuntimeException e) {
+            HEARTBEAT_FAILURES.increment();
+            logger.log(Level.WARNING, "Failed to write the replica heartbeat.", e);
+        }
+
+        long now = System.currentTimeMillis();
+        long caughtUp = Long.MAX_VALUE;
+        for (Replica replica : replicas) {
+            boolean wasHealthy = replica.healthy;
+            try (Connection con = replica.pool.borrow();
+                 PreparedStatement select = con.prepareStatement("SELECT beat FROM replica_heartbeat WHERE id = 1");
+                 ResultSet rs = select.executeQuery()) {
+                if (rs.next()) {
+                    replica.position = Math.max(replica.position, rs.getLong(1));
+                }
+                replica.healthy = replica.position > 0 && replica.position >= prunedHorizon
+                        && now - replica.position <= maxLagMillis;
+            } catch (SQLException | RuntimeException e) {
+                replica.healthy = false;
+                HEARTBEAT_FAILURES.increment();
+                logger.log(Level.FINE, "Heartbeat failed on replica " + replica.name + ".", e);
+            }
+            if (wasHealthy != replica.healthy) {
+                logger.info("Replica " + replica.name + (replica.healthy ? " is back in rotation." : " is out of rotation."));
+            }
+            if (replica.healthy) {
+                caughtUp = Math.min(caughtUp, replica.position);
+            }
+        }
+
+        // Writes every healthy replica has applied need no tracking; a replica that comes back has to
+        // reach the horizon before it is healthy again
+        if (caughtUp != Long.MAX_VALUE && caughtUp > prunedHorizon) {
+            long horizon = caughtUp;
+            prunedHorizon = horizon;
+            writePositions.values().removeIf(position -> position < horizon);
+        }
+    }
+
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    static final class Replica {
+        final String name;
+        final ConnectionPool pool;
+        final JdbcTaskRepository tasks;
+        final JdbcUserRepository users;
+        volatile boolean healthy;
+        volatile long position;
+
+        Replica(String name, ConnectionPool pool, DatabaseManager dbm) {
+            this.name = name;
+            this.pool = pool;
+            this.tasks = new JdbcTaskRepository(dbm, pool);
+            this.users = new JdbcUserRepository(dbm, pool);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.aproject;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+
+// Writes on the primary, reads through a ReplicaRouter; each write records the user's position
+public class ReplicaTaskRepository implements TaskRepository {
+
+    private final TaskRepository primary;
+    private final ReplicaRouter replicas;
+
+    public ReplicaTaskRepository(TaskRepository primary, ReplicaRouter replicas) {
+        this.primary = primary;
+        this.replicas = replicas;
+    }
+
+    @Override
+    public void insertTask(Task task, User user) {
+        primary.insertTask(task, user);
+        replicas.recordWrite(user.getId());
+    }
+
+    @Override
+    public boolean removeTask(int taskId, User user) {
+        boolean removed = primary.removeTask(taskId, user);
+        replicas.recordWrite(user.getId());
+        return removed;
+    }
+
+    @Override
+    public void insertTasks(Collection<Task> tasks, User user) {
+        primary.insertTasks(tasks, user);
+        replicas.recordWrite(user.getId());
+    }
+
+    @Override
+    public int removeTasks(int[] taskIds, User user) {
+        int removed = primary.removeTasks(taskIds, user);
+        replicas.recordWrite(user.getId());
+        return removed;
+    }
+
+    @Override
+    public boolean setTaskStatus(int taskId, boolean status, User user) {
+        boolean changed = primary.setTaskStatus(taskId, status, user);
+        replicas.recordWrite(user.getId());
+        return changed;
+    }
+
+    @Override
+    public Map<Integer, Task> getAllTasks(User user) {
+        return replicas.read(user.getId(), r -> r.tasks.getAllTasks(user), () -> primary.getAllTasks(user));
+    }
+
+    @Override
+    public Stream<Task> streamTasks(User user, int fetchSize) {
+        // Only opening the stream fails over; an error while it is consumed reaches the caller
+        return replicas.read(user.getId(), r -> r.tasks.streamTasks(user, fetchSize), () -> primary.streamTasks(user, fetchSize));
+    }
+
+    @Override
+    public List<Task> getTasksPage(User user, Task after, int limit) {
+        return replicas.read(user.getId(), r -> r.tasks.getTasksPage(user, after, limit), () -> primary.getTasksPage(user, after, limit));
+    }
+
+    @Override
+    public List<Task> findTasks(User user, TaskFilter filter) {
+        return replicas.read(user.getId(), r -> r.tasks.findTasks(user, filter), () -> primary.findTasks(user, filter));
+    }
+
+    @Override
+    public long getVersionStamp(User user) {
+        return replicas.read(user.getId(), r -> r.tasks.getVersionStamp(user), () -> primary.getVersionStamp(user));
+    }
+
+    @Override
+    public TaskChanges getTasksChangedSince(User user, long sinceVersion) {
+        return replicas.read(user.getId(), r -> r.tasks.getTasksChangedSince(user, sinceVersion),
+                () -> primary.getTasksChangedSince(user, sinceVersion));
+    }
+
+    @Override
+    public int forEachDueTask(int fromUserId, int toUserId, LocalDate dueBy, int fetchSize, ObjIntConsumer<Task> action) {
+        // Not tied to anyone's writes. After a failover the next source delivers some rows again,
+        // which ReminderScheduler already filters as sent
+        return replicas.read(0, r -> r.tasks.forEachDueTask(fromUserId, toUserId, dueBy, fetchSize, action),
+                () -> primary.forEachDueTask(fromUserId, toUserId, dueBy, fetchSize, action));
+    }
+
+    @Override
+    public int getMaxTaskOwnerId() {
+        return replicas.read(0, r -> r.tasks.getMaxTaskOwnerId(), primary::getMaxTaskOwnerId);
+    }
+
+    @Override
+    public TaskStats getTaskStats(User user) {
+        return replicas.read(user.getId(), r -> r.tasks.getTaskStats(user), () -> primary.getTaskStats(user));
+    }
+
+    @Override
+    public int rebuildTaskStats(int fromUserId, int toUserId) {
+        return primary.rebuildTaskStats(fromUserId, toUserId);
+    }
+}
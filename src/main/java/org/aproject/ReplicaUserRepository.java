@@ -0,0 +1,30 @@
+package org.aproject;
+
+// Lookups on the replicas, writes on the primary; misses retry on the primary so a new user can log in at once
+public class ReplicaUserRepository implements UserRepository {
+
+    private final UserRepository primary;
+    private final ReplicaRouter replicas;
+
+    public ReplicaUserRepository(UserRepository primary, ReplicaRouter replicas) {
+        this.primary = primary;
+        this.replicas = replicas;
+    }
+
+    @Override
+    public boolean insertUser(String username, String passwordHash, String email) {
+        return primary.insertUser(username, passwordHash, email);
+    }
+
+    @Override
+    public StoredUser findByUsername(String username) {
+        StoredUser user = replicas.read(0, r -> r.users.findByUsername(username), () -> primary.findByUsername(username));
+        return user != null ? user : primary.findByUsername(username);
+    }
+
+    @Override
+    public void updatePasswordHash(int userId, String passwordHash) {
+        // A replica still serving the old hash is harmless: it verifies the same password
+        primary.updatePasswordHash(userId, passwordHash);
+    }
+}
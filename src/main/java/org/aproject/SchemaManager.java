@@ -0,0 +1,303 @@
+package org.aproject;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class SchemaManager {
+
+    static final int CURRENT_VERSION = 6;
+
+    private static final Logger logger = Logger.getLogger(SchemaManager.class.getName());
+    private static final String[] REQUIRED_TABLES = {"users", "shard_directory", "replica_heartbeat"};
+    // The only tables a task shard holds, and the only ones task statements need
+    private static final String[] REQUIRED_TASK_TABLES = {"tasks", "task_versions", "task_tombstones", "task_stats", "task_stats_due"};
+    private static final int MAX_REPORTED_DUPLICATES = 20;
+    private static final String[][] REQUIRED_INDEXES = {
+            {"tasks", "idx_tasks_user_status_end"},
+            {"tasks", "idx_tasks_user_version"},
+            {"task_tombstones", "idx_task_tombstones_user_version"}
+    };
+
+    private static volatile boolean verified;
+
+    private SchemaManager() {
+    }
+
+    public static synchronized void bootstrap(Connection connection) throws SQLException {
+        bootstrap(connection, false);
+    }
+
+    // Task ids are only unique per database, so a shard starts its id sequence at idBase;
+    // ShardRouter gives every shard its own range
+    public static synchronized void bootstrapShard(Connection connection, int idBase) throws SQLException {
+        bootstrap(connection, true);
+        seedTaskIds(connection, idBase);
+    }
+
+    private static void bootstrap(Connection connection, boolean shard) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version ("
+                    + "version INT NOT NULL,"
+                    + "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP"
+                    + ")");
+        }
+
+        int version = currentVersion(connection);
+        while (version < CURRENT_VERSION) {
+            version++;
+            migrate(connection, version, shard);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("INSERT INTO schema_version (version) VALUES (" + version + ")");
+            }
+            logger.info("Schema migrated to version " + version + ".");
+        }
+
+        verify(connection, shard);
+        verified = true;
+        logger.info((shard ? "Shard schema" : "Schema") + " version " + version + " verified.");
+    }
+
+    public static boolean isReady(Connection connection) throws SQLException {
+        if (verified) {
+            return true;
+        }
+        synchronized (SchemaManager.class) {
+            if (!verified) {
+                try {
+                    // Only task statements ask, and they may run against a shard without the users table
+                    verify(connection, true);
+                    verified = true;
+                } catch (SQLException e) {
+                    logger.log(Level.WARNING, "Schema verification failed.", e);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public static void invalidate() {
+        verified = false;
+    }
+
+    public static void onError(SQLException e) {
+        String state = e.getSQLState();
+        // 42S02: table not found, 42S22: column not found
+        if (state != null && (state.equals("42S02") || state.equals("42S22"))) {
+            logger.warning("Schema error detected, cached schema state invalidated: " + e.getMessage());
+            invalidate();
+        }
+    }
+
+    private static int currentVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void migrate(Connection connection, int version, boolean shard) throws SQLException {
+        switch (version) {
+            case 1:
+                if (!shard) {
+                    DatabaseManager.createUsersTableIfNotExists(connection);
+                }
+                DatabaseManager.createTasksTableIfNotExists(connection, !shard);
+                break;
+            case 2:
+                if (!shard) {
+                    if (!indexExists(connection.getMetaData(), "users", "ux_users_username")) {
+                        requireUniqueUsernames(connection);
+                    }
+                    createIndexIfNotExists(connection, "users", "ux_users_username",
+                            "CREATE UNIQUE INDEX ux_users_username ON users (username)");
+                }
+                createIndexIfNotExists(connection, "tasks", "idx_tasks_user_status_end",
+                        "CREATE INDEX idx_tasks_user_status_end ON tasks (user_id, status, end_date)");
+                break;
+            case 3:
+                // Change tracking: every write bumps the owner's version and stamps the rows it touches
+                addColumnIfNotExists(connection, "tasks", "version",
+                        "ALTER TABLE tasks ADD COLUMN version BIGINT NOT NULL DEFAULT 0");
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS task_versions ("
+                            + "user_id INT PRIMARY KEY,"
+                            + "version BIGINT NOT NULL,"
+                            + "tombstone_floor BIGINT NOT NULL DEFAULT 0"
+                            + ")");
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS task_tombstones ("
+                            + "task_id INT PRIMARY KEY,"
+                            + "user_id INT NOT NULL,"
+                            + "version BIGINT NOT NULL,"
+                            + "deleted_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP"
+                            + ")");
+                }
+                createIndexIfNotExists(connection, "tasks", "idx_tasks_user_version",
+                        "CREATE INDEX idx_tasks_user_version ON tasks (user_id, version)");
+                createIndexIfNotExists(connection, "task_tombstones", "idx_task_tombstones_user_version",
+                        "CREATE INDEX idx_task_tombstones_user_version ON task_tombstones (user_id, version)");
+                break;
+            case 4:
+                // Users placed on a shard other than the one the hash ring picks; kept on the primary only
+                if (!shard) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate("CREATE TABLE IF NOT EXISTS shard_directory ("
+                                + "user_id INT PRIMARY KEY,"
+                                + "shard INT NOT NULL"
+                                + ")");
+                    }
+                }
+                break;
+            case 5:
+                // Written on the primary and read back from replicas to measure how far behind they are
+                if (!shard) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate("CREATE TABLE IF NOT EXISTS replica_heartbeat ("
+                                + "id INT PRIMARY KEY,"
+                                + "beat BIGINT NOT NULL"
+                                + ")");
+                    }
+                }
+                break;
+            case 6:
+                // Per-user counters kept in the same transaction as every task write, so summaries never
+                // read the tasks table; open tasks are also counted per end date for overdue and next deadline
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS task_stats ("
+                            + "user_id INT PRIMARY KEY,"
+                            + "open_count INT NOT NULL DEFAULT 0,"
+                            + "completed_count INT NOT NULL DEFAULT 0"
+                            + ")");
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS task_stats_due ("
+                            + "user_id INT NOT NULL,"
+                            + "end_date DATE NOT NULL,"
+                            + "open_count INT NOT NULL,"
+                            + "PRIMARY KEY (user_id, end_date)"
+                            + ")");
+                    // Cleared first in case an earlier attempt at this migration stopped halfway
+                    statement.executeUpdate("DELETE FROM task_stats");
+                    statement.executeUpdate("DELETE FROM task_stats_due");
+                    statement.executeUpdate(TaskQueries.BACKFILL_STATS + " GROUP BY user_id");
+                    statement.executeUpdate(TaskQueries.BACKFILL_STATS_DUE + " GROUP BY user_id, end_date");
+                }
+                break;
+            default:
+                throw new IllegalStateException("No migration for schema version " + version);
+        }
+    }
+
+    private static void createIndexIfNotExists(Connection connection, String table, String index, String ddl) throws SQLException {
+        if (indexExists(connection.getMetaData(), table, index)) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(ddl);
+            logger.info("Index '" + index + "' created on '" + table + "'.");
+        }
+    }
+
+    // Earlier versions never enforced unique usernames; the index cannot be built over duplicates, and which
+    // account to keep is not for a migration to decide, so startup stops with the list to resolve by hand
+    private static void requireUniqueUsernames(Connection connection) throws SQLException {
+        List<String> duplicates = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT username, COUNT(*), MIN(id), MAX(id) FROM users "
+                     + "GROUP BY username HAVING COUNT(*) > 1 ORDER BY username")) {
+            while (rs.next()) {
+                duplicates.add("'" + rs.getString(1) + "' (" + rs.getInt(2) + " accounts, ids "
+                        + rs.getInt(3) + " to " + rs.getInt(4) + ")");
+            }
+        }
+        if (duplicates.isEmpty()) {
+            return;
+        }
+        int shown = Math.min(duplicates.size(), MAX_REPORTED_DUPLICATES);
+        throw new SQLException("Cannot create the unique index 'ux_users_username': " + duplicates.size()
+                + " username(s) belong to more than one account: " + String.join(", ", duplicates.subList(0, shown))
+                + (shown < duplicates.size() ? " and " + (duplicates.size() - shown) + " more" : "")
+                + ". Rename or merge these accounts, then restart to finish the schema upgrade.");
+    }
+
+    private static void addColumnIfNotExists(Connection connection, String table, String column, String ddl) throws SQLException {
+        try (ResultSet resultSet = connection.getMetaData().getColumns(null, null, table, column)) {
+            if (resultSet.next()) {
+                return;
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(ddl);
+            logger.info("Column '" + column + "' added to '" + table + "'.");
+        }
+    }
+
+    private static boolean indexExists(DatabaseMetaData metaData, String table, String index) throws SQLException {
+        try (ResultSet resultSet = metaData.getIndexInfo(null, null, table, false, false)) {
+            while (resultSet.next()) {
+                if (index.equalsIgnoreCase(resultSet.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void seedTaskIds(Connection connection, int idBase) throws SQLException {
+        if (idBase <= 1) {
+            return;
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MAX(id) FROM tasks")) {
+            if (rs.next() && rs.getInt(1) >= idBase - 1) {
+                return;
+            }
+        }
+        // An explicit id moves the AUTO_INCREMENT counter past it on MySQL and on H2 in MySQL mode,
+        // which is more portable than ALTER TABLE ... AUTO_INCREMENT
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO tasks (id, user_id, name) VALUES (" + (idBase - 1) + ", 0, '')");
+            statement.executeUpdate("DELETE FROM tasks WHERE id = " + (idBase - 1));
+            connection.commit();
+            logger.info("Task ids on this shard start at " + idBase + ".");
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void verify(Connection connection, boolean shard) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        if (!shard) {
+            requireTables(metaData, REQUIRED_TABLES);
+            if (!indexExists(metaData, "users", "ux_users_username")) {
+                logger.warning("Index 'ux_users_username' is missing on 'users'. Queries will fall back to table scans.");
+            }
+        }
+        requireTables(metaData, REQUIRED_TASK_TABLES);
+        for (String[] required : REQUIRED_INDEXES) {
+            if (!indexExists(metaData, required[0], required[1])) {
+                logger.warning("Index '" + required[1] + "' is missing on '" + required[0] + "'. Queries will fall back to table scans.");
+            }
+        }
+    }
+
+    private static void requireTables(DatabaseMetaData metaData, String[] tables) throws SQLException {
+        for (String table : tables) {
+            try (ResultSet resultSet = metaData.getTables(null, null, table, null)) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Table '" + table + "' does not exist.", "42S02");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.aproject;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class SessionManager implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(SessionManager.class.getName());
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int ID_BYTES = 16;
+    private static final int PAYLOAD_BYTES = ID_BYTES + Long.BYTES;
+
+    private static final Metrics.Counter CREATED = Metrics.counter("sessions_created_total");
+    private static final Metrics.Counter EXPIRED = Metrics.counter("sessions_expired_total");
+    private static final Metrics.Counter INVALID = Metrics.counter("sessions_invalid_tokens_total");
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    // Live sessions per user id, so the listener hears about a user only once their last session is gone
+    private final ConcurrentMap<Integer, Integer> perUser = new ConcurrentHashMap<>();
+    private volatile Consumer<User> signedOutListener = user -> { };
+    private final ScheduledExecutorService sweeper;
+
+    public SessionManager(byte[] secret, long ttlMillis, long sweepIntervalMillis) {
+        if (secret.length < 32) {
+            throw new IllegalArgumentException("Session secret must be at least 256 bits.");
+        }
+        this.key = new SecretKeySpec(secret.clone(), ALGORITHM);
+        this.ttlMillis = ttlMillis;
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleAtFixedRate(this::evictExpired, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        Metrics.gauge("sessions_active", sessions::size);
+    }
+
+    public static SessionManager fromEnv() {
+        String configured = DatabaseManager.env("SESSION_SECRET", null);
+        byte[] secret;
+        if (configured != null) {
+            secret = Base64.getDecoder().decode(configured);
+        } else {
+            // Tokens only need to survive as long as this process, which holds the sessions anyway
+            secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+            logger.info("SESSION_SECRET not set, using a random per-process secret.");
+        }
+        long ttl = Long.parseLong(DatabaseManager.env("SESSION_TTL_MS", "1800000"));
+        return new SessionManager(secret, ttl, Math.min(ttl, 60000));
+    }
+
+    // Token layout: base64url(sessionId || expiresAt) "." base64url(HMAC-SHA256 of that payload)
+    public String create(User user) {
+        byte[] id = new byte[ID_BYTES];
+        random.nextBytes(id);
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+
+        byte[] payload = ByteBuffer.allocate(PAYLOAD_BYTES).put(id).putLong(expiresAt).array();
+        String encodedPayload = ENCODER.encodeToString(payload);
+        perUser.merge(user.getId(), 1, Integer::sum);
+        sessions.put(ENCODER.encodeToString(id), new Session(user, expiresAt));
+        CREATED.increment();
+        return encodedPayload + "." + ENCODER.encodeToString(sign(encodedPayload));
+    }
+
+    // Returns null for forged, malformed, expired or revoked tokens
+    public User resolve(String token) {
+        String id = verify(token);
+        if (id == null) {
+            return null;
+        }
+        Session session = sessions.get(id);
+        if (session == null) {
+            return null;
+        }
+        if (session.expiresAt <= System.currentTimeMillis()) {
+            if (sessions.remove(id, session)) {
+                EXPIRED.increment();
+                ended(session);
+            }
+            return null;
+        }
+        return session.user;
+    }
+
+    public boolean invalidate(String token) {
+        String id = verify(token);
+        Session session = id == null ? null : sessions.remove(id);
+        if (session == null) {
+            return false;
+        }
+        ended(session);
+        return true;
+    }
+
+    public void invalidateAll(User user) {
+        Iterator<Session> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            Session session = it.next();
+            if (session.user.getId() == user.getId()) {
+                it.remove();
+                ended(session);
+            }
+        }
+    }
+
+    // Called on the thread that ended the user's last session: a logout, a revocation or the expiry sweep
+    public void setSignedOutListener(Consumer<User> listener) {
+        this.signedOutListener = listener;
+    }
+
+    public long getExpiresAt(String token) {
+        String id = verify(token);
+        Session session = id == null ? null : sessions.get(id);
+        return session == null ? 0 : session.expiresAt;
+    }
+
+    public int getActiveCount() {
+        return sessions.size();
+    }
+
+    private String verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            INVALID.increment();
+            return null;
+        }
+        String encodedPayload = token.substring(0, dot);
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(encodedPayload);
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            INVALID.increment();
+            return null;
+        }
+        if (payload.length != PAYLOAD_BYTES || !MessageDigest.isEqual(sign(encodedPayload), signature)) {
+            INVALID.increment();
+            return null;
+        }
+        // The signed expiry lets stale tokens be rejected without touching the session map
+        if (ByteBuffer.wrap(payload, ID_BYTES, Long.BYTES).getLong() <= System.currentTimeMillis()) {
+            return null;
+        }
+        return ENCODER.encodeToString(Arrays.copyOf(payload, ID_BYTES));
+    }
+
+    private byte[] sign(String encodedPayload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(encodedPayload.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available.", e);
+        }
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Session> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            Session session = it.next();
+            if (session.expiresAt <= now) {
+                it.remove();
+                EXPIRED.increment();
+                ended(session);
+            }
+        }
+    }
+
+    private void ended(Session session) {
+        int userId = session.user.getId();
+        if (perUser.computeIfPresent(userId, (id, count) -> count == 1 ? null : count - 1) == null) {
+            try {
+                signedOutListener.accept(session.user);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Sign-out listener failed for user " + userId + ".", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        sessions.clear();
+        perUser.clear();
+    }
+
+    private static final class Session {
+        private final User user;
+        private final long expiresAt;
+
+        private Session(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.aproject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+// Users pinned off the shard the hash ring picks, by a shard addition or by hand.
+// Stored in the shard_directory table on the primary and served from memory.
+public class ShardDirectory {
+
+    private static final Logger logger = Logger.getLogger(ShardDirectory.class.getName());
+
+    // null keeps the overrides in memory only
+    private final ConnectionPool pool;
+    private final Map<Integer, Integer> overrides = new ConcurrentHashMap<>();
+
+    public ShardDirectory(ConnectionPool pool) {
+        this.pool = pool;
+        if (pool != null) {
+            load();
+        }
+    }
+
+    private void load() {
+        try (Connection con = pool.borrow();
+             PreparedStatement pstmt = con.prepareStatement("SELECT user_id, shard FROM shard_directory");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                overrides.put(rs.getInt(1), rs.getInt(2));
+            }
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to load the shard directory.", e);
+        }
+        if (!overrides.isEmpty()) {
+            logger.info("Loaded " + overrides.size() + " shard placement overrides.");
+        }
+    }
+
+    // The shard the user is placed on, or -1 when the hash ring decides
+    public int get(int userId) {
+        // Almost always empty once rebalancing has finished, so the common lookup never boxes
+        if (overrides.isEmpty()) {
+            return -1;
+        }
+        Integer shard = overrides.get(userId);
+        return shard == null ? -1 : shard;
+    }
+
+    public void put(int userId, int shard) {
+        if (pool != null) {
+            try (Connection con = pool.borrow()) {
+                try (PreparedStatement update = con.prepareStatement("UPDATE shard_directory SET shard = ? WHERE user_id = ?")) {
+                    update.setInt(1, shard);
+                    update.setInt(2, userId);
+                    if (update.executeUpdate() == 0) {
+                        try (PreparedStatement insert = con.prepareStatement("INSERT INTO shard_directory (user_id, shard) VALUES (?, ?)")) {
+                            insert.setInt(1, userId);
+                            insert.setInt(2, shard);
+                            insert.executeUpdate();
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                SchemaManager.onError(e);
+                throw new StorageException("Failed to place user " + userId + " on shard " + shard + ".", e);
+            }
+        }
+        overrides.put(userId, shard);
+    }
+
+    public void remove(int userId) {
+        if (pool != null) {
+            try (Connection con = pool.borrow();
+                 PreparedStatement pstmt = con.prepareStatement("DELETE FROM shard_directory WHERE user_id = ?")) {
+                pstmt.setInt(1, userId);
+                pstmt.executeUpdate();
+            } catch (SQLException e) {
+                SchemaManager.onError(e);
+                throw new StorageException("Failed to clear the shard placement of user " + userId + ".", e);
+            }
+        }
+        overrides.remove(userId);
+    }
+
+    public int[] userIds() {
+        return overrides.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    public int size() {
+        return overrides.size();
+    }
+}
@@ -0,0 +1,265 @@
+package org.aproject;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Moves users between shards online, holding only the moved user's write lock. Copied tasks get new ids,
+// so a MoveListener lets the layers keyed on task ids drop the user; reconcile() repairs interrupted moves.
+public class ShardRebalancer implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ShardRebalancer.class.getName());
+
+    private static final Metrics.Timer MOVE = Metrics.timer("shard_move_user");
+    private static final Metrics.Counter USERS_MOVED = Metrics.counter("shard_users_moved_total");
+    private static final Metrics.Counter ROWS_MOVED = Metrics.counter("shard_rows_moved_total");
+    private static final Metrics.Counter ORPHANS_DROPPED = Metrics.counter("shard_orphan_rows_dropped_total");
+    private static final Metrics.Counter USERS_PINNED = Metrics.counter("shard_users_pinned_total");
+
+    private final ShardRouter router;
+    private final int fetchSize;
+    private final int batchSize;
+    private ScheduledExecutorService timer;
+    private volatile boolean closed;
+    private volatile MoveListener listener = new MoveListener() { };
+
+    public ShardRebalancer(ShardRouter router, int fetchSize, int batchSize) {
+        if (fetchSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Invalid rebalancer settings: fetchSize=" + fetchSize + ", batchSize=" + batchSize);
+        }
+        this.router = router;
+        this.fetchSize = fetchSize;
+        this.batchSize = batchSize;
+    }
+
+    public static ShardRebalancer fromEnv(ShardRouter router) {
+        return new ShardRebalancer(router,
+                Integer.parseInt(DatabaseManager.env("TASK_FETCH_SIZE", "500")),
+                Integer.parseInt(DatabaseManager.env("SHARD_MOVE_BATCH_SIZE", "1000")));
+    }
+
+    // Runs reconcile and rebalance passes in the background, one user at a time
+    public synchronized void start(long intervalMillis) {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "shard-rebalancer");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+                rebalance();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Shard rebalance pass failed; it will be retried.", e);
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Drops rows off a user's placement when the placement has their data, else pins the user to the rows.
+    // Returns the number of users pinned or cleaned up.
+    public int reconcile() {
+        int fixed = 0;
+        for (int shard = 0; shard < router.getShardCount() && !closed; shard++) {
+            int[] owners;
+            try (Connection con = router.getPool(shard).borrow()) {
+                owners = TaskQueries.taskOwners(con);
+            } catch (SQLException e) {
+                SchemaManager.onError(e);
+                throw new StorageException("Failed to list task owners on shard " + shard + ".", e);
+            }
+            for (int userId : owners) {
+                if (router.shardOf(userId) != shard && reconcileUser(userId, shard)) {
+                    fixed++;
+                }
+            }
+        }
+        if (fixed > 0) {
+            logger.info("Reconciled " + fixed + " users across " + router.getShardCount() + " shards.");
+        }
+        return fixed;
+    }
+
+    private boolean reconcileUser(int userId, int shard) {
+        Lock lock = router.lockFor(userId).writeLock();
+        lock.lock();
+        try {
+            int placed = router.shardOf(userId);
+            if (placed == shard) {
+                return false;
+            }
+            boolean owned;
+            if (router.getDirectory().get(userId) >= 0) {
+                owned = true;
+            } else {
+                try (Connection con = router.getPool(placed).borrow()) {
+                    owned = TaskQueries.taskVersion(con, userId) >= 0;
+                }
+            }
+            if (!owned) {
+                // The ring moved the user to a newer shard; keep reading from where the rows are
+                router.getDirectory().put(userId, shard);
+                USERS_PINNED.increment();
+                return true;
+            }
+            try (Connection con = router.getPool(shard).borrow()) {
+                int dropped = deleteUser(con, userId);
+                ORPHANS_DROPPED.add(dropped);
+                logger.info("Dropped " + dropped + " leftover task rows of user " + userId + " from shard " + shard + ".");
+            }
+            return true;
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to reconcile user " + userId + " on shard " + shard + ".", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Moves every user in the directory onto the shard the ring picks, returning how many moved
+    public int rebalance() {
+        int moved = 0;
+        for (int userId : router.getDirectory().userIds()) {
+            if (closed) {
+                break;
+            }
+            if (moveUser(userId, router.ringShardOf(userId))) {
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    public void setMoveListener(MoveListener listener) {
+        this.listener = listener;
+    }
+
+    // Moves one user's tasks to target while calls for that user wait; false when they were already there
+    public boolean moveUser(int userId, int target) {
+        if (target < 0 || target >= router.getShardCount()) {
+            throw new IllegalArgumentException("No shard " + target + "; there are " + router.getShardCount() + ".");
+        }
+        if (router.shardOf(userId) == target) {
+            return false;
+        }
+        MoveListener listener = this.listener;
+        listener.beforeMove(userId);
+        boolean moved = false;
+        Lock lock = router.lockFor(userId).writeLock();
+        lock.lock();
+        long start = System.nanoTime();
+        try {
+            int source = router.shardOf(userId);
+            if (source == target) {
+                return false;
+            }
+            int rows;
+            try (Connection from = router.getPool(source).borrow();
+                 Connection to = router.getPool(target).borrow()) {
+                rows = copyUser(from, to, userId, target);
+                // The copy bypasses the per-write summary updates, so the target's are rebuilt
+                TaskQueries.rebuildTaskStats(to, userId, userId);
+                if (target == router.ringShardOf(userId)) {
+                    router.getDirectory().remove(userId);
+                } else {
+                    router.getDirectory().put(userId, target);
+                }
+                deleteUser(from, userId);
+            }
+            USERS_MOVED.increment();
+            ROWS_MOVED.add(rows);
+            logger.info("Moved " + rows + " tasks of user " + userId + " from " + router.getShardName(source)
+                    + " to " + router.getShardName(target) + ".");
+            moved = true;
+            return true;
+        } catch (SQLException e) {
+            SchemaManager.onError(e);
+            throw new StorageException("Failed to move user " + userId + " to shard " + target + ".", e);
+        } finally {
+            MOVE.recordSince(start);
+            lock.unlock();
+            // Outside the write lock: listeners take their own locks, which are held while calling the router
+            if (moved) {
+                try {
+                    listener.afterMove(userId);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Move listener failed for user " + userId + ".", e);
+                }
+            }
+        }
+    }
+
+    private int copyUser(Connection from, Connection to, int userId, int target) throws SQLException {
+        boolean autoCommit = to.getAutoCommit();
+        to.setAutoCommit(false);
+        try {
+            // Leftovers of an earlier interrupted move would otherwise be duplicated
+            TaskQueries.deleteUserTasks(to, userId);
+            long version = Math.max(0, TaskQueries.taskVersion(from, userId)) + 1;
+            int rows = TaskQueries.copyUserTasks(from, to, userId, version, fetchSize, batchSize);
+            int maxId = TaskQueries.maxTaskId(to);
+            if (maxId >= ShardRouter.idLimit(target)) {
+                throw new SQLException("Shard " + router.getShardName(target) + " has run out of task ids: the copy reached id "
+                        + maxId + ", past the end of its range at " + ShardRouter.idLimit(target) + ".");
+            }
+            TaskQueries.resetTaskVersion(to, userId, version);
+            to.commit();
+            return rows;
+        } catch (SQLException e) {
+            to.rollback();
+            throw e;
+        } finally {
+            to.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static int deleteUser(Connection connection, int userId) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            int rows = TaskQueries.deleteUserTasks(connection, userId);
+            connection.commit();
+            return rows;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (timer != null) {
+            timer.shutdown();
+            try {
+                if (!timer.awaitTermination(30, TimeUnit.SECONDS)) {
+                    logger.warning("Shard rebalancer did not stop in time; the current move may be redone on restart.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            timer = null;
+        }
+    }
+
+    // Told about every move, since the copied tasks get new ids
+    public interface MoveListener {
+
+        // Before the user's calls are blocked, so writes still queued for the old shard can land there
+        default void beforeMove(int userId) {
+        }
+
+        // After the move, so everything keyed on the user's old task ids can be dropped
+        default void afterMove(int userId) {
+        }
+    }
+}
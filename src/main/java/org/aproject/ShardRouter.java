@@ -0,0 +1,346 @@
+package org.aproject;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+// Routes each user's tasks to one shard picked by consistent hashing, unless ShardDirectory pins them.
+// Every shard issues task ids from its own ID_SPAN range, so ids stay unique across shards.
+public class ShardRouter implements TaskRepository, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ShardRouter.class.getName());
+
+    static final int ID_SPAN = 1 << 26;
+    static final int MAX_SHARDS = Integer.MAX_VALUE / ID_SPAN;
+    private static final int LOCK_STRIPES = 256;
+
+    private final List<ConnectionPool> pools;
+    private final List<JdbcTaskRepository> shards;
+    private final String[] names;
+    private final long[] ringPoints;
+    private final int[] ringShards;
+    private final ShardDirectory directory;
+    private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[LOCK_STRIPES];
+    private final Metrics.Counter[] routed;
+
+    public ShardRouter(DatabaseManager dbm, List<ConnectionPool> pools, List<String> names,
+                       int virtualNodes, ShardDirectory directory) {
+        if (pools.isEmpty() || pools.size() > MAX_SHARDS || names.size() != pools.size() || virtualNodes < 1) {
+            throw new IllegalArgumentException("Invalid shard settings: " + pools.size() + " pools, "
+                    + names.size() + " names, " + virtualNodes + " virtual nodes.");
+        }
+        this.pools = List.copyOf(pools);
+        this.names = names.toArray(new String[0]);
+        this.directory = directory;
+
+        List<JdbcTaskRepository> repositories = new ArrayList<>(pools.size());
+        routed = new Metrics.Counter[pools.size()];
+        for (int i = 0; i < pools.size(); i++) {
+            // Shard 0 follows DatabaseManager's pool, like every other primary repository
+            repositories.add(new JdbcTaskRepository(dbm, i == 0 ? null : pools.get(i)));
+            routed[i] = Metrics.counter("shard_" + i + "_calls_total");
+        }
+        this.shards = List.copyOf(repositories);
+
+        // Sorted ring points; ties, which are astronomically rare, go to the lower shard
+        long[][] ring = new long[pools.size() * virtualNodes][];
+        for (int s = 0; s < pools.size(); s++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                ring[s * virtualNodes + v] = new long[]{hash(this.names[s] + "#" + v), s};
+            }
+        }
+        Arrays.sort(ring, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        ringPoints = new long[ring.length];
+        ringShards = new int[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            ringPoints[i] = ring[i][0];
+            ringShards[i] = (int) ring[i][1];
+        }
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        Metrics.gauge("shard_count", () -> this.pools.size());
+        Metrics.gauge("shard_directory_entries", directory::size);
+    }
+
+    // Shard 0 is the primary; shard i comes from DATABASE_SHARD_i_URL, _USER and _PASSWORD and gets its schema here
+    public static ShardRouter fromEnv(DatabaseManager dbm) {
+        int count = Integer.parseInt(DatabaseManager.env("DATABASE_SHARDS", "1"));
+        List<ConnectionPool> pools = new ArrayList<>(count);
+        List<String> names = new ArrayList<>(count);
+        pools.add(DatabaseManager.getPool());
+        names.add(DatabaseManager.env("DATABASE_SHARD_0_NAME", "shard-0"));
+        try {
+            for (int i = 1; i < count; i++) {
+                String prefix = "DATABASE_SHARD_" + i + "_";
+                String url = DatabaseManager.env(prefix + "URL", null);
+                if (url == null) {
+                    throw new IllegalArgumentException(prefix + "URL is not set.");
+                }
+                ConnectionPool pool = DatabaseManager.newPool(url,
+                        DatabaseManager.env(prefix + "USER", null), DatabaseManager.env(prefix + "PASSWORD", null));
+                pools.add(pool);
+                names.add(DatabaseManager.env(prefix + "NAME", "shard-" + i));
+                bootstrapShard(pool, i);
+            }
+        } catch (RuntimeException e) {
+            pools.subList(1, pools.size()).forEach(ConnectionPool::close);
+            throw e;
+        }
+        ShardRouter router = new ShardRouter(dbm, pools, names,
+                Integer.parseInt(DatabaseManager.env("SHARD_VIRTUAL_NODES", "128")),
+                new ShardDirectory(DatabaseManager.getPool()));
+        router.checkIdRanges();
+        logger.info("Routing tasks over " + count + " shards: " + String.join(", ", names) + ".");
+        return router;
+    }
+
+    static void bootstrapShard(ConnectionPool pool, int shard) {
+        try (Connection con = pool.borrow()) {
+            SchemaManager.bootstrapShard(con, shard * ID_SPAN);
+        } catch (SQLException e) {
+            throw new StorageException("Failed to bootstrap the schema of shard " + shard + ".", e);
+        }
+    }
+
+    // 64-bit FNV-1a followed by a finalizer, so neighbouring names and ids land far apart on the ring
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    // The shard the ring alone picks for the user
+    public int ringShardOf(int userId) {
+        long point = mix(userId);
+        int i = Arrays.binarySearch(ringPoints, point);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return ringShards[i == ringPoints.length ? 0 : i];
+    }
+
+    // The shard currently holding the user's tasks
+    public int shardOf(int userId) {
+        int placed = directory.get(userId);
+        return placed >= 0 ? placed : ringShardOf(userId);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public String getShardName(int shard) {
+        return names[shard];
+    }
+
+    ConnectionPool getPool(int shard) {
+        return shard == 0 ? DatabaseManager.getPool() : pools.get(shard);
+    }
+
+    public ShardDirectory getDirectory() {
+        return directory;
+    }
+
+    ReentrantReadWriteLock lockFor(int userId) {
+        return locks[(int) (mix(userId) & (LOCK_STRIPES - 1))];
+    }
+
+    // First id past the range of the shard
+    static long idLimit(int shard) {
+        return (long) (shard + 1) * ID_SPAN;
+    }
+
+    // Fails when a shard's ids have already run into the next shard's range, and warns well before
+    public void checkIdRanges() {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            int maxId;
+            try (Connection con = getPool(shard).borrow()) {
+                maxId = TaskQueries.maxTaskId(con);
+            } catch (SQLException e) {
+                SchemaManager.onError(e);
+                throw new StorageException("Failed to read the task ids of shard " + names[shard] + ".", e);
+            }
+            long limit = idLimit(shard);
+            if (maxId >= limit) {
+                throw new StorageException("Task ids of shard " + names[shard] + " reached " + maxId
+                        + ", past the end of its range at " + limit + ".");
+            }
+            if (maxId >= limit - ID_SPAN / 10) {
+                logger.warning("Shard " + names[shard] + " has used over 90% of its task id range (highest id "
+                        + maxId + ", range ends at " + limit + "); add a shard and move users off it.");
+            }
+        }
+    }
+
+    private void insert(User user, Collection<Task> tasks) {
+        Lock lock = lockFor(user.getId()).readLock();
+        lock.lock();
+        try {
+            int shard = shardOf(user.getId());
+            routed[shard].increment();
+            shards.get(shard).insertTasks(tasks, user);
+            requireIdsInRange(shard, tasks, user);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // AUTO_INCREMENT cannot be capped, so ids past the shard's range are caught once issued and their
+    // rows deleted again before they can collide with the next shard's tasks
+    private void requireIdsInRange(int shard, Collection<Task> tasks, User user) {
+        long limit = idLimit(shard);
+        int[] outside = tasks.stream().mapToInt(Task::getId).filter(id -> id >= limit).toArray();
+        if (outside.length == 0) {
+            return;
+        }
+        shards.get(shard).removeTasks(outside, user);
+        throw new StorageException("Shard " + names[shard] + " has run out of task ids (range ends at " + limit
+                + "); add a shard and move users off it.");
+    }
+
+    private <T> T route(User user, Function<TaskRepository, T> call) {
+        Lock lock = lockFor(user.getId()).readLock();
+        lock.lock();
+        try {
+            int shard = shardOf(user.getId());
+            routed[shard].increment();
+            return call.apply(shards.get(shard));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void insertTask(Task task, User user) {
+        insert(user, List.of(task));
+    }
+
+    @Override
+    public boolean removeTask(int taskId, User user) {
+        return route(user, shard -> shard.removeTask(taskId, user));
+    }
+
+    @Override
+    public void insertTasks(Collection<Task> tasks, User user) {
+        insert(user, tasks);
+    }
+
+    @Override
+    public int removeTasks(int[] taskIds, User user) {
+        return route(user, shard -> shard.removeTasks(taskIds, user));
+    }
+
+    @Override
+    public boolean setTaskStatus(int taskId, boolean status, User user) {
+        return route(user, shard -> shard.setTaskStatus(taskId, status, user));
+    }
+
+    @Override
+    public Map<Integer, Task> getAllTasks(User user) {
+        return route(user, shard -> shard.getAllTasks(user));
+    }
+
+    @Override
+    public Stream<Task> streamTasks(User user, int fetchSize) {
+        // Only opening the stream is guarded; a move while it is consumed ends it early, and the
+        // version reset done by the move makes the next sync a full one
+        return route(user, shard -> shard.streamTasks(user, fetchSize));
+    }
+
+    @Override
+    public List<Task> getTasksPage(User user, Task after, int limit) {
+        return route(user, shard -> shard.getTasksPage(user, after, limit));
+    }
+
+    @Override
+    public List<Task> findTasks(User user, TaskFilter filter) {
+        return route(user, shard -> shard.findTasks(user, filter));
+    }
+
+    @Override
+    public long getVersionStamp(User user) {
+        return route(user, shard -> shard.getVersionStamp(user));
+    }
+
+    @Override
+    public TaskChanges getTasksChangedSince(User user, long sinceVersion) {
+        return route(user, shard -> shard.getTasksChangedSince(user, sinceVersion));
+    }
+
+    @Override
+    public int forEachDueTask(int fromUserId, int toUserId, LocalDate dueBy, int fetchSize, ObjIntConsumer<Task> action) {
+        int rows = 0;
+        for (int s = 0; s < shards.size(); s++) {
+            int shard = s;
+            // Rows left behind by an interrupted move are not the user's tasks any more
+            rows += shards.get(s).forEachDueTask(fromUserId, toUserId, dueBy, fetchSize, (task, userId) -> {
+                if (shardOf(userId) == shard) {
+                    action.accept(task, userId);
+                }
+            });
+        }
+        return rows;
+    }
+
+    @Override
+    public int getMaxTaskOwnerId() {
+        int max = 0;
+        for (TaskRepository shard : shards) {
+            max = Math.max(max, shard.getMaxTaskOwnerId());
+        }
+        return max;
+    }
+
+    @Override
+    public TaskStats getTaskStats(User user) {
+        return route(user, shard -> shard.getTaskStats(user));
+    }
+
+    // Rows left behind by an interrupted move get summaries too; nothing reads them
+    @Override
+    public int rebuildTaskStats(int fromUserId, int toUserId) {
+        int users = 0;
+        for (TaskRepository shard : shards) {
+            users += shard.rebuildTaskStats(fromUserId, toUserId);
+        }
+        return users;
+    }
+
+    public int pruneTombstones(long retentionMillis) {
+        int pruned = 0;
+        for (JdbcTaskRepository shard : shards) {
+            pruned += shard.pruneTombstones(retentionMillis);
+        }
+        return pruned;
+    }
+
+    // Shard 0 is the primary pool, which DatabaseManager owns; the others are released here
+    @Override
+    public void close() {
+        for (int i = 1; i < pools.size(); i++) {
+            pools.get(i).close();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.aproject;
+
+public class StoredUser {
+
+    private final User user;
+    private final String passwordHash;
+
+    public StoredUser(User user, String passwordHash) {
+        this.user = user;
+        this.passwordHash = passwordHash;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public String getPasswordHash() {
+        return passwordHash;
+    }
+}
@@ -0,0 +1,231 @@
+package org.aproject;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class TaskCache {
+
+    private static final Logger logger = Logger.getLogger(TaskCache.class.getName());
+
+    private final TaskRepository repository;
+    private final int maxUsers;
+    private final long ttlMillis;
+    private final boolean validateVersion;
+    private final Map<Integer, Entry> entries;
+    private final CompactTaskStore store = new CompactTaskStore();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long staleReloads;
+
+    public TaskCache(TaskRepository repository, int maxUsers, long ttlMillis, boolean validateVersion) {
+        this.repository = repository;
+        this.maxUsers = maxUsers;
+        this.ttlMillis = ttlMillis;
+        this.validateVersion = validateVersion;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() > TaskCache.this.maxUsers) {
+                    store.removeUser(eldest.getKey());
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Map<Integer, Task> get(User user) {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(user.getId());
+            if (entry != null && now - entry.loadedAt > ttlMillis) {
+                entries.remove(user.getId());
+                store.removeUser(user.getId());
+                expirations++;
+                entry = null;
+            }
+        }
+
+        if (entry != null && validateVersion) {
+            long stamp = repository.getVersionStamp(user);
+            if (stamp != entry.versionStamp) {
+                synchronized (this) {
+                    staleReloads++;
+                }
+                entry = null;
+            }
+        }
+
+        if (entry != null) {
+            synchronized (this) {
+                if (entries.get(user.getId()) == entry) {
+                    hits++;
+                    return store.getTasks(user.getId());
+                }
+            }
+        }
+
+        // A snapshot from the change feed also tells which version the entry reflects
+        TaskChanges snapshot = repository.getTasksChangedSince(user, -1);
+        Map<Integer, Task> loaded = new LinkedHashMap<>();
+        for (Task task : snapshot.getUpserts()) {
+            loaded.put(task.getId(), task);
+        }
+        synchronized (this) {
+            misses++;
+            store.removeUser(user.getId());
+            store.putAll(user.getId(), loaded.values());
+            entries.put(user.getId(), new Entry(now, snapshot.getVersion()));
+        }
+        return loaded;
+    }
+
+    // Change-feed position of the cached tasks, -1 if the user is not cached
+    public synchronized long getVersion(User user) {
+        Entry entry = entries.get(user.getId());
+        return entry == null ? -1 : entry.version;
+    }
+
+    // Applies a change-feed result the caller fetched since sinceVersion; deltas that start after the
+    // entry's own position would leave a gap and are ignored
+    public synchronized void apply(User user, long sinceVersion, TaskChanges changes) {
+        Entry entry = entries.get(user.getId());
+        if (changes.isFullResync()) {
+            store.removeUser(user.getId());
+            store.putAll(user.getId(), changes.getUpserts());
+            entries.put(user.getId(), new Entry(System.currentTimeMillis(), changes.getVersion()));
+            return;
+        }
+        if (entry == null || entry.version < sinceVersion || entry.version > changes.getVersion()) {
+            return;
+        }
+        store.putAll(user.getId(), changes.getUpserts());
+        for (int taskId : changes.getRemovedIds()) {
+            store.remove(taskId);
+        }
+        entry.version = changes.getVersion();
+        entry.versionStamp = changes.getVersion();
+    }
+
+    public void onInsert(User user, Task task) {
+        synchronized (this) {
+            Entry entry = entries.get(user.getId());
+            if (entry != null) {
+                store.put(user.getId(), task);
+            }
+        }
+        refreshStamp(user);
+    }
+
+    public void onInsert(User user, Collection<Task> tasks) {
+        synchronized (this) {
+            Entry entry = entries.get(user.getId());
+            if (entry != null) {
+                store.putAll(user.getId(), tasks);
+            }
+        }
+        refreshStamp(user);
+    }
+
+    public void onRemove(User user, int... taskIds) {
+        synchronized (this) {
+            Entry entry = entries.get(user.getId());
+            if (entry != null) {
+                for (int taskId : taskIds) {
+                    store.remove(taskId);
+                }
+            }
+        }
+        refreshStamp(user);
+    }
+
+    public synchronized void invalidate(User user) {
+        entries.remove(user.getId());
+        store.removeUser(user.getId());
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        store.clear();
+    }
+
+    private void refreshStamp(User user) {
+        if (!validateVersion) {
+            return;
+        }
+        try {
+            long stamp = repository.getVersionStamp(user);
+            synchronized (this) {
+                Entry entry = entries.get(user.getId());
+                if (entry != null) {
+                    entry.versionStamp = stamp;
+                }
+            }
+        } catch (StorageException e) {
+            logger.log(Level.WARNING, "Failed to refresh task cache version stamp; dropping entry.", e);
+            invalidate(user);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getEstimatedBytes() {
+        return store.estimatedBytes();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    public synchronized long getStaleReloads() {
+        return staleReloads;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TaskCache{" +
+                "users=" + entries.size() +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", expirations=" + expirations +
+                ", staleReloads=" + staleReloads +
+                '}';
+    }
+
+    // Task data lives in the shared columnar store; an entry only tracks freshness
+    private static final class Entry {
+        private final long loadedAt;
+        private long versionStamp;
+        // Lower bound of the change-feed position; local writes are applied without moving it
+        private long version;
+
+        private Entry(long loadedAt, long version) {
+            this.loadedAt = loadedAt;
+            this.versionStamp = version;
+            this.version = version;
+        }
+    }
+}
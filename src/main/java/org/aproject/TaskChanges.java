@@ -0,0 +1,50 @@
+package org.aproject;
+
+import java.util.List;
+
+public class TaskChanges {
+
+    private final long version;
+    private final boolean fullResync;
+    private final List<Task> upserts;
+    private final int[] removedIds;
+
+    public TaskChanges(long version, boolean fullResync, List<Task> upserts, int[] removedIds) {
+        this.version = version;
+        this.fullResync = fullResync;
+        this.upserts = upserts;
+        this.removedIds = removedIds;
+    }
+
+    // Pass this back as the next sinceVersion
+    public long getVersion() {
+        return version;
+    }
+
+    // When true, upserts hold the complete task list and anything else the caller has must be dropped
+    public boolean isFullResync() {
+        return fullResync;
+    }
+
+    public List<Task> getUpserts() {
+        return upserts;
+    }
+
+    public int[] getRemovedIds() {
+        return removedIds;
+    }
+
+    public boolean isEmpty() {
+        return !fullResync && upserts.isEmpty() && removedIds.length == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskChanges{" +
+                "version=" + version +
+                ", fullResync=" + fullResync +
+                ", upserts=" + upserts.size() +
+                ", removed=" + removedIds.length +
+                '}';
+    }
+}
@@ -0,0 +1,42 @@
+package org.aproject;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+public enum TaskFilter {
+
+    OVERDUE,
+    DUE_THIS_WEEK,
+    INCOMPLETE;
+
+    public LocalDate rangeStart(LocalDate today) {
+        return this == DUE_THIS_WEEK ? today : null;
+    }
+
+    public LocalDate rangeEnd(LocalDate today) {
+        switch (this) {
+            case OVERDUE:
+                return today.minusDays(1);
+            case DUE_THIS_WEEK:
+                return today.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY));
+            default:
+                return null;
+        }
+    }
+
+    public boolean matches(Task task, LocalDate today) {
+        if (task.isStatus()) {
+            return false;
+        }
+        LocalDate start = rangeStart(today);
+        LocalDate end = rangeEnd(today);
+        LocalDate endDate = task.getEnd_Date();
+        if (start == null && end == null) {
+            return true;
+        }
+        return endDate != null
+                && (start == null || !endDate.isBefore(start))
+                && (end == null || !endDate.isAfter(end));
+    }
+}
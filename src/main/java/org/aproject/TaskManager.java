@@ -1,27 +1,81 @@
 package org.aproject;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.InputMismatchException;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 public class TaskManager {
 
-    private static final Map<Integer, Task> tasks = new LinkedHashMap<>();
-
-    private static int task_id = 0;
-    private static final DatabaseManager dbm = new DatabaseManager();
     private static final Logger logger = Logger.getLogger(TaskManager.class.getName());
+    private static final int LOCK_STRIPES = 64;
+    private static final DateTimeFormatter INPUT_DATE = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+    private static final DateTimeFormatter DISPLAY_DATE = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    private static final Metrics.Timer CREATE_TASK = Metrics.timer("tasks_create");
+    private static final Metrics.Timer REMOVE_TASK = Metrics.timer("tasks_remove");
+    private static final Metrics.Timer CREATE_TASKS = Metrics.timer("tasks_create_batch");
+    private static final Metrics.Timer REMOVE_TASKS = Metrics.timer("tasks_remove_batch");
+    private static final Metrics.Timer SET_STATUS = Metrics.timer("tasks_set_status");
+    private static final Metrics.Timer LOAD_TASKS = Metrics.timer("tasks_load");
+    private static final Metrics.Timer SHOW_TASKS = Metrics.timer("tasks_show");
+    private static final Metrics.Counter FULL_SYNCS = Metrics.counter("tasks_sync_full_total");
+    private static final Metrics.Counter DELTA_ROWS = Metrics.counter("tasks_sync_delta_rows_total");
+    private static final Metrics.Counter SKIPPED_SYNCS = Metrics.counter("tasks_sync_skipped_total");
+
+    private final TaskRepository repository;
+    private final TaskCache cache;
+    private final TaskTransfer transfer;
+    private final TaskSearchIndex searchIndex;
+    private final int fetchSize = Integer.parseInt(DatabaseManager.env("TASK_FETCH_SIZE", "500"));
+    // Sessions nobody signs out of, such as Basic-auth API callers, are dropped after this long unused
+    private final long sessionIdleMillis = Long.parseLong(DatabaseManager.env("TASK_SESSION_IDLE_MS", "1800000"));
+    private final AtomicLong nextIdleSweep = new AtomicLong();
+    // Writes made through this manager reach the session at once; this only bounds how stale other writers' changes get
+    private final long syncIntervalMillis = Long.parseLong(DatabaseManager.env("TASK_SYNC_INTERVAL_MS", "10000"));
+    private final ConcurrentMap<Integer, UserTasks> sessions = new ConcurrentHashMap<>();
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    public TaskManager() {
+        this(new JdbcTaskRepository(new DatabaseManager()));
+    }
 
-    public int insertInt(Scanner scanner) {
+    public TaskManager(TaskRepository repository) {
+        this(repository, new TaskCache(repository,
+                Integer.parseInt(DatabaseManager.env("TASK_CACHE_MAX_USERS", "1000")),
+                Long.parseLong(DatabaseManager.env("TASK_CACHE_TTL_MS", "300000")),
+                Boolean.parseBoolean(DatabaseManager.env("TASK_CACHE_VALIDATE", "false"))));
+    }
+
+    public TaskManager(TaskRepository repository, TaskCache cache) {
+        this.repository = repository;
+        this.cache = cache;
+        this.transfer = TaskTransfer.fromEnv(repository);
+        this.searchIndex = TaskSearchIndex.fromEnv(repository);
+        Metrics.gauge("task_cache_hits_total", cache::getHits);
+        Metrics.gauge("task_cache_misses_total", cache::getMisses);
+        Metrics.gauge("task_cache_evictions_total", cache::getEvictions);
+        Metrics.gauge("task_cache_bytes", cache::getEstimatedBytes);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public static int insertInt(Scanner scanner) {
         int num = 0;
         boolean valido = false;
 
@@ -38,103 +92,512 @@ public class TaskManager {
         return num;
     }
 
-    public void createTask(Connection con, User user, String name, String description, String date) {
-        LocalDate finalDate = LocalDate.parse(date, DateTimeFormatter.ofPattern("yyyy/MM/dd"));
-
-        task_id++;
-        Task newTask = new Task(task_id, name, description, finalDate, false);
-        tasks.put(task_id, newTask);
+    public Task createTask(User user, String name, String description, String date) {
+        return createTask(user, name, description, LocalDate.parse(date, INPUT_DATE));
+    }
 
+    public Task createTask(User user, String name, String description, LocalDate endDate) {
+        long start = System.nanoTime();
         try {
-            dbm.insertTaskIntoDB(con, newTask, user);
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error trying to insert new task in the database", e);
-            throw new RuntimeException(e);
+            Task newTask = new Task(0, name, description, endDate, false);
+
+            ReentrantLock lock = lockFor(user);
+            lock.lock();
+            try {
+                UserTasks state = stateFor(user);
+                try {
+                    repository.insertTask(newTask, user);
+                    cache.onInsert(user, newTask);
+                } catch (StorageException e) {
+                    logger.log(Level.SEVERE, "Error trying to insert new task in the database", e);
+                    throw new RuntimeException(e);
+                }
+                state.put(newTask);
+                searchIndex.add(user, newTask);
+                return newTask;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            CREATE_TASK.recordSince(start);
         }
     }
 
-    public void removeTask(Connection con, User user, int id) {
-        Task taskToRemove = tasks.get(id);
+    public boolean removeTask(User user, int id) {
+        long start = System.nanoTime();
+        try {
+            ReentrantLock lock = lockFor(user);
+            lock.lock();
+            try {
+                UserTasks state = stateFor(user);
+                if (!state.tasks.containsKey(id)) {
+                    System.out.println("ID not found.");
+                    return false;
+                }
 
-        if (taskToRemove == null) {
-            System.out.println("ID not found.");
-            return;
+                boolean removed;
+                try {
+                    removed = repository.removeTask(id, user);
+                    cache.onRemove(user, id);
+                } catch (StorageException e) {
+                    logger.log(Level.SEVERE, "Error trying to remove the task from the database", e);
+                    throw new RuntimeException(e);
+                }
+                // Gone either way: when nothing was deleted, another client removed it first
+                state.remove(id);
+                searchIndex.remove(user, id);
+                if (!removed) {
+                    System.out.println("ID not found.");
+                }
+                return removed;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            REMOVE_TASK.recordSince(start);
         }
+    }
 
-        tasks.remove(id);
-        task_id--;
+    public void createTasks(User user, Collection<Task> newTasks) {
+        long start = System.nanoTime();
+        try {
+            ReentrantLock lock = lockFor(user);
+            lock.lock();
+            try {
+                UserTasks state = stateFor(user);
+                try {
+                    repository.insertTasks(newTasks, user);
+                    cache.onInsert(user, newTasks);
+                } catch (StorageException e) {
+                    logger.log(Level.SEVERE, "Error trying to insert new tasks in the database", e);
+                    throw new RuntimeException(e);
+                }
+                for (Task newTask : newTasks) {
+                    state.put(newTask);
+                }
+                searchIndex.add(user, newTasks);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            CREATE_TASKS.recordSince(start);
+        }
+    }
 
-        Map<Integer, Task> tempMap = new LinkedHashMap<>();
+    // Returns how many of the tasks were removed by this call
+    public int removeTasks(User user, int... ids) {
+        long start = System.nanoTime();
+        try {
+            ReentrantLock lock = lockFor(user);
+            lock.lock();
+            try {
+                UserTasks state = stateFor(user);
+                int[] owned = Arrays.stream(ids).filter(state.tasks::containsKey).distinct().toArray();
+                if (owned.length == 0) {
+                    System.out.println("ID not found.");
+                    return 0;
+                }
 
-        int newId = 1;
-        for (Task t : tasks.values()) {
-            tempMap.put(newId++, t);
+                int removed;
+                try {
+                    removed = repository.removeTasks(owned, user);
+                    cache.onRemove(user, owned);
+                } catch (StorageException e) {
+                    logger.log(Level.SEVERE, "Error trying to remove the tasks from the database", e);
+                    throw new RuntimeException(e);
+                }
+                for (int id : owned) {
+                    state.remove(id);
+                }
+                searchIndex.remove(user, owned);
+                return removed;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            REMOVE_TASKS.recordSince(start);
         }
+    }
 
-        tasks.clear();
-        tasks.putAll(tempMap);
+    public boolean setTaskStatus(User user, int id, boolean status) {
+        long start = System.nanoTime();
+        try {
+            ReentrantLock lock = lockFor(user);
+            lock.lock();
+            try {
+                UserTasks state = stateFor(user);
+                Task task = state.tasks.get(id);
+                if (task == null) {
+                    System.out.println("ID not found.");
+                    return false;
+                }
+                if (task.isStatus() == status) {
+                    return true;
+                }
 
+                Task updated = new Task(id, task.getName(), task.getDescription(), task.getEnd_Date(), status);
+                try {
+                    repository.setTaskStatus(id, status, user);
+                    cache.onInsert(user, updated);
+                } catch (StorageException e) {
+                    logger.log(Level.SEVERE, "Error trying to update the task status in the database", e);
+                    throw new RuntimeException(e);
+                }
+                state.put(updated);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            SET_STATUS.recordSince(start);
+        }
+    }
+
+    // Read from the stored summary, so it costs the same however many tasks the user has
+    public TaskStats getTaskStats(User user) {
+        return repository.getTaskStats(user);
+    }
+
+    public void showStats(User user) {
         try {
-            dbm.removeTaskFromDB(con, id, user);
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error trying to remove the task from the database", e);
-            throw new RuntimeException(e);
+            TaskStats stats = getTaskStats(user);
+            System.out.println("Open: " + stats.getOpen() + " - Completed: " + stats.getCompleted()
+                    + " - Overdue: " + stats.getOverdue() + " - Next deadline: "
+                    + (stats.getNextDeadline() == null ? "none" : stats.getNextDeadline().format(DISPLAY_DATE)));
+        } catch (StorageException e) {
+            logger.log(Level.SEVERE, "Error while showing the task summary", e);
+            throw e;
         }
     }
 
-    public void print() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    public int resolveOrdinal(User user, int ordinal) {
+        ReentrantLock lock = lockFor(user);
+        lock.lock();
+        try {
+            int[] ids = stateFor(user).ordinals();
+            return ordinal >= 1 && ordinal <= ids.length ? ids[ordinal - 1] : -1;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        for (Map.Entry<Integer, Task> entry : tasks.entrySet()) {
-            System.out.print("ID: " + entry.getKey() + " - Name: " + entry.getValue().getName() + " - Description: " + entry.getValue().getDescription());
-            String formattedDate = entry.getValue().getEnd_Date().format(formatter);
+    public void print(User user) {
+        int ordinal = 1;
+        for (Map.Entry<Integer, Task> entry : getTasks(user).entrySet()) {
+            System.out.print("#" + ordinal++ + " - ID: " + entry.getKey() + " - Name: " + entry.getValue().getName() + " - Description: " + entry.getValue().getDescription());
+            String formattedDate = entry.getValue().getEnd_Date().format(DISPLAY_DATE);
             System.out.println(" - Completed: " + entry.getValue().isStatus() + " - Date: " + formattedDate);
         }
     }
 
-    public void loadTasksFromDB(Connection con, User user) {
+    public void loadTasksFromDB(User user) {
+        long start = System.nanoTime();
         try {
-            Map<Integer, Task> tasksFromDB = dbm.getAllTasks(con, user);
-            tasks.clear();
-            tasks.putAll(tasksFromDB);
-            task_id = tasksFromDB.size();
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error trying to load tasks from the database", e);
-            throw new RuntimeException(e);
+            ReentrantLock lock = lockFor(user);
+            lock.lock();
+            try {
+                // Only rows changed since the last sync, or since the cached copy a new session starts from, are fetched
+                UserTasks state = stateFor(user);
+                long since = state.version;
+                TaskChanges changes = repository.getTasksChangedSince(user, since);
+                if (changes.isFullResync()) {
+                    FULL_SYNCS.increment();
+                } else {
+                    DELTA_ROWS.add(changes.getUpserts().size() + changes.getRemovedIds().length);
+                }
+                state.apply(changes);
+                state.syncedAt = System.currentTimeMillis();
+                cache.apply(user, since, changes);
+                searchIndex.apply(user, since, changes);
+            } catch (StorageException e) {
+                logger.log(Level.SEVERE, "Error trying to load tasks from the database", e);
+                throw new RuntimeException(e);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            LOAD_TASKS.recordSince(start);
+        }
+    }
+
+    // Syncs only when the session was last synced more than TASK_SYNC_INTERVAL_MS ago, so repeated
+    // views of a list read nothing from the database
+    public void refreshTasks(User user) {
+        refreshTasks(user, syncIntervalMillis);
+    }
+
+    // Returns whether the change feed was read
+    public boolean refreshTasks(User user, long maxAgeMillis) {
+        ReentrantLock lock = lockFor(user);
+        lock.lock();
+        try {
+            if (System.currentTimeMillis() - stateFor(user).syncedAt < maxAgeMillis) {
+                SKIPPED_SYNCS.increment();
+                return false;
+            }
+            loadTasksFromDB(user);
+            return true;
+        } finally {
+            lock.unlock();
         }
     }
 
-    public void showTasks(Connection con, int user_id) throws SQLException {
-        String sqlShow = "SELECT id, name, description, end_date, status FROM tasks WHERE user_id = ?";
+    // Printed from the session, which the menu loop refreshes before every choice
+    public void showTasks(User user) {
+        long start = System.nanoTime();
+        try {
+            try {
+                getTasks(user).values().forEach(TaskManager::printTask);
+            } catch (StorageException e) {
+                logger.log(Level.SEVERE, "Error while showing tasks", e);
+                throw e;
+            }
+        } finally {
+            SHOW_TASKS.recordSince(start);
+        }
+    }
 
-        try (PreparedStatement pstmtShow = con.prepareStatement(sqlShow)) {
-            pstmtShow.setInt(1, user_id);
-            ResultSet rs = pstmtShow.executeQuery();
+    public Stream<Task> streamTasks(User user) {
+        return repository.streamTasks(user, fetchSize);
+    }
 
-            while (rs.next()) {
-                Task retrievedTask = new Task(
-                        rs.getInt("id"),
-                        rs.getString("name"),
-                        rs.getString("description"),
-                        rs.getDate("end_date").toLocalDate(),
-                        rs.getBoolean("status")
-                );
+    public TaskTransfer.Result exportTasks(User user, Path file) {
+        return transfer.exportTasks(user, file, TaskTransfer.Format.forPath(file));
+    }
 
-                System.out.println("ID: " + retrievedTask.getId() +
-                        " - Name: " + retrievedTask.getName() +
-                        " - Description: " + retrievedTask.getDescription() +
-                        " - Completed: " + retrievedTask.isStatus() +
-                        " - Date: " + retrievedTask.getEnd_Date());
+    public TaskTransfer.Result importTasks(User user, Path file) {
+        try {
+            return transfer.importTasks(user, file, TaskTransfer.Format.forPath(file));
+        } finally {
+            // Imported rows bypass the session and cache, including the ones written before a failure
+            cache.invalidate(user);
+            searchIndex.invalidate(user);
+            closeSession(user);
+        }
+    }
 
+    public List<Task> searchTasks(User user, String query, int limit) {
+        int[] ids = searchIndex.search(user, query, limit);
+        List<Task> found = new ArrayList<>(ids.length);
+        ReentrantLock lock = lockFor(user);
+        lock.lock();
+        try {
+            UserTasks state = stateFor(user);
+            for (int id : ids) {
+                Task task = state.tasks.get(id);
+                if (task != null) {
+                    found.add(task);
+                }
             }
-        } catch (SQLException e) {
+        } finally {
+            lock.unlock();
+        }
+        return found;
+    }
+
+    public void showSearch(User user, String query) {
+        List<Task> found = searchTasks(user, query, 20);
+        if (found.isEmpty()) {
+            System.out.println("No tasks match \"" + query + "\".");
+            return;
+        }
+        found.forEach(TaskManager::printTask);
+    }
+
+    public TaskSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    public TaskChanges getTasksChangedSince(User user, long sinceVersion) {
+        return repository.getTasksChangedSince(user, sinceVersion);
+    }
+
+    public List<Task> getTasksPage(User user, Task after, int limit) {
+        return repository.getTasksPage(user, after, limit);
+    }
+
+    public List<Task> findTasks(User user, TaskFilter filter) {
+        return repository.findTasks(user, filter);
+    }
+
+    public void showTasks(User user, TaskFilter filter) {
+        try {
+            findTasks(user, filter).forEach(TaskManager::printTask);
+        } catch (StorageException e) {
             logger.log(Level.SEVERE, "Error while showing tasks", e);
             throw e;
         }
     }
 
-    public static Map<Integer, Task> getTask() {
-        return tasks;
+    private static void printTask(Task task) {
+        System.out.println("ID: " + task.getId() +
+                " - Name: " + task.getName() +
+                " - Description: " + task.getDescription() +
+                " - Completed: " + task.isStatus() +
+                " - Date: " + task.getEnd_Date());
+    }
+
+    public Map<Integer, Task> getTasks(User user) {
+        ReentrantLock lock = lockFor(user);
+        lock.lock();
+        try {
+            return new LinkedHashMap<>(stateFor(user).tasks);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void closeSession(User user) {
+        ReentrantLock lock = lockFor(user);
+        lock.lock();
+        try {
+            release(user);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Closes the sessions unused for longer than idleMillis; a user busy on another thread is skipped
+    public int evictIdleSessions(long idleMillis) {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        int evicted = 0;
+        for (Map.Entry<Integer, UserTasks> entry : sessions.entrySet()) {
+            if (entry.getValue().lastUsed > cutoff) {
+                continue;
+            }
+            User user = new User(entry.getKey(), null, null);
+            ReentrantLock lock = lockFor(user);
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                UserTasks state = sessions.get(user.getId());
+                if (state != null && state.lastUsed <= cutoff) {
+                    release(user);
+                    evicted++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return evicted;
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    // Must be called with the user's stripe lock held
+    private void release(User user) {
+        sessions.remove(user.getId());
+        // The cache and the search index may still hold ids the repository is about to forget
+        if (repository.release(user)) {
+            cache.invalidate(user);
+            searchIndex.invalidate(user);
+        }
     }
 
+    // A shard move gives the user's tasks new ids, so every copy keyed on the old ones is dropped
+    public void onUserMoved(int userId) {
+        User user = new User(userId, null, null);
+        ReentrantLock lock = lockFor(user);
+        lock.lock();
+        try {
+            sessions.remove(userId);
+            repository.release(user);
+            cache.invalidate(user);
+            searchIndex.invalidate(user);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public TaskCache getCache() {
+        return cache;
+    }
+
+    public TaskRepository getRepository() {
+        return repository;
+    }
+
+    private ReentrantLock lockFor(User user) {
+        int h = user.getId() * 0x9E3779B9;
+        return locks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    // Must be called with the user's stripe lock held
+    private UserTasks stateFor(User user) {
+        long now = System.currentTimeMillis();
+        UserTasks state = sessions.get(user.getId());
+        if (state == null) {
+            // Only new sessions grow the map, so this is where idle ones are swept, at most once per interval
+            long due = nextIdleSweep.get();
+            if (now >= due && nextIdleSweep.compareAndSet(due, now + Math.max(1000, sessionIdleMillis / 4))) {
+                evictIdleSessions(sessionIdleMillis);
+            }
+            Map<Integer, Task> tasksFromDB = cache.get(user);
+            state = new UserTasks();
+            state.reset(tasksFromDB);
+            state.version = cache.getVersion(user);
+            sessions.put(user.getId(), state);
+        }
+        state.lastUsed = now;
+        return state;
+    }
+
+    // Active users keep a plain map for ordinals and in-place edits; only the cache behind it is columnar
+    private static final class UserTasks {
+        private final Map<Integer, Task> tasks = new LinkedHashMap<>();
+        private int[] ordinals;
+        // Change-feed position; -1 forces a full snapshot on the next sync
+        private long version = -1;
+        private volatile long lastUsed;
+        private long syncedAt;
+
+        private void put(Task task) {
+            tasks.put(task.getId(), task);
+            ordinals = null;
+        }
+
+        private void remove(int id) {
+            if (tasks.remove(id) != null) {
+                ordinals = null;
+            }
+        }
+
+        private void reset(Map<Integer, Task> loaded) {
+            tasks.clear();
+            tasks.putAll(loaded);
+            ordinals = null;
+        }
+
+        private void apply(TaskChanges changes) {
+            if (changes.isFullResync()) {
+                tasks.clear();
+            }
+            for (Task task : changes.getUpserts()) {
+                tasks.put(task.getId(), task);
+            }
+            for (int id : changes.getRemovedIds()) {
+                tasks.remove(id);
+            }
+            if (!changes.isEmpty()) {
+                ordinals = null;
+            }
+            version = changes.getVersion();
+        }
+
+        // Display numbers are only needed when the user picks a task, so they are rebuilt lazily
+        private int[] ordinals() {
+            if (ordinals == null) {
+                int[] ids = new int[tasks.size()];
+                int i = 0;
+                for (int id : tasks.keySet()) {
+                    ids[i++] = id;
+                }
+                ordinals = ids;
+            }
+            return ordinals;
+        }
+    }
 }
@@ -0,0 +1,341 @@
+package org.aproject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+public class TaskQueries {
+
+    // Every filter is an equality on (user_id, status) plus an optional range on end_date,
+    // so all of them are served by idx_tasks_user_status_end without a sort.
+    private static final String SELECT_INCOMPLETE = "SELECT id, name, description, end_date, status FROM tasks "
+            + "WHERE user_id = ? AND status = FALSE ORDER BY end_date, id";
+    private static final String SELECT_BEFORE = "SELECT id, name, description, end_date, status FROM tasks "
+            + "WHERE user_id = ? AND status = FALSE AND end_date <= ? ORDER BY end_date, id";
+    private static final String SELECT_BETWEEN = "SELECT id, name, description, end_date, status FROM tasks "
+            + "WHERE user_id = ? AND status = FALSE AND end_date BETWEEN ? AND ? ORDER BY end_date, id";
+    // A range on the leading user_id column; status and end_date are then checked inside the same index
+    static final String SELECT_DUE_IN_RANGE = "SELECT user_id, id, name, description, end_date, status FROM tasks "
+            + "WHERE user_id BETWEEN ? AND ? AND status = FALSE AND end_date <= ?";
+    private static final String INSERT_COPY = "INSERT INTO tasks (user_id, name, description, end_date, status, version) "
+            + "VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String[] DELETE_USER = {
+            "DELETE FROM tasks WHERE user_id = ?",
+            "DELETE FROM task_tombstones WHERE user_id = ?",
+            "DELETE FROM task_versions WHERE user_id = ?",
+            "DELETE FROM task_stats WHERE user_id = ?",
+            "DELETE FROM task_stats_due WHERE user_id = ?"
+    };
+
+    static final String BACKFILL_STATS = "INSERT INTO task_stats (user_id, open_count, completed_count) "
+            + "SELECT user_id, SUM(CASE WHEN status THEN 0 ELSE 1 END), SUM(CASE WHEN status THEN 1 ELSE 0 END) "
+            + "FROM tasks";
+    static final String BACKFILL_STATS_DUE = "INSERT INTO task_stats_due (user_id, end_date, open_count) "
+            + "SELECT user_id, end_date, COUNT(*) FROM tasks WHERE status = FALSE AND end_date IS NOT NULL";
+    private static final String USER_RANGE = " WHERE user_id BETWEEN ? AND ?";
+
+    private TaskQueries() {
+    }
+
+    public static List<Task> findTasks(Connection connection, User user, TaskFilter filter, LocalDate today) throws SQLException {
+        LocalDate start = filter.rangeStart(today);
+        LocalDate end = filter.rangeEnd(today);
+
+        List<Task> tasks = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(selectFor(filter, today))) {
+            int i = 1;
+            pstmt.setInt(i++, user.getId());
+            if (start != null) {
+                pstmt.setDate(i++, java.sql.Date.valueOf(start));
+            }
+            if (end != null) {
+                pstmt.setDate(i, java.sql.Date.valueOf(end));
+            }
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    tasks.add(DatabaseManager.readTask(rs));
+                }
+            }
+        }
+        return tasks;
+    }
+
+    static String selectFor(TaskFilter filter, LocalDate today) {
+        return filter.rangeStart(today) != null ? SELECT_BETWEEN
+                : filter.rangeEnd(today) != null ? SELECT_BEFORE : SELECT_INCOMPLETE;
+    }
+
+    public static int forEachDueTask(Connection connection, int fromUserId, int toUserId, LocalDate dueBy,
+                                     int fetchSize, ObjIntConsumer<Task> action) throws SQLException {
+        int rows = 0;
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_DUE_IN_RANGE,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(fetchSize);
+            pstmt.setInt(1, fromUserId);
+            pstmt.setInt(2, toUserId);
+            pstmt.setDate(3, java.sql.Date.valueOf(dueBy));
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(DatabaseManager.readTask(rs), rs.getInt("user_id"));
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    public static int maxTaskId(Connection connection) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT MAX(id) FROM tasks");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    public static int maxTaskOwnerId(Connection connection) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT MAX(user_id) FROM tasks");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // Every user with at least one task row in this database, in id order
+    public static int[] taskOwners(Connection connection) throws SQLException {
+        List<Integer> owners = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT DISTINCT user_id FROM tasks ORDER BY user_id");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                owners.add(rs.getInt(1));
+            }
+        }
+        return owners.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // The user's task version, or -1 when this database has never stored a task for them
+    public static long taskVersion(Connection connection, int userId) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT version FROM task_versions WHERE user_id = ?")) {
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        }
+    }
+
+    // Inserts the user's tasks from one database into another under new ids, all stamped with version.
+    // Runs in the caller's transaction on the target.
+    public static int copyUserTasks(Connection from, Connection to, int userId, long version,
+                                    int fetchSize, int batchSize) throws SQLException {
+        int rows = 0;
+        try (PreparedStatement select = from.prepareStatement(
+                "SELECT id, name, description, end_date, status FROM tasks WHERE user_id = ?",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+             PreparedStatement insert = to.prepareStatement(INSERT_COPY)) {
+            select.setFetchSize(fetchSize);
+            select.setInt(1, userId);
+            int pending = 0;
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    insert.setInt(1, userId);
+                    insert.setString(2, rs.getString("name"));
+                    insert.setString(3, rs.getString("description"));
+                    insert.setDate(4, rs.getDate("end_date"));
+                    insert.setBoolean(5, rs.getBoolean("status"));
+                    insert.setLong(6, version);
+                    insert.addBatch();
+                    rows++;
+                    if (++pending == batchSize) {
+                        insert.executeBatch();
+                        pending = 0;
+                    }
+                }
+            }
+            if (pending > 0) {
+                insert.executeBatch();
+            }
+        }
+        return rows;
+    }
+
+    // Sets both the version and the tombstone floor, so every client that synced before gets a full snapshot.
+    // Runs in the caller's transaction.
+    public static void resetTaskVersion(Connection connection, int userId, long version) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE task_versions SET version = ?, tombstone_floor = ? WHERE user_id = ?")) {
+            update.setLong(1, version);
+            update.setLong(2, version);
+            update.setInt(3, userId);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO task_versions (user_id, version, tombstone_floor) VALUES (?, ?, ?)")) {
+            insert.setInt(1, userId);
+            insert.setLong(2, version);
+            insert.setLong(3, version);
+            insert.executeUpdate();
+        }
+    }
+
+    // Removes every trace of the user's tasks. Runs in the caller's transaction.
+    public static int deleteUserTasks(Connection connection, int userId) throws SQLException {
+        int rows = 0;
+        for (int i = 0; i < DELETE_USER.length; i++) {
+            try (PreparedStatement pstmt = connection.prepareStatement(DELETE_USER[i])) {
+                pstmt.setInt(1, userId);
+                int deleted = pstmt.executeUpdate();
+                if (i == 0) {
+                    rows = deleted;
+                }
+            }
+        }
+        return rows;
+    }
+
+    // Runs in the caller's write transaction, after the user's task_versions row is locked
+    public static void adjustTaskStats(Connection connection, int userId, int openDelta, int completedDelta) throws SQLException {
+        if (openDelta == 0 && completedDelta == 0) {
+            return;
+        }
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE task_stats SET open_count = open_count + ?, completed_count = completed_count + ? WHERE user_id = ?")) {
+            update.setInt(1, openDelta);
+            update.setInt(2, completedDelta);
+            update.setInt(3, userId);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO task_stats (user_id, open_count, completed_count) VALUES (?, ?, ?)")) {
+            insert.setInt(1, userId);
+            insert.setInt(2, openDelta);
+            insert.setInt(3, completedDelta);
+            insert.executeUpdate();
+        }
+    }
+
+    // Changes the number of open tasks due on endDate; days that reach zero are dropped to keep the table small
+    public static void adjustDueCount(Connection connection, int userId, LocalDate endDate, int delta) throws SQLException {
+        if (endDate == null || delta == 0) {
+            return;
+        }
+        java.sql.Date date = java.sql.Date.valueOf(endDate);
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE task_stats_due SET open_count = open_count + ? WHERE user_id = ? AND end_date = ?")) {
+            update.setInt(1, delta);
+            update.setInt(2, userId);
+            update.setDate(3, date);
+            if (update.executeUpdate() == 0) {
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO task_stats_due (user_id, end_date, open_count) VALUES (?, ?, ?)")) {
+                    insert.setInt(1, userId);
+                    insert.setDate(2, date);
+                    insert.setInt(3, delta);
+                    insert.executeUpdate();
+                }
+            }
+        }
+        if (delta < 0) {
+            try (PreparedStatement prune = connection.prepareStatement(
+                    "DELETE FROM task_stats_due WHERE user_id = ? AND end_date = ? AND open_count <= 0")) {
+                prune.setInt(1, userId);
+                prune.setDate(2, date);
+                prune.executeUpdate();
+            }
+        }
+    }
+
+    // Two primary key lookups and two range reads on (user_id, end_date); never touches the tasks table
+    public static TaskStats readTaskStats(Connection connection, int userId, LocalDate today) throws SQLException {
+        int open = 0;
+        int completed = 0;
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT open_count, completed_count FROM task_stats WHERE user_id = ?")) {
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    open = rs.getInt(1);
+                    completed = rs.getInt(2);
+                }
+            }
+        }
+        int overdue = 0;
+        LocalDate nextDeadline = null;
+        if (open > 0) {
+            java.sql.Date date = java.sql.Date.valueOf(today);
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "SELECT COALESCE(SUM(open_count), 0) FROM task_stats_due WHERE user_id = ? AND end_date < ?")) {
+                pstmt.setInt(1, userId);
+                pstmt.setDate(2, date);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    overdue = rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "SELECT MIN(end_date) FROM task_stats_due WHERE user_id = ? AND end_date >= ?")) {
+                pstmt.setInt(1, userId);
+                pstmt.setDate(2, date);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    java.sql.Date next = rs.next() ? rs.getDate(1) : null;
+                    nextDeadline = next == null ? null : next.toLocalDate();
+                }
+            }
+        }
+        return new TaskStats(open, completed, overdue, nextDeadline);
+    }
+
+    // Rebuilds the summaries of users in [fromUserId, toUserId] in one transaction, locking their
+    // task_versions rows first like every task write does, so their writes wait rather than interleave
+    public static int rebuildTaskStats(Connection connection, int fromUserId, int toUserId) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement lock = connection.prepareStatement(
+                    "SELECT user_id FROM task_versions" + USER_RANGE + " FOR UPDATE")) {
+                setRange(lock, fromUserId, toUserId);
+                try (ResultSet rs = lock.executeQuery()) {
+                    while (rs.next()) {
+                        // Rows are locked by reading them
+                    }
+                }
+            }
+            int users;
+            try (PreparedStatement clear = connection.prepareStatement("DELETE FROM task_stats" + USER_RANGE)) {
+                setRange(clear, fromUserId, toUserId);
+                clear.executeUpdate();
+            }
+            try (PreparedStatement clear = connection.prepareStatement("DELETE FROM task_stats_due" + USER_RANGE)) {
+                setRange(clear, fromUserId, toUserId);
+                clear.executeUpdate();
+            }
+            try (PreparedStatement fill = connection.prepareStatement(BACKFILL_STATS + USER_RANGE + " GROUP BY user_id")) {
+                setRange(fill, fromUserId, toUserId);
+                users = fill.executeUpdate();
+            }
+            try (PreparedStatement fill = connection.prepareStatement(
+                    BACKFILL_STATS_DUE + " AND user_id BETWEEN ? AND ? GROUP BY user_id, end_date")) {
+                setRange(fill, fromUserId, toUserId);
+                fill.executeUpdate();
+            }
+            connection.commit();
+            return users;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void setRange(PreparedStatement pstmt, int fromUserId, int toUserId) throws SQLException {
+        pstmt.setInt(1, fromUserId);
+        pstmt.setInt(2, toUserId);
+    }
+}
@@ -0,0 +1,54 @@
+package org.aproject;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+
+public interface TaskRepository {
+
+    void insertTask(Task task, User user);
+
+    // False when the task is not the user's or was already gone
+    boolean removeTask(int taskId, User user);
+
+    void insertTasks(Collection<Task> tasks, User user);
+
+    // Returns how many of the ids were the user's tasks and are now removed
+    int removeTasks(int[] taskIds, User user);
+
+    // False when the task is not the user's or already has that status
+    boolean setTaskStatus(int taskId, boolean status, User user);
+
+    Map<Integer, Task> getAllTasks(User user);
+
+    Stream<Task> streamTasks(User user, int fetchSize);
+
+    List<Task> getTasksPage(User user, Task after, int limit);
+
+    List<Task> findTasks(User user, TaskFilter filter);
+
+    long getVersionStamp(User user);
+
+    // A negative sinceVersion asks for a full snapshot
+    TaskChanges getTasksChangedSince(User user, long sinceVersion);
+
+    // Incomplete tasks due on or before dueBy for every user in [fromUserId, toUserId], passed with their owner's id
+    int forEachDueTask(int fromUserId, int toUserId, LocalDate dueBy, int fetchSize, ObjIntConsumer<Task> action);
+
+    // Highest user id that owns at least one task, 0 if there are none
+    int getMaxTaskOwnerId();
+
+    TaskStats getTaskStats(User user);
+
+    // Recomputes the summaries of every user in [fromUserId, toUserId] from their tasks; returns the users with tasks
+    int rebuildTaskStats(int fromUserId, int toUserId);
+
+    // Called once nothing holds the user's tasks in memory any more; returns true if ids handed out for
+    // them earlier may stop being recognised, so copies kept elsewhere must be reloaded
+    default boolean release(User user) {
+        return false;
+    }
+}
@@ -0,0 +1,478 @@
+package org.aproject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+// Per-user inverted index over task names and descriptions, ranked by tf-idf with prefix matching; saved on
+// close and caught up from the change feed on first use after a restart instead of being rebuilt.
+public class TaskSearchIndex {
+
+    private static final Logger logger = Logger.getLogger(TaskSearchIndex.class.getName());
+
+    private static final int FILE_MAGIC = 0x54534931;
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+    private static final int NAME_WEIGHT = 2;
+    private static final double PREFIX_WEIGHT = 0.5;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final double[] TF_WEIGHTS = new double[64];
+
+    static {
+        for (int tf = 1; tf < TF_WEIGHTS.length; tf++) {
+            TF_WEIGHTS[tf] = 1 + Math.log(tf);
+        }
+    }
+
+    private static final Metrics.Timer SEARCH = Metrics.timer("search_query");
+    private static final Metrics.Timer SYNC = Metrics.timer("search_index_sync");
+
+    private final TaskRepository repository;
+    private final Path file;
+    private final ConcurrentMap<Integer, UserIndex> users = new ConcurrentHashMap<>();
+
+    public TaskSearchIndex(TaskRepository repository, Path file) {
+        this.repository = repository;
+        this.file = file;
+        if (file != null && Files.exists(file)) {
+            load();
+        }
+        Metrics.gauge("search_index_tasks", this::size);
+    }
+
+    // SEARCH_INDEX_PATH=none keeps the index in memory only
+    public static TaskSearchIndex fromEnv(TaskRepository repository) {
+        String path = DatabaseManager.env("SEARCH_INDEX_PATH", "todoapp-search.idx");
+        return new TaskSearchIndex(repository, path.equalsIgnoreCase("none") ? null : Path.of(path));
+    }
+
+    public void add(User user, Task task) {
+        add(user, List.of(task));
+    }
+
+    public void add(User user, Collection<Task> tasks) {
+        UserIndex index = indexFor(user);
+        index.lock.writeLock().lock();
+        try {
+            for (Task task : tasks) {
+                index.put(task);
+            }
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(User user, int... taskIds) {
+        UserIndex index = indexFor(user);
+        index.lock.writeLock().lock();
+        try {
+            for (int id : taskIds) {
+                index.remove(id);
+            }
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+    }
+
+    // Applies a change-feed result the caller fetched since sinceVersion; deltas from another position are ignored
+    public void apply(User user, long sinceVersion, TaskChanges changes) {
+        UserIndex index = indexFor(user);
+        index.lock.writeLock().lock();
+        try {
+            if (changes.isFullResync() || index.version == sinceVersion) {
+                index.apply(changes);
+            }
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+    }
+
+    // Makes the next search re-read the change feed, for writes that bypassed the task manager
+    public void invalidate(User user) {
+        UserIndex index = indexFor(user);
+        index.lock.writeLock().lock();
+        try {
+            index.synced = false;
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+    }
+
+    // Ids of the user's tasks matching every word, best score first
+    public int[] search(User user, String query, int limit) {
+        long start = System.nanoTime();
+        try {
+            List<String> words = new ArrayList<>(terms(query, 1, 1).keySet());
+            if (words.isEmpty() || limit <= 0) {
+                return new int[0];
+            }
+            UserIndex index = synced(user);
+            index.lock.readLock().lock();
+            try {
+                return index.search(words, limit);
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        } finally {
+            SEARCH.recordSince(start);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (UserIndex index : users.values()) {
+            index.lock.readLock().lock();
+            try {
+                size += index.termsByTask.size();
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    public void save() {
+        if (file == null) {
+            return;
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(FILE_MAGIC);
+            List<Map.Entry<Integer, UserIndex>> entries = new ArrayList<>(users.entrySet());
+            out.writeInt(entries.size());
+            for (Map.Entry<Integer, UserIndex> entry : entries) {
+                UserIndex index = entry.getValue();
+                index.lock.readLock().lock();
+                try {
+                    out.writeInt(entry.getKey());
+                    out.writeLong(index.version);
+                    out.writeInt(index.termsByTask.size());
+                    for (Map.Entry<Integer, String[]> task : index.termsByTask.entrySet()) {
+                        out.writeInt(task.getKey());
+                        out.writeInt(task.getValue().length);
+                        for (String term : task.getValue()) {
+                            out.writeUTF(term);
+                            out.writeInt(index.postings.get(term).get(task.getKey()));
+                        }
+                    }
+                } finally {
+                    index.lock.readLock().unlock();
+                }
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to save search index " + file, e);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new StorageException("Failed to replace search index " + file, e);
+        }
+        logger.info("Search index saved to " + file + ".");
+    }
+
+    private void load() {
+        long start = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a search index file");
+            }
+            int userCount = in.readInt();
+            for (int u = 0; u < userCount; u++) {
+                UserIndex index = new UserIndex();
+                int userId = in.readInt();
+                index.version = in.readLong();
+                int taskCount = in.readInt();
+                Map<String, Integer> counts = new HashMap<>();
+                for (int t = 0; t < taskCount; t++) {
+                    int taskId = in.readInt();
+                    int termCount = in.readInt();
+                    counts.clear();
+                    for (int i = 0; i < termCount; i++) {
+                        counts.put(in.readUTF(), in.readInt());
+                    }
+                    index.put(taskId, counts);
+                }
+                users.put(userId, index);
+            }
+            logger.info("Search index loaded from " + file + ": " + size() + " tasks in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        } catch (IOException e) {
+            // The index is only a cache of the database, so starting empty is always safe
+            users.clear();
+            logger.log(Level.WARNING, "Ignoring unreadable search index " + file + ".", e);
+        }
+    }
+
+    private UserIndex indexFor(User user) {
+        return users.computeIfAbsent(user.getId(), k -> new UserIndex());
+    }
+
+    private UserIndex synced(User user) {
+        UserIndex index = indexFor(user);
+        index.lock.readLock().lock();
+        try {
+            if (index.synced) {
+                return index;
+            }
+        } finally {
+            index.lock.readLock().unlock();
+        }
+
+        long start = System.nanoTime();
+        index.lock.writeLock().lock();
+        try {
+            if (!index.synced) {
+                index.apply(repository.getTasksChangedSince(user, index.version));
+            }
+            return index;
+        } finally {
+            index.lock.writeLock().unlock();
+            SYNC.recordSince(start);
+        }
+    }
+
+    // Term -> frequency, in order of first occurrence
+    private static Map<String, Integer> terms(String text, int weight, int minLength) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        if (text == null || text.isEmpty()) {
+            return counts;
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD))
+                .replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        int length = normalized.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(normalized.charAt(i))) {
+                i++;
+            }
+            int from = i;
+            while (i < length && Character.isLetterOrDigit(normalized.charAt(i))) {
+                i++;
+            }
+            if (i - from >= minLength) {
+                counts.merge(normalized.substring(from, Math.min(i, from + MAX_TERM_LENGTH)), weight, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    private static final class UserIndex {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final TreeMap<String, IntIntMap> postings = new TreeMap<>();
+        // Terms of every task, needed to take it out of the postings again
+        private final Map<Integer, String[]> termsByTask = new HashMap<>();
+        private long version = -1;
+        private boolean synced;
+
+        private void apply(TaskChanges changes) {
+            if (changes.isFullResync()) {
+                postings.clear();
+                termsByTask.clear();
+            }
+            for (Task task : changes.getUpserts()) {
+                put(task);
+            }
+            for (int id : changes.getRemovedIds()) {
+                remove(id);
+            }
+            version = changes.getVersion();
+            synced = true;
+        }
+
+        private void put(Task task) {
+            Map<String, Integer> counts = terms(task.getName(), NAME_WEIGHT, MIN_TERM_LENGTH);
+            terms(task.getDescription(), 1, MIN_TERM_LENGTH).forEach((term, tf) -> counts.merge(term, tf, Integer::sum));
+            put(task.getId(), counts);
+        }
+
+        private void put(int taskId, Map<String, Integer> counts) {
+            remove(taskId);
+            String[] terms = new String[counts.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                Map.Entry<String, IntIntMap> existing = postings.ceilingEntry(entry.getKey());
+                String term;
+                IntIntMap posting;
+                if (existing != null && existing.getKey().equals(entry.getKey())) {
+                    // Reuse the dictionary's instance so tasks do not each hold a copy of the string
+                    term = existing.getKey();
+                    posting = existing.getValue();
+                } else {
+                    term = entry.getKey();
+                    posting = new IntIntMap(4);
+                    postings.put(term, posting);
+                }
+                posting.put(taskId, entry.getValue());
+                terms[i++] = term;
+            }
+            termsByTask.put(taskId, terms);
+        }
+
+        private void remove(int taskId) {
+            String[] terms = termsByTask.remove(taskId);
+            if (terms == null) {
+                return;
+            }
+            for (String term : terms) {
+                IntIntMap posting = postings.get(term);
+                posting.remove(taskId);
+                if (posting.size() == 0) {
+                    postings.remove(term);
+                }
+            }
+        }
+
+        private int[] search(List<String> words, int limit) {
+            int taskCount = termsByTask.size();
+            List<WordMatch> matches = new ArrayList<>(words.size());
+            for (String word : words) {
+                WordMatch match = new WordMatch();
+                for (Map.Entry<String, IntIntMap> entry
+                        : postings.subMap(word, true, word + Character.MAX_VALUE, false).entrySet()) {
+                    if (match.postings.size() == MAX_PREFIX_EXPANSIONS) {
+                        break;
+                    }
+                    IntIntMap posting = entry.getValue();
+                    double idf = Math.log(1.0 + (double) taskCount / posting.size());
+                    match.add(posting, entry.getKey().equals(word) ? idf : idf * PREFIX_WEIGHT);
+                }
+                if (match.postings.isEmpty()) {
+                    return new int[0];
+                }
+                matches.add(match);
+            }
+            // Start from the most selective word so the candidate set is as small as possible
+            matches.sort((a, b) -> Long.compare(a.size, b.size));
+
+            WordMatch first = matches.get(0);
+            // With a single expansion every task shows up once, so duplicates need no lookup
+            Candidates candidates = new Candidates((int) first.size, first.postings.size() > 1);
+            for (int k = 0; k < first.postings.size(); k++) {
+                double weight = first.weights[k];
+                first.postings.get(k).forEach((taskId, tf) -> candidates.offer(taskId, weight * tfWeight(tf)));
+            }
+            for (int w = 1; w < matches.size(); w++) {
+                WordMatch match = matches.get(w);
+                for (int c = 0; c < candidates.size; c++) {
+                    if (candidates.scores[c] < 0) {
+                        continue;
+                    }
+                    double best = match.score(candidates.ids[c]);
+                    candidates.scores[c] = best == 0 ? -1 : candidates.scores[c] + best;
+                }
+            }
+            return candidates.top(limit);
+        }
+    }
+
+    private static final class WordMatch {
+        private final List<IntIntMap> postings = new ArrayList<>();
+        private double[] weights = new double[4];
+        private long size;
+
+        private void add(IntIntMap posting, double weight) {
+            if (postings.size() == weights.length) {
+                weights = Arrays.copyOf(weights, weights.length * 2);
+            }
+            weights[postings.size()] = weight;
+            postings.add(posting);
+            size += posting.size();
+        }
+
+        // Best score among the expansions this task contains, 0 if none
+        private double score(int taskId) {
+            double best = 0;
+            for (int k = 0; k < postings.size(); k++) {
+                int tf = postings.get(k).get(taskId);
+                if (tf != IntIntMap.MISSING) {
+                    best = Math.max(best, weights[k] * tfWeight(tf));
+                }
+            }
+            return best;
+        }
+    }
+
+    private static double tfWeight(int tf) {
+        return tf < TF_WEIGHTS.length ? TF_WEIGHTS[tf] : 1 + Math.log(tf);
+    }
+
+    // Matching tasks and their scores in parallel arrays; a negative score drops the task
+    private static final class Candidates {
+        private final IntIntMap slots;
+        private int[] ids;
+        private double[] scores;
+        private int size;
+
+        private Candidates(int expected, boolean deduplicate) {
+            slots = deduplicate ? new IntIntMap(expected) : null;
+            ids = new int[Math.max(16, expected)];
+            scores = new double[ids.length];
+        }
+
+        private void offer(int taskId, double score) {
+            if (slots != null) {
+                int slot = slots.get(taskId);
+                if (slot != IntIntMap.MISSING) {
+                    scores[slot] = Math.max(scores[slot], score);
+                    return;
+                }
+                slots.put(taskId, size);
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            ids[size] = taskId;
+            scores[size++] = score;
+        }
+
+        // Orders slots by score, then by lower task id first
+        private int compare(int a, int b) {
+            int byScore = Double.compare(scores[a], scores[b]);
+            return byScore != 0 ? byScore : Integer.compare(ids[b], ids[a]);
+        }
+
+        private int[] top(int limit) {
+            // Min-heap of the best slots so far; most candidates lose against its head and are never boxed
+            PriorityQueue<Integer> heap = new PriorityQueue<>(limit + 1, this::compare);
+            for (int c = 0; c < size; c++) {
+                if (scores[c] < 0 || (heap.size() == limit && compare(c, heap.peek()) <= 0)) {
+                    continue;
+                }
+                heap.add(c);
+                if (heap.size() > limit) {
+                    heap.poll();
+                }
+            }
+            int[] result = new int[heap.size()];
+            for (int i = result.length - 1; i >= 0; i--) {
+                result[i] = ids[heap.poll()];
+            }
+            return result;
+        }
+    }
+}
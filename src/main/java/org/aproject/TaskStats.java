@@ -0,0 +1,46 @@
+package org.aproject;
+
+import java.time.LocalDate;
+
+public class TaskStats {
+
+    private final int open;
+    private final int completed;
+    private final int overdue;
+    private final LocalDate nextDeadline;
+
+    public TaskStats(int open, int completed, int overdue, LocalDate nextDeadline) {
+        this.open = open;
+        this.completed = completed;
+        this.overdue = overdue;
+        this.nextDeadline = nextDeadline;
+    }
+
+    public int getOpen() {
+        return open;
+    }
+
+    public int getCompleted() {
+        return completed;
+    }
+
+    // Open tasks whose end date is before today, as TaskFilter.OVERDUE counts them
+    public int getOverdue() {
+        return overdue;
+    }
+
+    // Earliest end date of an open task due today or later, null when there is none
+    public LocalDate getNextDeadline() {
+        return nextDeadline;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskStats{" +
+                "open=" + open +
+                ", completed=" + completed +
+                ", overdue=" + overdue +
+                ", nextDeadline=" + nextDeadline +
+                '}';
+    }
+}
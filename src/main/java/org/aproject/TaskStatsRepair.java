@@ -0,0 +1,170 @@
+package org.aproject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Safety net that recomputes per-user task summaries from the tasks table after drift or a restore.
+// Rebuilds partitions of user ids in parallel, each in its own short transaction locking only its users.
+public class TaskStatsRepair implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(TaskStatsRepair.class.getName());
+
+    private static final Metrics.Timer REPAIR = Metrics.timer("task_stats_repair");
+    private static final Metrics.Timer PARTITION_REPAIR = Metrics.timer("task_stats_repair_partition");
+    private static final Metrics.Counter USERS_REPAIRED = Metrics.counter("task_stats_users_repaired_total");
+    private static final Metrics.Counter FAILED = Metrics.counter("task_stats_partitions_failed_total");
+
+    private final TaskRepository repository;
+    private final int partitionUsers;
+    private final ExecutorService workers;
+    private ScheduledExecutorService timer;
+
+    public TaskStatsRepair(TaskRepository repository, int partitionUsers, int parallelism) {
+        if (partitionUsers < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("Invalid task stats repair settings: partitionUsers=" + partitionUsers
+                    + ", parallelism=" + parallelism);
+        }
+        this.repository = repository;
+        this.partitionUsers = partitionUsers;
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "task-stats-repair-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static TaskStatsRepair fromEnv(TaskRepository repository) {
+        return new TaskStatsRepair(repository,
+                Integer.parseInt(DatabaseManager.env("TASK_STATS_REPAIR_PARTITION_USERS", "10000")),
+                Integer.parseInt(DatabaseManager.env("TASK_STATS_REPAIR_PARALLELISM",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()))));
+    }
+
+    public synchronized void start(long intervalMillis) {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "task-stats-repair");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                repair();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Task stats repair failed.", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // A partition that fails is logged and counted; the others are still rebuilt
+    public Result repair() {
+        long start = System.nanoTime();
+        try {
+            int count = (int) ((repository.getMaxTaskOwnerId() + (long) partitionUsers - 1) / partitionUsers);
+            List<Future<Integer>> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int from = (int) Math.min(Integer.MAX_VALUE, (long) i * partitionUsers + 1);
+                int to = (int) Math.min(Integer.MAX_VALUE, (long) (i + 1) * partitionUsers);
+                results.add(workers.submit(() -> repairPartition(from, to)));
+            }
+
+            int users = 0;
+            int failed = 0;
+            for (Future<Integer> result : results) {
+                try {
+                    users += result.get();
+                } catch (ExecutionException e) {
+                    failed++;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.forEach(pending -> pending.cancel(true));
+                    throw new StorageException("Task stats repair was interrupted.", e);
+                }
+            }
+
+            Result repaired = new Result(count, failed, users, System.nanoTime() - start);
+            if (failed > 0) {
+                logger.warning("Task stats repair finished with failures: " + repaired);
+            } else {
+                logger.info("Task stats repair finished: " + repaired);
+            }
+            return repaired;
+        } finally {
+            REPAIR.recordSince(start);
+        }
+    }
+
+    private int repairPartition(int fromUserId, int toUserId) {
+        long start = System.nanoTime();
+        try {
+            int users = repository.rebuildTaskStats(fromUserId, toUserId);
+            USERS_REPAIRED.add(users);
+            return users;
+        } catch (RuntimeException e) {
+            FAILED.increment();
+            logger.log(Level.WARNING, "Task stats repair of users " + fromUserId + "-" + toUserId + " failed.", e);
+            throw e;
+        } finally {
+            PARTITION_REPAIR.recordSince(start);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+        }
+        workers.shutdownNow();
+    }
+
+    public static final class Result {
+        private final int partitions;
+        private final int failed;
+        private final int users;
+        private final long elapsedNanos;
+
+        private Result(int partitions, int failed, int users, long elapsedNanos) {
+            this.partitions = partitions;
+            this.failed = failed;
+            this.users = users;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getUsers() {
+            return users;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d partitions (%d failed), %,d users in %d ms",
+                    partitions, failed, users, elapsedNanos / 1_000_000);
+        }
+    }
+}
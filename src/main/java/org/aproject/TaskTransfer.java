@@ -0,0 +1,565 @@
+package org.aproject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+// Streams a user's tasks to and from CSV or length-prefixed binary files; imports map the file in windows cut
+// at record boundaries, parse them in parallel and insert them in file order with a bounded number in flight.
+public class TaskTransfer {
+
+    private static final Logger logger = Logger.getLogger(TaskTransfer.class.getName());
+
+    // "TDT1", then [int length][int nameLength][name][int descriptionLength][description][int epochDay][byte status]
+    // per record; strings are UTF-8, a length of -1 is null and Integer.MIN_VALUE means no date
+    private static final int BINARY_MAGIC = 0x54445431;
+    // An unquoted empty field is null, "" is the empty string
+    private static final String CSV_HEADER = "name,description,end_date,status";
+    private static final int NULL_LENGTH = -1;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int MIN_RECORD_BYTES = 13;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private static final Metrics.Timer IMPORT = Metrics.timer("tasks_import");
+    private static final Metrics.Timer EXPORT = Metrics.timer("tasks_export");
+    private static final Metrics.Counter ROWS_IMPORTED = Metrics.counter("tasks_import_rows_total");
+    private static final Metrics.Counter ROWS_EXPORTED = Metrics.counter("tasks_export_rows_total");
+
+    public enum Format {
+        CSV, BINARY;
+
+        public static Format forPath(Path file) {
+            return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv") ? CSV : BINARY;
+        }
+    }
+
+    private final TaskRepository repository;
+    private final int chunkBytes;
+    private final int batchSize;
+    private final int parallelism;
+    private final int fetchSize;
+
+    public TaskTransfer(TaskRepository repository, int chunkBytes, int batchSize, int parallelism, int fetchSize) {
+        if (chunkBytes < 1 || batchSize < 1 || parallelism < 1 || fetchSize < 1) {
+            throw new IllegalArgumentException("Invalid transfer settings.");
+        }
+        this.repository = repository;
+        this.chunkBytes = chunkBytes;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.fetchSize = fetchSize;
+    }
+
+    public static TaskTransfer fromEnv(TaskRepository repository) {
+        return new TaskTransfer(repository,
+                Integer.parseInt(DatabaseManager.env("TRANSFER_CHUNK_BYTES", "4194304")),
+                Integer.parseInt(DatabaseManager.env("TRANSFER_BATCH_SIZE", "5000")),
+                Integer.parseInt(DatabaseManager.env("TRANSFER_PARALLELISM",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Integer.parseInt(DatabaseManager.env("TASK_FETCH_SIZE", "500")));
+    }
+
+    public Result exportTasks(User user, Path file, Format format) {
+        long start = System.nanoTime();
+        long rows = 0;
+        long bytes;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Stream<Task> tasks = repository.streamTasks(user, fetchSize)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+            StringBuilder line = new StringBuilder(256);
+            if (format == Format.CSV) {
+                put(channel, buffer, (CSV_HEADER + '\n').getBytes(StandardCharsets.UTF_8));
+            } else {
+                buffer.putInt(BINARY_MAGIC);
+            }
+
+            Iterator<Task> it = tasks.iterator();
+            while (it.hasNext()) {
+                Task task = it.next();
+                if (format == Format.CSV) {
+                    line.setLength(0);
+                    appendCsv(line, task);
+                    put(channel, buffer, line.toString().getBytes(StandardCharsets.UTF_8));
+                } else {
+                    putBinary(channel, buffer, task);
+                }
+                rows++;
+            }
+            drain(channel, buffer);
+            bytes = channel.position();
+        } catch (IOException e) {
+            throw new StorageException("Failed to export tasks to " + file, e);
+        } finally {
+            EXPORT.recordSince(start);
+        }
+
+        ROWS_EXPORTED.add(rows);
+        Result result = new Result(rows, bytes, System.nanoTime() - start);
+        logger.info("Exported tasks of user " + user.getId() + " to " + file + ": " + result);
+        return result;
+    }
+
+    // Chunks are inserted as they are parsed, so a failure part way leaves the earlier rows imported;
+    // the ImportFailedException says how many
+    public Result importTasks(User user, Path file, Format format) {
+        long start = System.nanoTime();
+        AtomicLong rows = new AtomicLong();
+        Deque<Future<List<Task>>> inFlight = new ArrayDeque<>();
+        long size = 0;
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService parsers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "task-import-parser-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            long position = format == Format.CSV ? skipCsvHeader(channel) : readBinaryHeader(channel, file);
+
+            while (position < size) {
+                long length = Math.min(chunkBytes, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = boundary(window, format, position, position + length == size);
+                while (end < 0) {
+                    // A single record is larger than the window
+                    length = Math.min(Math.min(length * 2, Integer.MAX_VALUE), size - position);
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    end = boundary(window, format, position, position + length == size);
+                }
+
+                ByteBuffer chunk = window.slice(0, end);
+                long offset = position;
+                inFlight.add(parsers.submit(() -> format == Format.CSV ? parseCsv(chunk, offset) : parseBinary(chunk, offset)));
+                position += end;
+
+                if (inFlight.size() >= parallelism * 2) {
+                    write(user, inFlight.poll(), rows);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                write(user, inFlight.poll(), rows);
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new ImportFailedException(file, rows.get(), e);
+        } finally {
+            for (Future<List<Task>> pending : inFlight) {
+                pending.cancel(true);
+            }
+            parsers.shutdownNow();
+            IMPORT.recordSince(start);
+        }
+
+        Result result = new Result(rows.get(), size, System.nanoTime() - start);
+        logger.info("Imported tasks of user " + user.getId() + " from " + file + ": " + result);
+        return result;
+    }
+
+    private void write(User user, Future<List<Task>> parsed, AtomicLong rows) {
+        List<Task> tasks;
+        try {
+            tasks = parsed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while importing tasks.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new StorageException("Failed to parse task chunk.", e.getCause());
+        }
+
+        for (int from = 0; from < tasks.size(); from += batchSize) {
+            List<Task> batch = tasks.subList(from, Math.min(tasks.size(), from + batchSize));
+            repository.insertTasks(batch, user);
+            rows.addAndGet(batch.size());
+            ROWS_IMPORTED.add(batch.size());
+        }
+    }
+
+    // Returns the length of the window up to its last complete record, or -1 if it holds none
+    private static int boundary(ByteBuffer window, Format format, long offset, boolean atEof) {
+        int limit = window.limit();
+        if (format == Format.CSV) {
+            if (atEof) {
+                return limit;
+            }
+            int end = -1;
+            boolean quoted = false;
+            for (int i = 0; i < limit; i++) {
+                byte b = window.get(i);
+                if (b == '"') {
+                    // An escaped quote toggles twice, so only real field quotes change the state
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted) {
+                    end = i + 1;
+                }
+            }
+            return end;
+        }
+
+        int pos = 0;
+        while (pos + Integer.BYTES <= limit) {
+            int length = window.getInt(pos);
+            if (length < MIN_RECORD_BYTES || length > MAX_RECORD_BYTES) {
+                throw new IllegalArgumentException("Corrupt record length " + length + " at byte " + (offset + pos));
+            }
+            if (pos + Integer.BYTES + length > limit) {
+                break;
+            }
+            pos += Integer.BYTES + length;
+        }
+        if (atEof && pos < limit) {
+            throw new IllegalArgumentException("Truncated record at byte " + (offset + pos));
+        }
+        return pos == 0 ? -1 : pos;
+    }
+
+    private static List<Task> parseCsv(ByteBuffer chunk, long offset) {
+        List<Task> tasks = new ArrayList<>();
+        CsvCursor cursor = new CsvCursor(chunk, offset);
+        while (cursor.skipBlankLines()) {
+            int recordStart = cursor.pos;
+            String name = cursor.next();
+            String description = cursor.endOfRecord ? null : cursor.next();
+            String date = cursor.endOfRecord ? null : cursor.next();
+            String status = cursor.endOfRecord ? null : cursor.next();
+            if (!cursor.endOfRecord || status == null) {
+                throw cursor.malformed(recordStart, "expected 4 fields");
+            }
+            if (name == null) {
+                throw cursor.malformed(recordStart, "task name is required");
+            }
+
+            LocalDate endDate;
+            try {
+                endDate = date == null ? null : parseIsoDate(date);
+            } catch (DateTimeException | NumberFormatException e) {
+                throw cursor.malformed(recordStart, "invalid date '" + date + "'");
+            }
+            boolean done;
+            if (status.equals("true") || status.equals("1")) {
+                done = true;
+            } else if (status.equals("false") || status.equals("0")) {
+                done = false;
+            } else {
+                throw cursor.malformed(recordStart, "invalid status '" + status + "'");
+            }
+            tasks.add(new Task(0, name, description, endDate, done));
+        }
+        return tasks;
+    }
+
+    private static List<Task> parseBinary(ByteBuffer chunk, long offset) {
+        List<Task> tasks = new ArrayList<>();
+        byte[] scratch = new byte[256];
+        int pos = 0;
+        int limit = chunk.limit();
+        while (pos < limit) {
+            int recordStart = pos;
+            int end = pos + Integer.BYTES + chunk.getInt(pos);
+            pos += Integer.BYTES;
+
+            String[] strings = new String[2];
+            for (int i = 0; i < strings.length; i++) {
+                int length = chunk.getInt(pos);
+                pos += Integer.BYTES;
+                if (length == NULL_LENGTH) {
+                    continue;
+                }
+                if (length < 0 || pos + length > end) {
+                    throw new IllegalArgumentException("Corrupt string length " + length + " in record at byte " + (offset + recordStart));
+                }
+                if (length > scratch.length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                chunk.get(pos, scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+                pos += length;
+            }
+            int day = chunk.getInt(pos);
+            boolean status = chunk.get(pos + Integer.BYTES) != 0;
+            pos += Integer.BYTES + 1;
+
+            if (pos != end || strings[0] == null) {
+                throw new IllegalArgumentException("Corrupt record at byte " + (offset + recordStart));
+            }
+            tasks.add(new Task(0, strings[0], strings[1], day == NO_DATE ? null : LocalDate.ofEpochDay(day), status));
+        }
+        return tasks;
+    }
+
+    // yyyy-MM-dd without going through a formatter
+    private static LocalDate parseIsoDate(String value) {
+        if (value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+            throw new DateTimeException("Expected yyyy-MM-dd");
+        }
+        return LocalDate.of(digits(value, 0, 4), digits(value, 5, 7), digits(value, 8, 10));
+    }
+
+    private static int digits(String value, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            int d = value.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException(value);
+            }
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    private static long skipCsvHeader(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(CSV_HEADER.length() + 2);
+        channel.read(head, 0);
+        String text = new String(head.array(), 0, head.position(), StandardCharsets.UTF_8);
+        if (!text.startsWith(CSV_HEADER)) {
+            return 0;
+        }
+        int newline = text.indexOf('\n', CSV_HEADER.length());
+        return newline < 0 ? head.position() : newline + 1;
+    }
+
+    private static long readBinaryHeader(FileChannel channel, Path file) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(Integer.BYTES);
+        if (channel.read(head, 0) != Integer.BYTES || head.getInt(0) != BINARY_MAGIC) {
+            throw new IllegalArgumentException(file + " is not a binary task export.");
+        }
+        return Integer.BYTES;
+    }
+
+    private static void appendCsv(StringBuilder line, Task task) {
+        appendCsvField(line, task.getName());
+        line.append(',');
+        appendCsvField(line, task.getDescription());
+        line.append(',');
+        if (task.getEnd_Date() != null) {
+            line.append(task.getEnd_Date());
+        }
+        line.append(',').append(task.isStatus()).append('\n');
+    }
+
+    private static void appendCsvField(StringBuilder line, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    private static void putBinary(FileChannel channel, ByteBuffer buffer, Task task) throws IOException {
+        byte[] name = task.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] description = task.getDescription() == null ? null : task.getDescription().getBytes(StandardCharsets.UTF_8);
+        int length = Integer.BYTES + name.length
+                + Integer.BYTES + (description == null ? 0 : description.length)
+                + Integer.BYTES + 1;
+        if (buffer.remaining() < Integer.BYTES + length) {
+            drain(channel, buffer);
+        }
+        buffer.putInt(length);
+        buffer.putInt(name.length).put(name);
+        if (description == null) {
+            buffer.putInt(NULL_LENGTH);
+        } else {
+            buffer.putInt(description.length).put(description);
+        }
+        buffer.putInt(task.getEnd_Date() == null ? NO_DATE : (int) task.getEnd_Date().toEpochDay());
+        buffer.put((byte) (task.isStatus() ? 1 : 0));
+    }
+
+    private static void put(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException {
+        if (buffer.remaining() < bytes.length) {
+            drain(channel, buffer);
+        }
+        if (bytes.length > buffer.capacity()) {
+            ByteBuffer large = ByteBuffer.wrap(bytes);
+            while (large.hasRemaining()) {
+                channel.write(large);
+            }
+            return;
+        }
+        buffer.put(bytes);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // The rows inserted before the failure stay imported; remove them or import the rest of the file
+    public static final class ImportFailedException extends StorageException {
+        private final long rowsImported;
+
+        private ImportFailedException(Path file, long rowsImported, Exception cause) {
+            super("Import from " + file + " stopped after " + rowsImported + " rows were inserted: " + cause.getMessage(), cause);
+            this.rowsImported = rowsImported;
+        }
+
+        public long getRowsImported() {
+            return rowsImported;
+        }
+    }
+
+    public static final class Result {
+        private final long rows;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        private Result(long rows, long bytes, long elapsedNanos) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d rows, %,d bytes in %.2f s (%,.0f rows/s)",
+                    rows, bytes, elapsedNanos / 1e9, getRowsPerSecond());
+        }
+    }
+
+    // Reads RFC 4180 fields from a chunk that starts and ends on record boundaries
+    private static final class CsvCursor {
+        private final ByteBuffer buffer;
+        private final long offset;
+        private final int limit;
+        private byte[] scratch = new byte[256];
+        private int pos;
+        private boolean endOfRecord;
+
+        private CsvCursor(ByteBuffer buffer, long offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.limit = buffer.limit();
+        }
+
+        private boolean skipBlankLines() {
+            while (pos < limit) {
+                byte b = buffer.get(pos);
+                if (b != '\n' && b != '\r') {
+                    return true;
+                }
+                pos++;
+            }
+            return false;
+        }
+
+        private String next() {
+            int start = pos;
+            int length = 0;
+            boolean quoted = pos < limit && buffer.get(pos) == '"';
+            if (quoted) {
+                pos++;
+                while (true) {
+                    if (pos >= limit) {
+                        throw malformed(start, "unterminated quoted field");
+                    }
+                    byte b = buffer.get(pos++);
+                    if (b == '"') {
+                        if (pos < limit && buffer.get(pos) == '"') {
+                            pos++;
+                        } else {
+                            break;
+                        }
+                    }
+                    length = append(length, b);
+                }
+            } else {
+                while (pos < limit) {
+                    byte b = buffer.get(pos);
+                    if (b == ',' || b == '\n' || b == '\r') {
+                        break;
+                    }
+                    length = append(length, b);
+                    pos++;
+                }
+            }
+
+            if (pos >= limit) {
+                endOfRecord = true;
+            } else {
+                byte b = buffer.get(pos++);
+                if (b == ',') {
+                    endOfRecord = false;
+                } else if (b == '\n' || b == '\r') {
+                    if (b == '\r' && pos < limit && buffer.get(pos) == '\n') {
+                        pos++;
+                    }
+                    endOfRecord = true;
+                } else {
+                    throw malformed(start, "unexpected character after quoted field");
+                }
+            }
+            return length == 0 && !quoted ? null : new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private int append(int length, byte b) {
+            if (length == scratch.length) {
+                scratch = Arrays.copyOf(scratch, length * 2);
+            }
+            scratch[length] = b;
+            return length + 1;
+        }
+
+        private IllegalArgumentException malformed(int at, String reason) {
+            return new IllegalArgumentException("Malformed CSV at byte " + (offset + at) + ": " + reason);
+        }
+    }
+}
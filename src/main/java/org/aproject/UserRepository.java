@@ -0,0 +1,10 @@
+package org.aproject;
+
+public interface UserRepository {
+
+    boolean insertUser(String username, String passwordHash, String email);
+
+    StoredUser findByUsername(String username);
+
+    void updatePasswordHash(int userId, String passwordHash);
+}
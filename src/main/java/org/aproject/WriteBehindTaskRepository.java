@@ -0,0 +1,781 @@
+package org.aproject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjIntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+// Acknowledges task mutations once journaled and applies them to the delegate from a background flusher.
+// New tasks carry temporary negative ids until flushed; a crash before the journal rewrite replays the last batch.
+public class WriteBehindTaskRepository implements TaskRepository, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(WriteBehindTaskRepository.class.getName());
+
+    private static final byte CREATE = 1;
+    private static final byte DELETE = 2;
+
+    private static final Metrics.Timer ENQUEUE = Metrics.timer("write_behind_enqueue");
+    private static final Metrics.Timer FLUSH = Metrics.timer("write_behind_flush");
+    private static final Metrics.Counter COALESCED = Metrics.counter("write_behind_coalesced_total");
+    private static final Metrics.Counter FLUSHED = Metrics.counter("write_behind_flushed_total");
+    private static final Metrics.Counter FLUSH_FAILURES = Metrics.counter("write_behind_flush_failures_total");
+
+    private final TaskRepository delegate;
+    private final Path journal;
+    private final int batchSize;
+    private final boolean fsync;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    // Guards pending, the temp id mapping and appends to the journal
+    private final ReentrantLock lock = new ReentrantLock();
+    // Serializes fsyncs and journal rewrites; ReentrantLock so virtual threads are not pinned during IO
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private Map<Integer, PendingOp> pending = new LinkedHashMap<>();
+    private final IntIntMap tempToReal = new IntIntMap(1024);
+    private final IntIntMap realToTemp = new IntIntMap(1024);
+    // Temp ids mapped so far per user, and per released user the first temp id still in use
+    private final Map<Integer, List<Integer>> mappedByUser = new HashMap<>();
+    private final Map<Integer, Integer> released = new HashMap<>();
+    private Set<Integer> inFlightUsers = Set.of();
+    private int nextTempId = -1;
+
+    private FileOutputStream journalFile;
+    private DataOutputStream out;
+    private long writtenSeq;
+    private long syncedSeq;
+
+    public WriteBehindTaskRepository(TaskRepository delegate, Path journal, long flushIntervalMillis,
+                                     int batchSize, boolean fsync) {
+        this.delegate = delegate;
+        this.journal = journal;
+        this.batchSize = batchSize;
+        this.fsync = fsync;
+        try {
+            replay();
+            openJournal();
+        } catch (IOException e) {
+            throw new StorageException("Failed to open write-behind journal " + journal, e);
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "write-behind-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        Metrics.gauge("write_behind_pending", this::getPendingCount);
+
+        if (!pending.isEmpty()) {
+            logger.info("Replaying " + pending.size() + " pending task mutations from " + journal + ".");
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void insertTask(Task task, User user) {
+        insertTasks(List.of(task), user);
+    }
+
+    @Override
+    public void insertTasks(Collection<Task> tasks, User user) {
+        long start = System.nanoTime();
+        try {
+            long seq;
+            lock.lock();
+            try {
+                List<PendingOp> ops = new ArrayList<>(tasks.size());
+                int tempId = nextTempId;
+                for (Task task : tasks) {
+                    Task row = copy(task);
+                    row.setId(tempId--);
+                    ops.add(PendingOp.create(user, row));
+                }
+                append(ops);
+                nextTempId = tempId;
+                Iterator<Task> it = tasks.iterator();
+                for (PendingOp op : ops) {
+                    it.next().setId(op.taskId);
+                }
+                seq = writtenSeq;
+            } catch (IOException e) {
+                throw new StorageException("Failed to append to write-behind journal " + journal, e);
+            } finally {
+                lock.unlock();
+            }
+            awaitDurable(seq);
+            maybeScheduleFlush();
+        } finally {
+            ENQUEUE.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean removeTask(int taskId, User user) {
+        return removeTasks(new int[]{taskId}, user) == 1;
+    }
+
+    // Counts the removals accepted into the journal; whether the database still has the rows is only
+    // known when they are flushed, so callers must check ownership against their own copy first
+    @Override
+    public int removeTasks(int[] taskIds, User user) {
+        long start = System.nanoTime();
+        try {
+            int[] distinct = Arrays.stream(taskIds).distinct().toArray();
+            long seq;
+            lock.lock();
+            try {
+                List<PendingOp> ops = new ArrayList<>(distinct.length);
+                for (int taskId : distinct) {
+                    ops.add(PendingOp.delete(user, resolve(taskId)));
+                }
+                append(ops);
+                seq = writtenSeq;
+            } catch (IOException e) {
+                throw new StorageException("Failed to append to write-behind journal " + journal, e);
+            } finally {
+                lock.unlock();
+            }
+            awaitDurable(seq);
+            maybeScheduleFlush();
+            return distinct.length;
+        } finally {
+            ENQUEUE.recordSince(start);
+        }
+    }
+
+    // Applied synchronously: the user's pending mutations are flushed first so the task has its database id
+    @Override
+    public boolean setTaskStatus(int taskId, boolean status, User user) {
+        flush(user);
+        int id;
+        lock.lock();
+        try {
+            id = resolve(taskId);
+        } finally {
+            lock.unlock();
+        }
+        return delegate.setTaskStatus(id, status, user);
+    }
+
+    @Override
+    public Map<Integer, Task> getAllTasks(User user) {
+        flush(user);
+        return delegate.getAllTasks(user);
+    }
+
+    @Override
+    public Stream<Task> streamTasks(User user, int fetchSize) {
+        flush(user);
+        return delegate.streamTasks(user, fetchSize);
+    }
+
+    @Override
+    public List<Task> getTasksPage(User user, Task after, int limit) {
+        flush(user);
+        return delegate.getTasksPage(user, after, limit);
+    }
+
+    @Override
+    public List<Task> findTasks(User user, TaskFilter filter) {
+        flush(user);
+        return delegate.findTasks(user, filter);
+    }
+
+    @Override
+    public int forEachDueTask(int fromUserId, int toUserId, LocalDate dueBy, int fetchSize, ObjIntConsumer<Task> action) {
+        // No flush: a background scan should not force writes out, pending tasks are picked up on a later pass
+        return delegate.forEachDueTask(fromUserId, toUserId, dueBy, fetchSize, action);
+    }
+
+    @Override
+    public int getMaxTaskOwnerId() {
+        return delegate.getMaxTaskOwnerId();
+    }
+
+    @Override
+    public TaskStats getTaskStats(User user) {
+        flush(user);
+        return delegate.getTaskStats(user);
+    }
+
+    @Override
+    public int rebuildTaskStats(int fromUserId, int toUserId) {
+        return delegate.rebuildTaskStats(fromUserId, toUserId);
+    }
+
+    @Override
+    public long getVersionStamp(User user) {
+        flush(user);
+        return delegate.getVersionStamp(user);
+    }
+
+    @Override
+    public TaskChanges getTasksChangedSince(User user, long sinceVersion) {
+        flush(user);
+        TaskChanges changes = delegate.getTasksChangedSince(user, sinceVersion);
+        if (changes.isFullResync()) {
+            return changes;
+        }
+
+        // A caller may still hold a flushed task under its temporary id; report that id as removed
+        // so the row arriving under its database id does not show up twice
+        List<Integer> renamed = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Task task : changes.getUpserts()) {
+                // Temp ids are negative, so -1 is a valid value and MISSING cannot be used here
+                if (realToTemp.containsKey(task.getId())) {
+                    renamed.add(realToTemp.get(task.getId()));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (renamed.isEmpty()) {
+            return changes;
+        }
+        int[] removed = Arrays.copyOf(changes.getRemovedIds(), changes.getRemovedIds().length + renamed.size());
+        for (int i = 0; i < renamed.size(); i++) {
+            removed[changes.getRemovedIds().length + i] = renamed.get(i);
+        }
+        return new TaskChanges(changes.getVersion(), false, changes.getUpserts(), removed);
+    }
+
+    // Applies every mutation acknowledged before this call; on failure they stay queued and journaled
+    public void flush() {
+        flush(null);
+    }
+
+    // Applies the pending mutations of one user, or of every user when user is null
+    public void flush(User user) {
+        if (user != null && !hasUnapplied(user.getId())) {
+            return;
+        }
+        flushLock.lock();
+        long start = System.nanoTime();
+        try {
+            Map<Integer, PendingOp> batch;
+            lock.lock();
+            try {
+                if (user == null) {
+                    batch = pending;
+                    pending = new LinkedHashMap<>();
+                } else {
+                    batch = takePending(user.getId());
+                }
+                if (batch.isEmpty()) {
+                    pruneReleased();
+                    return;
+                }
+                Set<Integer> users = new HashSet<>();
+                for (PendingOp op : batch.values()) {
+                    users.add(op.user.getId());
+                }
+                inFlightUsers = users;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                apply(batch);
+            } catch (RuntimeException e) {
+                FLUSH_FAILURES.increment();
+                lock.lock();
+                try {
+                    // Anything queued meanwhile is newer than the failed batch
+                    Map<Integer, PendingOp> merged = batch;
+                    for (PendingOp op : pending.values()) {
+                        coalesce(merged, op);
+                    }
+                    pending = merged;
+                } finally {
+                    lock.unlock();
+                }
+                throw e instanceof StorageException ? e : new StorageException("Failed to flush task mutations.", e);
+            } finally {
+                lock.lock();
+                try {
+                    inFlightUsers = Set.of();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            checkpoint();
+            lock.lock();
+            try {
+                pruneReleased();
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            FLUSH.recordSince(start);
+            flushLock.unlock();
+        }
+    }
+
+    // Temp ids of a released user stay mapped until the next flush, which has resolved every pending removal
+    @Override
+    public boolean release(User user) {
+        lock.lock();
+        try {
+            if (!mappedByUser.containsKey(user.getId()) && !hasPending(user.getId())) {
+                return false;
+            }
+            released.put(user.getId(), nextTempId);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (StorageException e) {
+            logger.log(Level.WARNING, getPendingCount() + " task mutations could not be flushed and will be replayed on the next start.", e);
+        }
+        lock.lock();
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error closing write-behind journal.", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void maybeScheduleFlush() {
+        if (getPendingCount() >= batchSize) {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (StorageException e) {
+            logger.log(Level.WARNING, "Write-behind flush failed; retrying later.", e);
+        }
+    }
+
+    // Removes applied operations from the batch as it goes, so a failure only requeues what is left
+    private void apply(Map<Integer, PendingOp> batch) {
+        Map<Integer, List<PendingOp>> creates = new LinkedHashMap<>();
+        Map<Integer, List<PendingOp>> deletes = new LinkedHashMap<>();
+        for (PendingOp op : batch.values()) {
+            (op.delete ? deletes : creates).computeIfAbsent(op.user.getId(), k -> new ArrayList<>()).add(op);
+        }
+
+        for (List<PendingOp> ops : creates.values()) {
+            List<Task> rows = new ArrayList<>(ops.size());
+            for (PendingOp op : ops) {
+                rows.add(copy(op.task));
+            }
+            delegate.insertTasks(rows, ops.get(0).user);
+
+            lock.lock();
+            try {
+                List<Integer> mapped = mappedByUser.computeIfAbsent(ops.get(0).user.getId(), k -> new ArrayList<>());
+                for (int i = 0; i < ops.size(); i++) {
+                    tempToReal.put(ops.get(i).taskId, rows.get(i).getId());
+                    realToTemp.put(rows.get(i).getId(), ops.get(i).taskId);
+                    mapped.add(ops.get(i).taskId);
+                    batch.remove(ops.get(i).taskId);
+                }
+            } finally {
+                lock.unlock();
+            }
+            FLUSHED.add(ops.size());
+        }
+
+        for (List<PendingOp> ops : deletes.values()) {
+            List<Integer> ids = new ArrayList<>(ops.size());
+            lock.lock();
+            try {
+                for (PendingOp op : ops) {
+                    int id = op.taskId;
+                    if (id < 0) {
+                        // Removal raced with the flush that created the task
+                        id = tempToReal.get(id);
+                    }
+                    if (id != IntIntMap.MISSING) {
+                        ids.add(id);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!ids.isEmpty()) {
+                int removed = delegate.removeTasks(ids.stream().mapToInt(Integer::intValue).toArray(), ops.get(0).user);
+                if (removed < ids.size()) {
+                    logger.fine((ids.size() - removed) + " queued task removal(s) found nothing to delete.");
+                }
+            }
+            for (PendingOp op : ops) {
+                batch.remove(op.taskId);
+            }
+            FLUSHED.add(ops.size());
+        }
+    }
+
+    private static void coalesce(Map<Integer, PendingOp> target, PendingOp op) {
+        if (op.delete) {
+            PendingOp previous = target.get(op.taskId);
+            if (previous != null && !previous.delete) {
+                // The task never reached the database; drop both operations
+                target.remove(op.taskId);
+                COALESCED.add(2);
+                return;
+            }
+        }
+        if (target.put(op.taskId, op) != null) {
+            COALESCED.increment();
+        }
+    }
+
+    // Must be called with the lock held; ops only become pending once they are in the journal
+    private void append(List<PendingOp> ops) throws IOException {
+        for (PendingOp op : ops) {
+            writeRecord(out, op);
+        }
+        out.flush();
+        writtenSeq += ops.size();
+        for (PendingOp op : ops) {
+            coalesce(pending, op);
+        }
+    }
+
+    // Must be called with the lock held
+    private boolean hasPending(int userId) {
+        for (PendingOp op : pending.values()) {
+            if (op.user.getId() == userId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasUnapplied(int userId) {
+        lock.lock();
+        try {
+            return inFlightUsers.contains(userId) || hasPending(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the lock held
+    private Map<Integer, PendingOp> takePending(int userId) {
+        Map<Integer, PendingOp> taken = new LinkedHashMap<>();
+        Iterator<PendingOp> it = pending.values().iterator();
+        while (it.hasNext()) {
+            PendingOp op = it.next();
+            if (op.user.getId() == userId) {
+                taken.put(op.taskId, op);
+                it.remove();
+            }
+        }
+        return taken;
+    }
+
+    // Must be called with the lock and the flush lock held, so no removal still names a temp id being dropped.
+    // Temp ids handed out after the release belong to a newer session and are kept.
+    private void pruneReleased() {
+        Iterator<Map.Entry<Integer, Integer>> it = released.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, Integer> entry = it.next();
+            int userId = entry.getKey();
+            int firstKept = entry.getValue();
+            List<Integer> mapped = mappedByUser.get(userId);
+            if (mapped != null) {
+                mapped.removeIf(tempId -> {
+                    if (tempId <= firstKept) {
+                        return false;
+                    }
+                    realToTemp.remove(tempToReal.remove(tempId));
+                    return true;
+                });
+                if (mapped.isEmpty()) {
+                    mappedByUser.remove(userId);
+                }
+            }
+            boolean unflushed = false;
+            for (PendingOp op : pending.values()) {
+                if (op.user.getId() == userId && !op.delete && op.taskId > firstKept) {
+                    unflushed = true;
+                    break;
+                }
+            }
+            if (!unflushed) {
+                it.remove();
+            }
+        }
+    }
+
+    // Must be called with the lock held
+    private int resolve(int taskId) {
+        return taskId < 0 && tempToReal.containsKey(taskId) ? tempToReal.get(taskId) : taskId;
+    }
+
+    private void awaitDurable(long seq) {
+        if (!fsync) {
+            return;
+        }
+        // Group commit: whoever gets the lock syncs everything written so far, later waiters
+        // usually find their records already covered and return without another fsync.
+        syncLock.lock();
+        try {
+            if (syncedSeq >= seq) {
+                return;
+            }
+            long target;
+            FileChannel channel;
+            lock.lock();
+            try {
+                target = writtenSeq;
+                channel = journalFile.getChannel();
+            } finally {
+                lock.unlock();
+            }
+            channel.force(false);
+            syncedSeq = target;
+        } catch (IOException e) {
+            throw new StorageException("Failed to sync write-behind journal " + journal, e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // Replaces the journal with the operations that are still pending
+    private void checkpoint() {
+        syncLock.lock();
+        try {
+            lock.lock();
+            try {
+                // Removals that raced with an earlier flush can now name the database id, which
+                // the journal has to record because the temp id mapping is not persisted
+                Map<Integer, PendingOp> resolved = new LinkedHashMap<>();
+                for (PendingOp op : pending.values()) {
+                    int id = op.delete ? resolve(op.taskId) : op.taskId;
+                    resolved.put(id, id == op.taskId ? op : PendingOp.delete(op.user, id));
+                }
+                pending = resolved;
+
+                Path tmp = journal.resolveSibling(journal.getFileName() + ".tmp");
+                try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+                     DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(fos))) {
+                    for (PendingOp op : pending.values()) {
+                        writeRecord(tmpOut, op);
+                    }
+                    tmpOut.flush();
+                    fos.getChannel().force(false);
+                }
+                out.close();
+                Files.move(tmp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                openJournal();
+                syncedSeq = writtenSeq;
+            } catch (IOException e) {
+                // The old journal is still a superset of what is pending, so keep appending to it
+                logger.log(Level.WARNING, "Failed to checkpoint write-behind journal " + journal, e);
+                try {
+                    openJournal();
+                } catch (IOException reopen) {
+                    throw new StorageException("Failed to reopen write-behind journal " + journal, reopen);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(journal)) {
+            return;
+        }
+        long validLength = 0;
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(journal)));
+             DataInputStream in = new DataInputStream(counter)) {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                PendingOp op;
+                try {
+                    User user = new User(in.readInt(), null, null);
+                    switch (type) {
+                        case CREATE:
+                            op = PendingOp.create(user, readTask(in));
+                            break;
+                        case DELETE:
+                            op = PendingOp.delete(user, in.readInt());
+                            break;
+                        default:
+                            throw new IOException("Corrupt record type " + type + " in " + journal);
+                    }
+                } catch (EOFException e) {
+                    logger.warning("Discarding truncated record at the end of " + journal);
+                    break;
+                }
+                coalesce(pending, op);
+                if (op.taskId < 0) {
+                    nextTempId = Math.min(nextTempId, op.taskId - 1);
+                }
+                validLength = counter.count;
+            }
+        }
+
+        if (validLength < Files.size(journal)) {
+            try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+    }
+
+    private void openJournal() throws IOException {
+        journalFile = new FileOutputStream(journal.toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(journalFile));
+    }
+
+    private static void writeRecord(DataOutputStream out, PendingOp op) throws IOException {
+        out.writeByte(op.delete ? DELETE : CREATE);
+        out.writeInt(op.user.getId());
+        if (op.delete) {
+            out.writeInt(op.taskId);
+            return;
+        }
+        Task task = op.task;
+        out.writeInt(task.getId());
+        out.writeUTF(task.getName());
+        out.writeBoolean(task.getDescription() != null);
+        if (task.getDescription() != null) {
+            out.writeUTF(task.getDescription());
+        }
+        out.writeBoolean(task.getEnd_Date() != null);
+        if (task.getEnd_Date() != null) {
+            out.writeLong(task.getEnd_Date().toEpochDay());
+        }
+        out.writeBoolean(task.isStatus());
+    }
+
+    private static Task readTask(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        String name = in.readUTF();
+        String description = in.readBoolean() ? in.readUTF() : null;
+        LocalDate endDate = in.readBoolean() ? LocalDate.ofEpochDay(in.readLong()) : null;
+        boolean status = in.readBoolean();
+        return new Task(id, name, description, endDate, status);
+    }
+
+    private static Task copy(Task task) {
+        return new Task(task.getId(), task.getName(), task.getDescription(), task.getEnd_Date(), task.isStatus());
+    }
+
+    private static final class PendingOp {
+        private final boolean delete;
+        private final User user;
+        private final int taskId;
+        private final Task task;
+
+        private PendingOp(boolean delete, User user, int taskId, Task task) {
+            this.delete = delete;
+            this.user = user;
+            this.taskId = taskId;
+            this.task = task;
+        }
+
+        private static PendingOp create(User user, Task task) {
+            return new PendingOp(false, user, task.getId(), task);
+        }
+
+        private static PendingOp delete(User user, int taskId) {
+            return new PendingOp(true, user, taskId, null);
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
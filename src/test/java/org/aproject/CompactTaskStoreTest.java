@@ -0,0 +1,128 @@
+package org.aproject;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompactTaskStoreTest {
+
+    private static final LocalDate DAY = LocalDate.of(2030, 1, 1);
+
+    @Test
+    void tasksRoundTripIncludingNullsAndEmptyStrings() {
+        CompactTaskStore store = new CompactTaskStore(16);
+        store.put(1, new Task(10, "café 😀", null, DAY, true));
+        store.put(1, new Task(11, "", "", null, false));
+
+        Task first = store.get(10);
+        assertEquals("café 😀", first.getName());
+        assertNull(first.getDescription());
+        assertEquals(DAY, first.getEnd_Date());
+        assertTrue(first.isStatus());
+
+        Task second = store.get(11);
+        assertEquals("", second.getName());
+        assertEquals("", second.getDescription());
+        assertNull(second.getEnd_Date());
+        assertFalse(second.isStatus());
+    }
+
+    @Test
+    void eachUserIteratesInInsertionOrder() {
+        CompactTaskStore store = new CompactTaskStore(16);
+        for (int id = 1; id <= 6; id++) {
+            store.put(id % 2, task(id, "t" + id));
+        }
+        // Updating a task keeps its position, moving it to another user appends it there
+        store.put(1, task(3, "renamed"));
+        store.put(0, task(1, "moved"));
+
+        assertEquals(List.of(3, 5), ids(store, 1));
+        assertEquals(List.of(2, 4, 6, 1), ids(store, 0));
+        assertEquals("renamed", store.get(3).getName());
+        assertEquals(6, store.size());
+    }
+
+    @Test
+    void compactionKeepsLiveRowsAndTheirOrder() {
+        CompactTaskStore store = new CompactTaskStore(16);
+        int rows = 5000;
+        for (int id = 1; id <= rows; id++) {
+            store.put(id % 3, task(id, "task " + id));
+        }
+        long full = store.estimatedBytes();
+        // Removing all but every tenth row leaves dead rows outnumbering live ones, which compacts
+        for (int id = 1; id <= rows; id++) {
+            if (id % 10 != 0) {
+                assertTrue(store.remove(id));
+            }
+        }
+        assertFalse(store.remove(1));
+        assertEquals(rows / 10, store.size());
+        assertTrue(store.estimatedBytes() < full / 2, store.estimatedBytes() + " of " + full);
+
+        for (int user = 0; user < 3; user++) {
+            List<Integer> expected = new ArrayList<>();
+            for (int id = 10; id <= rows; id += 10) {
+                if (id % 3 == user) {
+                    expected.add(id);
+                }
+            }
+            assertEquals(expected, ids(store, user));
+        }
+        assertEquals("task 5000", store.get(5000).getName());
+
+        // Rows appended after a compaction join the end of the existing chains
+        store.put(0, task(rows + 1, "after"));
+        List<Integer> zero = ids(store, 0);
+        assertEquals(rows + 1, zero.get(zero.size() - 1));
+    }
+
+    @Test
+    void removingAUserDropsOnlyTheirRows() {
+        CompactTaskStore store = new CompactTaskStore(16);
+        store.put(1, task(1, "a"));
+        store.put(2, task(2, "b"));
+        store.put(1, task(3, "c"));
+
+        store.removeUser(1);
+        assertTrue(ids(store, 1).isEmpty());
+        assertEquals(List.of(2), ids(store, 2));
+        assertFalse(store.contains(1));
+
+        store.put(1, task(4, "d"));
+        assertEquals(List.of(4), ids(store, 1));
+    }
+
+    @Test
+    void repeatedStringsAreStoredOnce() {
+        String name = "x".repeat(200);
+        CompactTaskStore pooled = new CompactTaskStore(16);
+        CompactTaskStore distinct = new CompactTaskStore(16);
+        for (int id = 1; id <= 1000; id++) {
+            pooled.put(1, new Task(id, name, name, DAY, false));
+            distinct.put(1, new Task(id, name + id, name + id, DAY, false));
+        }
+
+        assertEquals(name, pooled.get(1000).getName());
+        assertEquals(name, pooled.get(1).getDescription());
+        // One 200-byte copy against two thousand
+        assertTrue(distinct.estimatedBytes() - pooled.estimatedBytes() > 1000L * 200,
+                pooled.estimatedBytes() + " vs " + distinct.estimatedBytes());
+    }
+
+    private static Task task(int id, String name) {
+        return new Task(id, name, "d" + id, DAY.plusDays(id), id % 2 == 0);
+    }
+
+    private static List<Integer> ids(CompactTaskStore store, int userId) {
+        return new ArrayList<>(store.getTasks(userId).keySet());
+    }
+}
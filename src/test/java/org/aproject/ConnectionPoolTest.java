@@ -0,0 +1,137 @@
+package org.aproject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionPoolTest {
+
+    private static final int WARMUP = 500;
+    private static final int SAMPLES = 5000;
+
+    private String url;
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void setUp() {
+        url = TestDatabase.url("pool");
+        pool = new ConnectionPool(url, "sa", "", 2, 4, 500, 60000, 60000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void pooledQueriesHaveLowerP99ThanOpeningAConnectionPerCall() throws SQLException {
+        // The database must outlive the unpooled connections, like a server would
+        try (Connection keepAlive = DriverManager.getConnection(url, "sa", "")) {
+            LatencyHistogram direct = new LatencyHistogram();
+            LatencyHistogram pooled = new LatencyHistogram();
+            for (int i = 0; i < WARMUP + SAMPLES; i++) {
+                long start = System.nanoTime();
+                try (Connection con = DriverManager.getConnection(url, "sa", "")) {
+                    selectOne(con);
+                }
+                long directNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                try (Connection con = pool.borrow()) {
+                    selectOne(con);
+                }
+                long pooledNanos = System.nanoTime() - start;
+
+                if (i >= WARMUP) {
+                    direct.record(directNanos);
+                    pooled.record(pooledNanos);
+                }
+            }
+
+            long directP99 = direct.getValueAtPercentile(99);
+            long pooledP99 = pooled.getValueAtPercentile(99);
+            assertTrue(pooledP99 < directP99, "pooled p99 " + pooledP99 + " ns, direct p99 " + directP99 + " ns");
+        }
+        assertTrue(pool.getTotalCount() <= pool.getMaxSize());
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    void borrowTimesOutWhenThePoolIsExhausted() throws SQLException {
+        Connection[] held = new Connection[pool.getMaxSize()];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = pool.borrow();
+        }
+        try {
+            assertThrows(SQLException.class, pool::borrow);
+            assertEquals(1, pool.getBorrowTimeouts());
+        } finally {
+            for (Connection con : held) {
+                con.close();
+            }
+        }
+        try (Connection con = pool.borrow()) {
+            selectOne(con);
+        }
+    }
+
+    @Test
+    void returnedConnectionsAreRolledBackAndReused() throws SQLException {
+        try (Connection con = pool.borrow()) {
+            con.setAutoCommit(false);
+            try (Statement st = con.createStatement()) {
+                st.execute("CREATE TABLE pool_probe (id INT)");
+            }
+        }
+        try (Connection con = pool.borrow()) {
+            assertTrue(con.getAutoCommit());
+        }
+        assertTrue(pool.getTotalCount() <= pool.getMaxSize());
+        assertEquals(pool.getTotalCount(), pool.getIdleCount());
+    }
+
+    @Test
+    void lateCloseDoesNotAffectTheNextBorrower() throws SQLException {
+        Connection first = pool.borrow();
+        first.close();
+
+        try (Connection second = pool.borrow()) {
+            second.setAutoCommit(false);
+            try (Statement st = second.createStatement()) {
+                st.execute("CREATE TABLE late_close (id INT)");
+                st.execute("INSERT INTO late_close VALUES (1)");
+            }
+
+            first.close();
+            assertTrue(first.isClosed());
+            assertThrows(SQLException.class, first::createStatement);
+
+            assertFalse(second.isClosed());
+            assertEquals(1, pool.getActiveCount());
+            try (Statement st = second.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM late_close")) {
+                rs.next();
+                assertEquals(1, rs.getInt(1));
+            }
+            second.commit();
+        }
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    private static void selectOne(Connection con) throws SQLException {
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery("SELECT 1")) {
+            rs.next();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.aproject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddedStoreTest extends RepositoryConformanceTest {
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedStore store;
+
+    @Override
+    protected void open() {
+        store = new EmbeddedStore(dir.resolve("store.db"), 60000);
+        tasks = store;
+        users = store;
+    }
+
+    @Override
+    protected void close() {
+        store.close();
+    }
+
+    @Test
+    void replayAndCompactionRestoreTheSameState() {
+        store.insertUser("alice", "hash", null);
+        User alice = store.findByUsername("alice").getUser();
+        Task kept = new Task(0, "Kept", null, LocalDate.now(), false);
+        Task removed = new Task(0, "Removed", "Gone", LocalDate.now().plusDays(1), false);
+        store.insertTask(kept, alice);
+        store.insertTask(removed, alice);
+        store.removeTask(removed.getId(), alice);
+        store.setTaskStatus(kept.getId(), true, alice);
+        long version = store.getVersionStamp(alice);
+
+        reopen();
+        assertReopened(alice, kept, version);
+
+        store.compact();
+        reopen();
+        assertReopened(alice, kept, version);
+
+        // Ids keep growing after a restart
+        Task next = new Task(0, "Next", null, LocalDate.now(), false);
+        store.insertTask(next, alice);
+        assertTrue(next.getId() > removed.getId());
+    }
+
+    @Test
+    void userRecordsOfEarlierVersionsStillReplay() throws IOException {
+        store.close();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(dir.resolve("store.db")))) {
+            out.writeByte(1);
+            out.writeInt(7);
+            out.writeUTF("legacy");
+            out.writeUTF("hash");
+            out.writeUTF("legacy@example.com");
+        }
+        open();
+        StoredUser stored = store.findByUsername("legacy");
+        assertEquals(7, stored.getUser().getId());
+        assertEquals("legacy@example.com", stored.getUser().getEmail());
+        assertTrue(store.insertUser("next", "hash", null));
+        assertEquals(8, store.findByUsername("next").getUser().getId());
+    }
+
+    private void assertReopened(User alice, Task kept, long version) {
+        StoredUser stored = store.findByUsername("alice");
+        assertEquals(alice.getId(), stored.getUser().getId());
+        assertNull(stored.getUser().getEmail());
+        assertEquals(1, store.getAllTasks(alice).size());
+        Task task = store.getAllTasks(alice).get(kept.getId());
+        assertNull(task.getDescription());
+        assertTrue(task.isStatus());
+        assertEquals(version, store.getVersionStamp(alice));
+    }
+
+    private void reopen() {
+        store.close();
+        open();
+    }
+}
@@ -0,0 +1,102 @@
+package org.aproject;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntIntMapTest {
+
+    // new IntIntMap(4) has 8 slots and grows on the fourth key
+    private static final int MASK = 7;
+
+    @Test
+    void removalShiftsAChainThatWrapsPastTheEndOfTheTable() {
+        int[] homedAtEnd = keysHomedAt(MASK, 2);
+        int homedAtStart = keysHomedAt(0, 1)[0];
+
+        for (int removed = 0; removed < 3; removed++) {
+            IntIntMap map = new IntIntMap(4);
+            // Occupies slots 7, 0 and 1
+            int[] keys = {homedAtEnd[0], homedAtEnd[1], homedAtStart};
+            for (int key : keys) {
+                map.put(key, key + 1);
+            }
+
+            assertEquals(keys[removed] + 1, map.remove(keys[removed]));
+            assertEquals(IntIntMap.MISSING, map.remove(keys[removed]));
+            assertEquals(2, map.size());
+            for (int key : keys) {
+                assertEquals(key == keys[removed] ? IntIntMap.MISSING : key + 1, map.get(key), "key " + key);
+            }
+
+            // The freed slot is usable again and every key stays reachable
+            map.put(keys[removed], -5);
+            assertEquals(3, map.size());
+            for (int key : keys) {
+                assertEquals(key == keys[removed] ? -5 : key + 1, map.get(key));
+            }
+        }
+    }
+
+    @Test
+    void matchesAHashMapUnderRandomChurn() {
+        Random random = new Random(42);
+        IntIntMap map = new IntIntMap(4);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // A small key range keeps chains long and deletions frequent
+            int key = random.nextInt(64) - 32;
+            if (random.nextInt(3) == 0) {
+                Integer previous = expected.remove(key);
+                assertEquals(previous == null ? IntIntMap.MISSING : previous, map.remove(key));
+            } else {
+                int value = random.nextInt(1000);
+                expected.put(key, value);
+                map.put(key, value);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = -32; key < 32; key++) {
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+            assertEquals(expected.getOrDefault(key, IntIntMap.MISSING), map.get(key));
+        }
+        Map<Integer, Integer> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    void growsAndClears() {
+        IntIntMap map = new IntIntMap(4);
+        for (int key = 0; key < 10_000; key++) {
+            map.put(key, -key);
+        }
+        assertEquals(10_000, map.size());
+        assertEquals(-9_999, map.get(9_999));
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(0));
+        map.put(0, 1);
+        assertTrue(map.containsKey(0));
+        assertThrows(IllegalArgumentException.class, () -> map.put(Integer.MIN_VALUE, 0));
+    }
+
+    private static int[] keysHomedAt(int slot, int count) {
+        int[] keys = new int[count];
+        int found = 0;
+        for (int key = 1; found < count; key++) {
+            if ((IntIntMap.mix(key) & MASK) == slot) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+}
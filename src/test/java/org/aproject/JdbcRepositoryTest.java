@@ -0,0 +1,17 @@
+package org.aproject;
+
+class JdbcRepositoryTest extends RepositoryConformanceTest {
+
+    @Override
+    protected void open() throws Exception {
+        TestDatabase.start("jdbc-repository", 4);
+        DatabaseManager dbm = new DatabaseManager();
+        tasks = new JdbcTaskRepository(dbm);
+        users = new JdbcUserRepository(dbm);
+    }
+
+    @Override
+    protected void close() {
+        TestDatabase.stop();
+    }
+}
@@ -0,0 +1,116 @@
+package org.aproject;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void smallValuesHaveTheirOwnBuckets() {
+        for (int value = 0; value < 16; value++) {
+            assertEquals(value, LatencyHistogram.indexOf(value));
+            assertEquals(value, LatencyHistogram.upperBoundOf(value));
+        }
+        assertEquals(16, LatencyHistogram.indexOf(16));
+        assertEquals(16, LatencyHistogram.upperBoundOf(16));
+    }
+
+    @Test
+    void bucketsBracketPowersOfTwoAndTheirNeighbours() {
+        for (int bit = 4; bit < 63; bit++) {
+            long power = 1L << bit;
+            for (long value : new long[]{power - 1, power, power + 1}) {
+                assertBracketed(value);
+            }
+            // A power of two starts a new bucket
+            assertEquals(LatencyHistogram.indexOf(power - 1) + 1, LatencyHistogram.indexOf(power), "2^" + bit);
+        }
+    }
+
+    @Test
+    void largestValuesStayInRange() {
+        for (long value = Long.MAX_VALUE - 4; value > 0; value++) {
+            assertBracketed(value);
+        }
+        int last = LatencyHistogram.indexOf(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(last));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void bucketWidthBoundsTheRelativeError() {
+        long value = 17;
+        while (value > 0) {
+            long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(value));
+            assertTrue((double) (upper - value) / value <= 1.0 / 16, "value " + value + " upper " + upper);
+            value = value * 3 / 2 + 1;
+        }
+    }
+
+    @Test
+    void percentilesAreWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(50_005_000L, histogram.getSum());
+        assertEquals(10_000, histogram.getMax());
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9}) {
+            long exact = (long) Math.ceil(percentile * 100);
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertTrue(reported >= exact && reported <= exact + exact / 16, percentile + " -> " + reported);
+        }
+        // Never above the largest value actually seen
+        assertEquals(10_000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void emptyAndNegativeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    void metricsRenderThePrometheusTextFormat() {
+        Metrics.Timer timer = Metrics.timer("histogram_test_render");
+        timer.record(1_500_000_000L);
+        Metrics.counter("histogram_test_counter_total").add(3);
+        Metrics.gauge("histogram_test_gauge", () -> 7);
+
+        String text = Metrics.render();
+        assertTrue(text.contains("# TYPE histogram_test_render_seconds summary\n"
+                + "histogram_test_render_seconds{quantile=\"0.5\"} 1.5\n"
+                + "histogram_test_render_seconds{quantile=\"0.9\"} 1.5\n"
+                + "histogram_test_render_seconds{quantile=\"0.99\"} 1.5\n"
+                + "histogram_test_render_seconds{quantile=\"0.999\"} 1.5\n"
+                + "histogram_test_render_seconds_max 1.5\n"
+                + "histogram_test_render_seconds_sum 1.5\n"
+                + "histogram_test_render_seconds_count 1\n"), text);
+        assertTrue(text.contains("# TYPE histogram_test_counter_total counter\nhistogram_test_counter_total 3\n"), text);
+        assertTrue(text.contains("# TYPE histogram_test_gauge gauge\nhistogram_test_gauge 7\n"), text);
+        for (String line : text.split("\n")) {
+            assertTrue(line.startsWith("# TYPE ") || line.matches("[a-zA-Z_:][a-zA-Z0-9_:]*(\\{quantile=\"[0-9.]+\"})? [0-9.E-]+"), line);
+        }
+    }
+
+    private static void assertBracketed(long value) {
+        int index = LatencyHistogram.indexOf(value);
+        assertTrue(LatencyHistogram.upperBoundOf(index) >= value, "upper bound of " + value);
+        assertTrue(LatencyHistogram.upperBoundOf(index - 1) < value, "lower bound of " + value);
+    }
+}
@@ -0,0 +1,47 @@
+package org.aproject;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LoginThrottleTest {
+
+    @Test
+    void successfulLoginsRefundOnlyTheUsername() {
+        // One attempt a minute, burst of three, for both usernames and addresses
+        LoginThrottle throttle = new LoginThrottle(1, 3, 1, 3, 100);
+        for (int i = 0; i < 3; i++) {
+            throttle.acquireLogin("alice", "192.0.2.1");
+            throttle.onLoginSucceeded("alice");
+        }
+
+        // The username got its tokens back, the address did not
+        assertDoesNotThrow(() -> throttle.acquireLogin("alice", "192.0.2.2"));
+        assertThrows(LoginThrottledException.class, () -> throttle.acquireLogin("bob", "192.0.2.1"));
+    }
+
+    @Test
+    void usernamesThatMatchTheSameAccountShareABucket() {
+        LoginThrottle throttle = new LoginThrottle(1, 3, 1000, 1000, 100);
+        throttle.acquireLogin("alice", "192.0.2.1");
+        throttle.acquireLogin("Alice", "192.0.2.2");
+        throttle.acquireLogin("ALICE", "192.0.2.3");
+
+        assertThrows(LoginThrottledException.class, () -> throttle.acquireLogin("al\u00EDce", "192.0.2.4"));
+        assertThrows(LoginThrottledException.class, () -> throttle.acquireLogin("ALI\uFF23E ", "192.0.2.5"));
+        assertDoesNotThrow(() -> throttle.acquireLogin("bob", "192.0.2.6"));
+
+        // A success under any spelling refunds the shared bucket
+        throttle.onLoginSucceeded("\u00C1lice");
+        assertDoesNotThrow(() -> throttle.acquireLogin("alice", "192.0.2.7"));
+    }
+
+    @Test
+    void keysFoldCaseAndAccents() {
+        assertEquals("alice", LoginThrottle.userKey("\u00C1LICE"));
+        assertEquals("jose", LoginThrottle.userKey("Jos\u0065\u0301 "));
+        assertEquals("ab", LoginThrottle.userKey("\uFF21b"));
+    }
+}
@@ -0,0 +1,93 @@
+package org.aproject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PasswordHasherTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void fullQueueRejectsInsteadOfWaiting() {
+        // One worker busy with a cost-12 hash and one queued behind it; the third has nowhere to go
+        try (PasswordHasher hasher = new PasswordHasher(12, 1, 1)) {
+            CompletableFuture<String> running = hasher.hash("first");
+            CompletableFuture<String> queued = hasher.hash("second");
+            CompletableFuture<String> rejected = hasher.hash("third");
+
+            CompletionException e = assertThrows(CompletionException.class, rejected::join);
+            assertInstanceOf(RejectedExecutionException.class, e.getCause());
+            assertEquals(1, hasher.getRejectedCount());
+
+            assertEquals(12, PasswordHasher.costOf(running.join()));
+            assertEquals(12, PasswordHasher.costOf(queued.join()));
+            assertEquals(2, hasher.getCompletedCount());
+        }
+    }
+
+    @Test
+    void costIsReadFromTheModularCryptPrefix() {
+        assertEquals(12, PasswordHasher.costOf("$2a$12$abcdefghijklmnopqrstuv"));
+        assertEquals(4, PasswordHasher.costOf("$2y$04$abcdefghijklmnopqrstuv"));
+        assertEquals(31, PasswordHasher.costOf("$2b$31$x"));
+        assertEquals(-1, PasswordHasher.costOf(null));
+        assertEquals(-1, PasswordHasher.costOf(""));
+        assertEquals(-1, PasswordHasher.costOf("$2a$12"));
+        assertEquals(-1, PasswordHasher.costOf("plaintext"));
+        assertEquals(-1, PasswordHasher.costOf("$2a$xy$abcdefghijklmnopqrstuv"));
+        assertEquals(-1, PasswordHasher.costOf("$2ab12$abcdefghijklmnopqrstuv"));
+    }
+
+    @Test
+    void onlyCheaperOrUnreadableHashesNeedARehash() {
+        try (PasswordHasher hasher = new PasswordHasher(10, 1, 1)) {
+            assertTrue(hasher.needsRehash("$2a$04$abcdefghijklmnopqrstuv"));
+            assertFalse(hasher.needsRehash("$2a$10$abcdefghijklmnopqrstuv"));
+            assertFalse(hasher.needsRehash("$2a$12$abcdefghijklmnopqrstuv"));
+            assertTrue(hasher.needsRehash("not a bcrypt hash"));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new PasswordHasher(3, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new PasswordHasher(32, 1, 1));
+    }
+
+    @Test
+    void loginUpgradesACheaperHash() throws InterruptedException {
+        try (EmbeddedStore store = new EmbeddedStore(dir.resolve("users.db"), 60000);
+             PasswordHasher old = new PasswordHasher(4, 1, 4);
+             PasswordHasher current = new PasswordHasher(5, 1, 4)) {
+            assertTrue(new DatabaseManager(store, old).registerUser("alice", "secret", "alice@example.com"));
+            String oldHash = store.findByUsername("alice").getPasswordHash();
+            assertEquals(4, PasswordHasher.costOf(oldHash));
+
+            DatabaseManager manager = new DatabaseManager(store, current);
+            // A wrong password must not trigger the upgrade
+            assertNull(manager.loginUser("alice", "wrong"));
+            assertNotNull(manager.loginUser("alice", "secret"));
+
+            // The rehash runs after the login returns
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (store.findByUsername("alice").getPasswordHash().equals(oldHash) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            String newHash = store.findByUsername("alice").getPasswordHash();
+            assertEquals(5, PasswordHasher.costOf(newHash));
+            assertFalse(current.needsRehash(newHash));
+            assertNotNull(manager.loginUser("alice", "secret"));
+            assertEquals(newHash, store.findByUsername("alice").getPasswordHash());
+        }
+    }
+}
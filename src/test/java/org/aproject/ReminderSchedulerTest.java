@@ -0,0 +1,158 @@
+package org.aproject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReminderSchedulerTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2030, 1, 10);
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedStore store;
+    private final RecordingSink sink = new RecordingSink(0);
+
+    @BeforeEach
+    void setUp() {
+        store = new EmbeddedStore(dir.resolve("tasks.db"), 60000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void remindsOncePerDayAndKind() {
+        User user = user("alice");
+        Task overdue = task(user, TODAY.minusDays(5), false);
+        Task dueSoon = task(user, TODAY.plusDays(1), false);
+        task(user, TODAY.plusDays(10), false);
+        task(user, TODAY.minusDays(5), true);
+
+        try (ReminderScheduler scheduler = new ReminderScheduler(store, sink, 1, 100, 2, 10, 60000)) {
+            assertEquals(2, scheduler.scan(TODAY).getReminders());
+            assertEquals(Map.of(overdue.getId(), Reminder.Kind.OVERDUE, dueSoon.getId(), Reminder.Kind.DUE_SOON), sink.drain());
+
+            // Same day again: nothing new
+            ReminderScheduler.ScanResult again = scheduler.scan(TODAY);
+            assertEquals(2, again.getRows());
+            assertEquals(0, again.getReminders());
+            assertEquals(Map.of(), sink.drain());
+
+            // A new day repeats the reminders, and the task whose end date passed turns overdue
+            assertEquals(2, scheduler.scan(TODAY.plusDays(2)).getReminders());
+            assertEquals(Map.of(overdue.getId(), Reminder.Kind.OVERDUE, dueSoon.getId(), Reminder.Kind.OVERDUE), sink.drain());
+        }
+    }
+
+    @Test
+    void partitionsSkippedByTheBudgetAreScannedFirstNextTime() {
+        // One user per partition and a sink slow enough that the budget runs out after the first partition
+        RecordingSink slow = new RecordingSink(200);
+        List<Integer> taskIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            taskIds.add(task(user("user" + i), TODAY, false).getId());
+        }
+
+        try (ReminderScheduler scheduler = new ReminderScheduler(store, slow, 0, 1, 1, 10, 50)) {
+            ReminderScheduler.ScanResult first = scheduler.scan(TODAY);
+            assertEquals(4, first.getPartitions());
+            assertTrue(first.getSkipped() > 0, first.toString());
+            assertEquals(4 - first.getSkipped(), first.getReminders());
+
+            // Without the rotation every scan would start over at the first partition and the tail would starve
+            long reminders = first.getReminders();
+            for (int scan = 1; scan < 4 && reminders < 4; scan++) {
+                ReminderScheduler.ScanResult result = scheduler.scan(TODAY);
+                assertTrue(result.getReminders() > 0, result.toString());
+                reminders += result.getReminders();
+            }
+            assertEquals(4, reminders);
+            assertEquals(taskIds.size(), slow.drain().size());
+            for (ReminderScheduler.PartitionStats stats : scheduler.getPartitionStats()) {
+                assertTrue(stats.getScannedAt() > 0, "users " + stats.getFromUserId() + "-" + stats.getToUserId());
+            }
+        }
+    }
+
+    @Test
+    void partitionsGrowWhenNewUsersAppear() {
+        Task first = task(user("alice"), TODAY, false);
+
+        try (ReminderScheduler scheduler = new ReminderScheduler(store, sink, 0, 2, 2, 10, 60000)) {
+            assertEquals(1, scheduler.scan(TODAY).getPartitions());
+            assertEquals(Map.of(first.getId(), Reminder.Kind.DUE_SOON), sink.drain());
+
+            user("bob");
+            Task later = task(user("carol"), TODAY, false);
+            ReminderScheduler.ScanResult grown = scheduler.scan(TODAY);
+            assertEquals(2, grown.getPartitions());
+            // The existing partition keeps its bookkeeping, so only the new user's task is reminded
+            assertEquals(Map.of(later.getId(), Reminder.Kind.DUE_SOON), sink.drain());
+
+            List<ReminderScheduler.PartitionStats> stats = scheduler.getPartitionStats();
+            assertEquals(2, stats.size());
+            assertEquals(3, stats.get(1).getFromUserId());
+            assertEquals(4, stats.get(1).getToUserId());
+            assertEquals(1, stats.get(1).getReminders());
+        }
+    }
+
+    private Task task(User user, LocalDate endDate, boolean status) {
+        Task task = new Task(0, "task", null, endDate, status);
+        store.insertTask(task, user);
+        return task;
+    }
+
+    private User user(String name) {
+        store.insertUser(name, "hash", name + "@example.com");
+        return store.findByUsername(name).getUser();
+    }
+
+    private static final class RecordingSink implements ReminderSink {
+        private final long delayMillis;
+        private final Queue<Reminder> reminders = new ConcurrentLinkedQueue<>();
+
+        private RecordingSink(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void accept(Reminder reminder) {
+            reminders.add(reminder);
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        // Task id -> kind of everything received since the last drain
+        private Map<Integer, Reminder.Kind> drain() {
+            Map<Integer, Reminder.Kind> kinds = new HashMap<>();
+            Reminder reminder;
+            while ((reminder = reminders.poll()) != null) {
+                kinds.put(reminder.getTask().getId(), reminder.getKind());
+            }
+            return kinds;
+        }
+    }
+}
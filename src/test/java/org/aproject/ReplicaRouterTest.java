@@ -0,0 +1,250 @@
+package org.aproject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicaRouterTest {
+
+    // Parents first; copies delete in reverse order for the foreign keys
+    private static final String[] TABLES = {"users", "tasks", "task_versions", "task_tombstones",
+            "task_stats", "task_stats_due", "replica_heartbeat"};
+
+    private final List<ConnectionPool> pools = new ArrayList<>();
+    private ReplicaRouter router;
+    private TaskRepository tasks;
+    private User user;
+
+    @BeforeEach
+    void start() throws Exception {
+        TestDatabase.start("replica-primary", 4);
+        for (int i = 0; i < 2; i++) {
+            ConnectionPool pool = new ConnectionPool(TestDatabase.url("replica" + i), "sa", "", 1, 4, 5000, 60000, 0);
+            try (Connection con = pool.borrow()) {
+                SchemaManager.bootstrap(con);
+            }
+            pools.add(pool);
+        }
+        DatabaseManager dbm = new DatabaseManager();
+        // Replication and heartbeats are driven by hand; the scheduled heartbeat only runs once, right away
+        router = new ReplicaRouter(dbm, pools, List.of("replica0", "replica1"), 60000, 3_600_000);
+        tasks = new ReplicaTaskRepository(new JdbcTaskRepository(dbm), router);
+        JdbcUserRepository users = new JdbcUserRepository(dbm);
+        users.insertUser("reader", "hash", "reader@example.com");
+        user = users.findByUsername("reader").getUser();
+
+        waitForFirstHeartbeat();
+        catchUp(0, 1);
+        assertEquals(2, router.getHealthyCount());
+    }
+
+    @AfterEach
+    void stop() {
+        router.close();
+        TestDatabase.stop();
+    }
+
+    @Test
+    void usersReadTheirOwnWritesBeforeTheReplicasHaveThem() throws Exception {
+        Task task = insert("fresh");
+        long replicaReads = replicaReads();
+        long primaryReads = primaryReads();
+
+        // The replicas do not have the task yet, so the read goes to the primary
+        assertTrue(tasks.getAllTasks(user).containsKey(task.getId()));
+        assertEquals(primaryReads + 1, primaryReads());
+        assertEquals(replicaReads, replicaReads());
+
+        // A heartbeat without replication does not move the replicas past the write
+        router.heartbeat();
+        assertTrue(tasks.getAllTasks(user).containsKey(task.getId()));
+        assertEquals(primaryReads + 2, primaryReads());
+
+        catchUp(0, 1);
+        assertTrue(tasks.getAllTasks(user).containsKey(task.getId()));
+        assertEquals(replicaReads + 1, replicaReads());
+        assertEquals(primaryReads + 2, primaryReads());
+    }
+
+    @Test
+    void failedReadsMoveToTheNextReplicaAndThenThePrimary() throws Exception {
+        Task task = insert("replicated");
+        catchUp(0, 1);
+        long failovers = Metrics.counter("replica_failovers_total").get();
+
+        shutdown(0);
+        // Round robin reaches the broken replica within two reads
+        for (int i = 0; i < 2; i++) {
+            assertTrue(tasks.getAllTasks(user).containsKey(task.getId()));
+        }
+        assertFalse(router.isHealthy(0));
+        assertTrue(router.isHealthy(1));
+        assertEquals(failovers + 1, Metrics.counter("replica_failovers_total").get());
+
+        // The heartbeat keeps it out until it has the data again
+        router.heartbeat();
+        assertFalse(router.isHealthy(0));
+        rebuild(0);
+        catchUp(0, 1);
+        assertTrue(router.isHealthy(0));
+
+        shutdown(0);
+        shutdown(1);
+        long primaryReads = primaryReads();
+        assertTrue(tasks.getAllTasks(user).containsKey(task.getId()));
+        assertEquals(primaryReads + 1, primaryReads());
+        assertEquals(0, router.getHealthyCount());
+    }
+
+    @Test
+    void replicaBehindThePruneHorizonStaysOutOfRotation() throws Exception {
+        List<Object[][]> stale = snapshot();
+        shutdown(0);
+        router.heartbeat();
+        assertFalse(router.isHealthy(0));
+
+        Task task = insert("after the snapshot");
+        assertEquals(1, trackedWrites());
+        // Once every healthy replica has the write it is no longer tracked
+        catchUp(1);
+        assertEquals(0, trackedWrites());
+
+        // Replica 0 comes back from a snapshot older than the forgotten write
+        rebuild(0);
+        apply(pools.get(0), stale);
+        router.heartbeat();
+        assertFalse(router.isHealthy(0));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(tasks.getAllTasks(user).containsKey(task.getId()));
+        }
+
+        catchUp(0, 1);
+        assertTrue(router.isHealthy(0));
+    }
+
+    private Task insert(String name) throws InterruptedException {
+        // Positions are millis, so keep the write apart from the last beat
+        Thread.sleep(2);
+        Task task = new Task(0, name, null, LocalDate.now(), false);
+        tasks.insertTask(task, user);
+        return task;
+    }
+
+    // Copies the primary to the given replicas and lets the router see it in a heartbeat after the write
+    private void catchUp(int... replicas) throws Exception {
+        Thread.sleep(2);
+        router.heartbeat();
+        List<Object[][]> rows = snapshot();
+        for (int replica : replicas) {
+            apply(pools.get(replica), rows);
+        }
+        router.heartbeat();
+        Thread.sleep(2);
+    }
+
+    private void waitForFirstHeartbeat() throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            try (Connection con = DatabaseManager.getPool().borrow();
+                 Statement statement = con.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM replica_heartbeat")) {
+                rs.next();
+                if (rs.getInt(1) > 0) {
+                    // Waits for the rest of it, since heartbeats do not overlap
+                    router.heartbeat();
+                    return;
+                }
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("No heartbeat written.");
+    }
+
+    private static List<Object[][]> snapshot() throws SQLException {
+        List<Object[][]> snapshot = new ArrayList<>();
+        try (Connection con = DatabaseManager.getPool().borrow(); Statement statement = con.createStatement()) {
+            for (String table : TABLES) {
+                List<Object[]> rows = new ArrayList<>();
+                try (ResultSet rs = statement.executeQuery("SELECT * FROM " + table)) {
+                    int columns = rs.getMetaData().getColumnCount();
+                    while (rs.next()) {
+                        Object[] row = new Object[columns];
+                        for (int c = 0; c < columns; c++) {
+                            row[c] = rs.getObject(c + 1);
+                        }
+                        rows.add(row);
+                    }
+                }
+                snapshot.add(rows.toArray(new Object[0][]));
+            }
+        }
+        return snapshot;
+    }
+
+    private static void apply(ConnectionPool replica, List<Object[][]> snapshot) throws SQLException {
+        try (Connection con = replica.borrow()) {
+            con.setAutoCommit(false);
+            try (Statement statement = con.createStatement()) {
+                for (int t = TABLES.length - 1; t >= 0; t--) {
+                    statement.executeUpdate("DELETE FROM " + TABLES[t]);
+                }
+            }
+            for (int t = 0; t < TABLES.length; t++) {
+                for (Object[] row : snapshot.get(t)) {
+                    String placeholders = "?" + ", ?".repeat(row.length - 1);
+                    try (PreparedStatement insert = con.prepareStatement("INSERT INTO " + TABLES[t] + " VALUES (" + placeholders + ")")) {
+                        for (int c = 0; c < row.length; c++) {
+                            insert.setObject(c + 1, row[c]);
+                        }
+                        insert.executeUpdate();
+                    }
+                }
+            }
+            con.commit();
+            con.setAutoCommit(true);
+        }
+    }
+
+    // Drops the in-memory database; the next connection opens an empty one without the schema
+    private void shutdown(int replica) throws SQLException {
+        try (Connection con = pools.get(replica).borrow(); Statement statement = con.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+
+    private void rebuild(int replica) throws SQLException {
+        try (Connection con = pools.get(replica).borrow()) {
+            SchemaManager.bootstrap(con);
+        }
+    }
+
+    private static long replicaReads() {
+        return Metrics.counter("replica_reads_total").get();
+    }
+
+    private static long primaryReads() {
+        return Metrics.counter("replica_primary_reads_total").get();
+    }
+
+    private static long trackedWrites() {
+        for (String line : Metrics.render().split("\n")) {
+            if (line.startsWith("replica_tracked_write_positions ")) {
+                return Long.parseLong(line.substring(line.indexOf(' ') + 1));
+            }
+        }
+        throw new AssertionError("No replica_tracked_write_positions gauge.");
+    }
+}
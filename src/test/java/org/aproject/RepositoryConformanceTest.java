@@ -0,0 +1,294 @@
+package org.aproject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The behaviour every TaskRepository/UserRepository pair must share; subclasses supply the implementation
+abstract class RepositoryConformanceTest {
+
+    private static final Comparator<Task> KEYSET_ORDER = Comparator
+            .comparing(Task::getEnd_Date)
+            .thenComparingInt(Task::getId);
+
+    protected TaskRepository tasks;
+    protected UserRepository users;
+
+    private final LocalDate today = LocalDate.now();
+
+    // Sets tasks and users to empty repositories
+    protected abstract void open() throws Exception;
+
+    protected abstract void close() throws Exception;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        open();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        close();
+    }
+
+    @Test
+    void usersAreFoundByUsernameAndKeepTheirHash() {
+        assertTrue(users.insertUser("alice", "hash-1", "alice@example.com"));
+        StoredUser stored = users.findByUsername("alice");
+        assertNotNull(stored);
+        assertTrue(stored.getUser().getId() > 0);
+        assertEquals("alice", stored.getUser().getUsername());
+        assertEquals("alice@example.com", stored.getUser().getEmail());
+        assertEquals("hash-1", stored.getPasswordHash());
+
+        users.updatePasswordHash(stored.getUser().getId(), "hash-2");
+        assertEquals("hash-2", users.findByUsername("alice").getPasswordHash());
+        assertNull(users.findByUsername("nobody"));
+    }
+
+    @Test
+    void duplicateUsernamesAreRejected() {
+        assertTrue(users.insertUser("alice", "hash-1", "alice@example.com"));
+        assertFalse(users.insertUser("alice", "hash-2", "other@example.com"));
+        assertEquals("hash-1", users.findByUsername("alice").getPasswordHash());
+        assertTrue(users.insertUser("bob", "hash-3", "bob@example.com"));
+        assertNotEquals(users.findByUsername("alice").getUser().getId(), users.findByUsername("bob").getUser().getId());
+    }
+
+    @Test
+    void insertedTasksGetIdsAndRoundTrip() {
+        User alice = user("alice");
+        Task task = new Task(0, "Write report", "Quarterly numbers", today.plusDays(3), false);
+        tasks.insertTask(task, alice);
+        assertTrue(task.getId() > 0);
+
+        Map<Integer, Task> all = tasks.getAllTasks(alice);
+        assertEquals(Set.of(task.getId()), all.keySet());
+        assertSameTask(task, all.get(task.getId()));
+        assertTrue(tasks.getAllTasks(user("bob")).isEmpty());
+    }
+
+    @Test
+    void tasksCanOnlyBeRemovedByTheirOwner() {
+        User alice = user("alice");
+        User bob = user("bob");
+        Task task = task(alice, "Alice's task", 1, false);
+
+        long bobVersion = tasks.getVersionStamp(bob);
+        assertFalse(tasks.removeTask(task.getId(), bob));
+        assertTrue(tasks.getAllTasks(alice).containsKey(task.getId()));
+        // A removal that matched nothing is not a change
+        assertEquals(bobVersion, tasks.getVersionStamp(bob));
+
+        assertTrue(tasks.removeTask(task.getId(), alice));
+        assertTrue(tasks.getAllTasks(alice).isEmpty());
+        // Removing it again, or an id that never existed, is a no-op
+        assertFalse(tasks.removeTask(task.getId(), alice));
+        assertFalse(tasks.removeTask(Integer.MAX_VALUE, alice));
+    }
+
+    @Test
+    void batchesInsertAndRemoveOnlyTheOwnersTasks() {
+        User alice = user("alice");
+        User bob = user("bob");
+        List<Task> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batch.add(new Task(0, "Batch " + i, null, today.plusDays(i), i % 2 == 0));
+        }
+        tasks.insertTasks(batch, alice);
+        Set<Integer> ids = batch.stream().map(Task::getId).collect(Collectors.toSet());
+        assertEquals(5, ids.size());
+        assertFalse(ids.contains(0));
+        Task bobs = task(bob, "Bob's task", 1, false);
+
+        assertEquals(2, tasks.removeTasks(new int[]{batch.get(0).getId(), batch.get(1).getId(), bobs.getId(), Integer.MAX_VALUE}, alice));
+
+        assertEquals(Set.of(batch.get(2).getId(), batch.get(3).getId(), batch.get(4).getId()), tasks.getAllTasks(alice).keySet());
+        assertEquals(Set.of(bobs.getId()), tasks.getAllTasks(bob).keySet());
+        tasks.insertTasks(List.of(), alice);
+        assertEquals(0, tasks.removeTasks(new int[0], alice));
+    }
+
+    @Test
+    void statusChangesReportWhetherAnythingChanged() {
+        User alice = user("alice");
+        Task task = task(alice, "Toggle me", 1, false);
+
+        assertTrue(tasks.setTaskStatus(task.getId(), true, alice));
+        assertFalse(tasks.setTaskStatus(task.getId(), true, alice));
+        assertFalse(tasks.setTaskStatus(task.getId(), false, user("bob")));
+        assertTrue(tasks.getAllTasks(alice).get(task.getId()).isStatus());
+        assertTrue(tasks.setTaskStatus(task.getId(), false, alice));
+        assertFalse(tasks.getAllTasks(alice).get(task.getId()).isStatus());
+        assertFalse(tasks.setTaskStatus(Integer.MAX_VALUE, true, alice));
+    }
+
+    @Test
+    void pagesWalkTheTasksByEndDateThenId() {
+        User alice = user("alice");
+        List<Task> inserted = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            inserted.add(task(alice, "Page " + i, i % 3, false));
+        }
+        task(user("bob"), "Not Alice's", 0, false);
+        inserted.sort(KEYSET_ORDER);
+
+        List<Task> walked = new ArrayList<>();
+        Task after = null;
+        List<Task> page;
+        while (!(page = tasks.getTasksPage(alice, after, 3)).isEmpty()) {
+            assertTrue(page.size() <= 3);
+            walked.addAll(page);
+            after = page.get(page.size() - 1);
+        }
+        assertEquals(ids(inserted), ids(walked));
+
+        try (Stream<Task> stream = tasks.streamTasks(alice, 2)) {
+            assertEquals(new HashSet<>(ids(inserted)), stream.map(Task::getId).collect(Collectors.toSet()));
+        }
+    }
+
+    @Test
+    void filtersMatchTaskFilter() {
+        User alice = user("alice");
+        List<Task> inserted = new ArrayList<>();
+        for (int days = -10; days <= 10; days += 2) {
+            inserted.add(task(alice, "Due in " + days, days, false));
+            inserted.add(task(alice, "Done in " + days, days, true));
+        }
+        for (TaskFilter filter : TaskFilter.values()) {
+            Set<Integer> expected = inserted.stream()
+                    .filter(task -> filter.matches(task, today))
+                    .map(Task::getId)
+                    .collect(Collectors.toSet());
+            List<Task> found = tasks.findTasks(alice, filter);
+            assertEquals(expected, found.stream().map(Task::getId).collect(Collectors.toSet()), filter.name());
+            List<Task> sorted = new ArrayList<>(found);
+            sorted.sort(KEYSET_ORDER);
+            assertEquals(ids(sorted), ids(found), filter + " ordering");
+        }
+    }
+
+    @Test
+    void changeFeedReturnsOnlyWhatChanged() {
+        User alice = user("alice");
+        long start = tasks.getVersionStamp(alice);
+        Task kept = task(alice, "Kept", 1, false);
+        Task removed = task(alice, "Removed", 2, false);
+
+        TaskChanges first = tasks.getTasksChangedSince(alice, start);
+        assertFalse(first.isFullResync());
+        assertEquals(Set.of(kept.getId(), removed.getId()), ids(first.getUpserts()).stream().collect(Collectors.toSet()));
+        assertEquals(tasks.getVersionStamp(alice), first.getVersion());
+
+        tasks.removeTask(removed.getId(), alice);
+        tasks.setTaskStatus(kept.getId(), true, alice);
+        TaskChanges second = tasks.getTasksChangedSince(alice, first.getVersion());
+        assertFalse(second.isFullResync());
+        assertEquals(List.of(kept.getId()), ids(second.getUpserts()));
+        assertTrue(second.getUpserts().get(0).isStatus());
+        assertEquals(List.of(removed.getId()), Arrays.stream(second.getRemovedIds()).boxed().collect(Collectors.toList()));
+        assertTrue(second.getVersion() > first.getVersion());
+
+        assertTrue(tasks.getTasksChangedSince(alice, second.getVersion()).isEmpty());
+        TaskChanges full = tasks.getTasksChangedSince(alice, -1);
+        assertTrue(full.isFullResync());
+        assertEquals(List.of(kept.getId()), ids(full.getUpserts()));
+        assertTrue(tasks.getTasksChangedSince(alice, second.getVersion() + 100).isFullResync());
+    }
+
+    @Test
+    void statsFollowEveryWriteAndRebuildToTheSameValues() {
+        User alice = user("alice");
+        assertStats(tasks.getTaskStats(alice), 0, 0, 0, null);
+
+        Task overdue = task(alice, "Overdue", -2, false);
+        task(alice, "Soon", 3, false);
+        task(alice, "Later", 9, false);
+        Task done = task(alice, "Done", -1, true);
+        tasks.insertTasks(List.of(new Task(0, "Batch", null, today.plusDays(3), false)), alice);
+        assertStats(tasks.getTaskStats(alice), 4, 1, 1, today.plusDays(3));
+
+        tasks.setTaskStatus(overdue.getId(), true, alice);
+        tasks.removeTask(done.getId(), alice);
+        assertStats(tasks.getTaskStats(alice), 3, 1, 0, today.plusDays(3));
+
+        assertEquals(1, tasks.rebuildTaskStats(alice.getId(), alice.getId()));
+        assertStats(tasks.getTaskStats(alice), 3, 1, 0, today.plusDays(3));
+    }
+
+    @Test
+    void dueTasksAreScannedPerOwnerRange() {
+        User alice = user("alice");
+        User bob = user("bob");
+        Task aliceDue = task(alice, "Alice due", 0, false);
+        task(alice, "Alice later", 5, false);
+        task(alice, "Alice done", -1, true);
+        Task bobDue = task(bob, "Bob overdue", -3, false);
+
+        Map<Integer, Integer> owners = new HashMap<>();
+        int low = Math.min(alice.getId(), bob.getId());
+        int high = Math.max(alice.getId(), bob.getId());
+        int count = tasks.forEachDueTask(low, high, today, 10, (task, owner) -> owners.put(task.getId(), owner));
+        assertEquals(2, count);
+        assertEquals(Map.of(aliceDue.getId(), alice.getId(), bobDue.getId(), bob.getId()), owners);
+
+        owners.clear();
+        tasks.forEachDueTask(bob.getId(), bob.getId(), today, 10, (task, owner) -> owners.put(task.getId(), owner));
+        assertEquals(Map.of(bobDue.getId(), bob.getId()), owners);
+        assertEquals(high, tasks.getMaxTaskOwnerId());
+    }
+
+    private User user(String username) {
+        StoredUser stored = users.findByUsername(username);
+        if (stored == null) {
+            assertTrue(users.insertUser(username, "hash", username + "@example.com"));
+            stored = users.findByUsername(username);
+        }
+        return stored.getUser();
+    }
+
+    private Task task(User owner, String name, int dueInDays, boolean status) {
+        Task task = new Task(0, name, "Description of " + name, today.plusDays(dueInDays), status);
+        tasks.insertTask(task, owner);
+        return task;
+    }
+
+    private static List<Integer> ids(List<Task> list) {
+        return list.stream().map(Task::getId).collect(Collectors.toList());
+    }
+
+    private static void assertSameTask(Task expected, Task actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.getEnd_Date(), actual.getEnd_Date());
+        assertEquals(expected.isStatus(), actual.isStatus());
+    }
+
+    private static void assertStats(TaskStats stats, int open, int completed, int overdue, LocalDate nextDeadline) {
+        assertEquals(open, stats.getOpen(), "open");
+        assertEquals(completed, stats.getCompleted(), "completed");
+        assertEquals(overdue, stats.getOverdue(), "overdue");
+        assertEquals(nextDeadline, stats.getNextDeadline(), "next deadline");
+    }
+}
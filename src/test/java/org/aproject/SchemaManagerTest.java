@@ -0,0 +1,51 @@
+package org.aproject;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SchemaManagerTest {
+
+    @Test
+    void duplicateUsernamesStopTheUpgradeWithAReport() throws SQLException {
+        try (Connection con = DriverManager.getConnection(TestDatabase.url("schema"), "sa", "")) {
+            installVersionOne(con);
+            try (Statement statement = con.createStatement()) {
+                statement.executeUpdate("INSERT INTO users (username, password, email) VALUES "
+                        + "('alice', 'h', 'a1@example.com'), ('alice', 'h', 'a2@example.com'), "
+                        + "('bob', 'h', 'b@example.com')");
+            }
+
+            SchemaManager.invalidate();
+            SQLException e = assertThrows(SQLException.class, () -> SchemaManager.bootstrap(con));
+            assertTrue(e.getMessage().contains("'alice' (2 accounts, ids 1 to 2)"), e.getMessage());
+            assertFalse(e.getMessage().contains("'bob'"), e.getMessage());
+
+            try (Statement statement = con.createStatement()) {
+                statement.executeUpdate("UPDATE users SET username = 'alice2' WHERE id = 2");
+            }
+            assertDoesNotThrow(() -> SchemaManager.bootstrap(con));
+        } finally {
+            SchemaManager.invalidate();
+        }
+    }
+
+    // The schema as it was before version 2 added the unique username index
+    private static void installVersionOne(Connection con) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.executeUpdate("CREATE TABLE schema_version (version INT NOT NULL, "
+                    + "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+            statement.executeUpdate("INSERT INTO schema_version (version) VALUES (1)");
+        }
+        DatabaseManager.createUsersTableIfNotExists(con);
+        DatabaseManager.createTasksTableIfNotExists(con);
+    }
+}
@@ -0,0 +1,46 @@
+package org.aproject;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionManagerTest {
+
+    private static final byte[] SECRET = new byte[32];
+
+    @Test
+    void listenerHearsOfTheLastLogoutOnly() {
+        List<Integer> signedOut = new CopyOnWriteArrayList<>();
+        try (SessionManager sessions = new SessionManager(SECRET, TimeUnit.HOURS.toMillis(1), 60000)) {
+            sessions.setSignedOutListener(user -> signedOut.add(user.getId()));
+            User alice = new User(1, "alice", null);
+            String first = sessions.create(alice);
+            String second = sessions.create(alice);
+
+            assertTrue(sessions.invalidate(first));
+            assertEquals(List.of(), signedOut);
+            assertTrue(sessions.invalidate(second));
+            assertEquals(List.of(1), signedOut);
+        }
+    }
+
+    @Test
+    void expiredSessionsAreReportedBySweep() throws InterruptedException {
+        List<Integer> signedOut = new CopyOnWriteArrayList<>();
+        try (SessionManager sessions = new SessionManager(SECRET, 50, 20)) {
+            sessions.setSignedOutListener(user -> signedOut.add(user.getId()));
+            sessions.create(new User(2, "bob", null));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (signedOut.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(List.of(2), signedOut);
+            assertEquals(0, sessions.getActiveCount());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.aproject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardRebalancerTest {
+
+    private ConnectionPool second;
+    private ShardRouter router;
+    private ShardRebalancer rebalancer;
+    private TaskManager manager;
+    private User user;
+
+    @BeforeEach
+    void start() throws SQLException {
+        TestDatabase.start("shard-0", 4);
+        second = new ConnectionPool(TestDatabase.url("shard-1"), "sa", "", 1, 4, 5000, 60000, 0);
+        ShardRouter.bootstrapShard(second, 1);
+        router = new ShardRouter(new DatabaseManager(), List.of(DatabaseManager.getPool(), second),
+                List.of("shard-0", "shard-1"), 16, new ShardDirectory(DatabaseManager.getPool()));
+        rebalancer = new ShardRebalancer(router, 100, 100);
+        manager = new TaskManager(router, new TaskCache(router, 10, 60000, false));
+
+        JdbcUserRepository users = new JdbcUserRepository(new DatabaseManager());
+        users.insertUser("mover", "hash", "mover@example.com");
+        user = users.findByUsername("mover").getUser();
+    }
+
+    @AfterEach
+    void stop() {
+        rebalancer.close();
+        router.close();
+        TestDatabase.stop();
+    }
+
+    @Test
+    void movedUsersAreReloadedUnderTheirNewIds() {
+        rebalancer.setMoveListener(new ShardRebalancer.MoveListener() {
+            @Override
+            public void afterMove(int userId) {
+                manager.onUserMoved(userId);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            manager.createTask(user, "Task " + i, null, LocalDate.now().plusDays(i));
+        }
+        manager.loadTasksFromDB(user);
+        int source = router.shardOf(user.getId());
+
+        assertTrue(rebalancer.moveUser(user.getId(), 1 - source));
+
+        assertEquals(router.getAllTasks(user).keySet(), manager.getTasks(user).keySet());
+        int id = manager.getTasks(user).keySet().iterator().next();
+        assertTrue(manager.removeTask(user, id));
+        assertEquals(4, router.getAllTasks(user).size());
+    }
+
+    @Test
+    void idsPastTheShardRangeAreRefused() throws SQLException {
+        router.getDirectory().put(user.getId(), 1);
+        try (Connection con = second.borrow(); Statement statement = con.createStatement()) {
+            long last = ShardRouter.idLimit(1) - 1;
+            statement.executeUpdate("INSERT INTO tasks (id, user_id, name) VALUES (" + last + ", 0, '')");
+            statement.executeUpdate("DELETE FROM tasks WHERE id = " + last);
+        }
+
+        Task task = new Task(0, "Overflow", null, LocalDate.now(), false);
+        assertThrows(StorageException.class, () -> router.insertTask(task, user));
+        assertEquals(0, router.getAllTasks(user).size());
+    }
+}
@@ -0,0 +1,126 @@
+package org.aproject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TaskCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedStore store;
+    private User alice;
+    private User bob;
+    private User carol;
+
+    @BeforeEach
+    void setUp() {
+        store = new EmbeddedStore(dir.resolve("cache.db"), 60000);
+        alice = user("alice");
+        bob = user("bob");
+        carol = user("carol");
+        store.insertTask(new Task(0, "Alice's task", null, LocalDate.of(2030, 1, 1), false), alice);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void repeatedGetsAreHits() {
+        TaskCache cache = new TaskCache(store, 10, 60000, false);
+        assertEquals(1, cache.get(alice).size());
+        assertEquals(1, cache.get(alice).size());
+        assertEquals(1, cache.get(alice).size());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    void leastRecentlyUsedUserIsEvicted() {
+        TaskCache cache = new TaskCache(store, 2, 60000, false);
+        cache.get(alice);
+        cache.get(bob);
+        cache.get(alice);
+        cache.get(carol);
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getMisses());
+        cache.get(alice);
+        assertEquals(3, cache.getMisses());
+        cache.get(bob);
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    void expiredEntriesAreReloaded() throws InterruptedException {
+        TaskCache cache = new TaskCache(store, 10, 10, false);
+        cache.get(alice);
+        Thread.sleep(30);
+        store.insertTask(new Task(0, "Written elsewhere", null, LocalDate.of(2030, 1, 2), false), alice);
+
+        assertEquals(2, cache.get(alice).size());
+        assertEquals(1, cache.getExpirations());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void changedVersionStampForcesAReload() {
+        TaskCache cache = new TaskCache(store, 10, 60000, true);
+        cache.get(alice);
+        cache.get(alice);
+        assertEquals(1, cache.getHits());
+
+        store.insertTask(new Task(0, "Written elsewhere", null, LocalDate.of(2030, 1, 2), false), alice);
+        assertEquals(2, cache.get(alice).size());
+        assertEquals(1, cache.getStaleReloads());
+        assertEquals(2, cache.getMisses());
+
+        // Writes through the cache keep the stamp current, so the next read is a hit again
+        Task local = new Task(0, "Written here", null, LocalDate.of(2030, 1, 3), false);
+        store.insertTask(local, alice);
+        cache.onInsert(alice, local);
+        assertEquals(3, cache.get(alice).size());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getStaleReloads());
+    }
+
+    @Test
+    void deltasOnlyApplyWhenTheyStartAtTheCachedVersion() {
+        TaskCache cache = new TaskCache(store, 10, 60000, false);
+        cache.get(alice);
+        long version = cache.getVersion(alice);
+
+        Task added = new Task(0, "Added", null, LocalDate.of(2030, 1, 2), false);
+        store.insertTask(added, alice);
+        TaskChanges changes = store.getTasksChangedSince(alice, version);
+        cache.apply(alice, version, changes);
+        assertTrue(cache.get(alice).containsKey(added.getId()));
+        assertEquals(changes.getVersion(), cache.getVersion(alice));
+
+        // A delta from a later position would skip the changes in between
+        Task skipped = new Task(0, "Skipped", null, LocalDate.of(2030, 1, 3), false);
+        store.insertTask(skipped, alice);
+        long later = store.getVersionStamp(alice);
+        store.insertTask(new Task(0, "Last", null, LocalDate.of(2030, 1, 4), false), alice);
+        cache.apply(alice, later, store.getTasksChangedSince(alice, later));
+        assertFalse(cache.get(alice).containsKey(skipped.getId()));
+        assertEquals(changes.getVersion(), cache.getVersion(alice));
+    }
+
+    private User user(String name) {
+        store.insertUser(name, "hash", name + "@example.com");
+        return store.findByUsername(name).getUser();
+    }
+}
@@ -0,0 +1,131 @@
+package org.aproject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Several threads per user mutate through one TaskManager; every acknowledged write must be in the final state
+class TaskManagerStressTest {
+
+    private static final int USERS = 4;
+    private static final int THREADS_PER_USER = 3;
+    private static final int OPERATIONS = 300;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void noLostUpdatesOnTheEmbeddedStore() throws Exception {
+        EmbeddedStore store = new EmbeddedStore(dir.resolve("stress.db"), 60000);
+        try {
+            hammer(store, store);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void noLostUpdatesOnJdbc() throws Exception {
+        TestDatabase.start("stress", USERS * THREADS_PER_USER);
+        try {
+            DatabaseManager dbm = new DatabaseManager();
+            hammer(new JdbcTaskRepository(dbm), new JdbcUserRepository(dbm));
+        } finally {
+            TestDatabase.stop();
+        }
+    }
+
+    private void hammer(TaskRepository repository, UserRepository users) throws Exception {
+        TaskManager manager = new TaskManager(repository, new TaskCache(repository, USERS / 2, 60000, false));
+        List<User> accounts = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            users.insertUser("stress" + i, "hash", "stress" + i + "@example.com");
+            accounts.add(users.findByUsername("stress" + i).getUser());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(USERS * THREADS_PER_USER);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Map<Integer, Boolean>>> workers = new ArrayList<>();
+        for (int t = 0; t < USERS * THREADS_PER_USER; t++) {
+            User user = accounts.get(t % USERS);
+            long seed = t;
+            workers.add(pool.submit(() -> {
+                start.await();
+                return work(manager, user, new Random(seed));
+            }));
+        }
+        start.countDown();
+
+        Map<Integer, Map<Integer, Boolean>> expected = new HashMap<>();
+        for (int t = 0; t < workers.size(); t++) {
+            expected.computeIfAbsent(accounts.get(t % USERS).getId(), k -> new HashMap<>())
+                    .putAll(workers.get(t).get(60, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        for (User user : accounts) {
+            Map<Integer, Boolean> want = expected.getOrDefault(user.getId(), Map.of());
+            assertEquals(want, statuses(manager.getTasks(user)), "session of " + user.getUsername());
+            assertEquals(want, statuses(repository.getAllTasks(user)), "storage of " + user.getUsername());
+
+            manager.closeSession(user);
+            manager.loadTasksFromDB(user);
+            assertEquals(want, statuses(manager.getTasks(user)), "reloaded session of " + user.getUsername());
+
+            TaskStats stats = manager.getTaskStats(user);
+            long completed = want.values().stream().filter(done -> done).count();
+            assertEquals(want.size() - completed, stats.getOpen(), "open tasks of " + user.getUsername());
+            assertEquals(completed, stats.getCompleted(), "completed tasks of " + user.getUsername());
+        }
+    }
+
+    // Works only on the tasks this thread created, so the other threads of the same user cannot change them
+    private static Map<Integer, Boolean> work(TaskManager manager, User user, Random random) {
+        Map<Integer, Boolean> own = new HashMap<>();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            int roll = random.nextInt(100);
+            if (roll < 50 || ids.isEmpty()) {
+                Task task = manager.createTask(user, "Task " + i, "Stress task", LocalDate.now().plusDays(random.nextInt(30) - 10));
+                ids.add(task.getId());
+                own.put(task.getId(), false);
+            } else if (roll < 70) {
+                int id = ids.remove(random.nextInt(ids.size()));
+                assertTrue(manager.removeTask(user, id), "remove " + id);
+                own.remove(id);
+            } else if (roll < 95) {
+                int id = ids.get(random.nextInt(ids.size()));
+                boolean status = !own.get(id);
+                assertTrue(manager.setTaskStatus(user, id, status), "status of " + id);
+                own.put(id, status);
+            } else {
+                manager.loadTasksFromDB(user);
+                Map<Integer, Boolean> seen = statuses(manager.getTasks(user));
+                for (Map.Entry<Integer, Boolean> entry : own.entrySet()) {
+                    assertEquals(entry.getValue(), seen.get(entry.getKey()), "task " + entry.getKey() + " after a sync");
+                }
+            }
+        }
+        return own;
+    }
+
+    private static Map<Integer, Boolean> statuses(Map<Integer, Task> tasks) {
+        return tasks.values().stream().collect(Collectors.toMap(Task::getId, Task::isStatus));
+    }
+}
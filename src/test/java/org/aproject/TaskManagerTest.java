@@ -0,0 +1,94 @@
+package org.aproject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TaskManagerTest {
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedStore store;
+    private TaskManager manager;
+    private User alice;
+    private User bob;
+
+    @BeforeEach
+    void setUp() {
+        store = new EmbeddedStore(dir.resolve("tasks.db"), 60000);
+        manager = new TaskManager(store, new TaskCache(store, 10, 60000, false));
+        store.insertUser("alice", "hash", "alice@example.com");
+        store.insertUser("bob", "hash", "bob@example.com");
+        alice = store.findByUsername("alice").getUser();
+        bob = store.findByUsername("bob").getUser();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void idleSessionsAreEvictedWithoutASignOut() throws InterruptedException {
+        manager.createTask(alice, "write report", null, LocalDate.of(2030, 1, 1));
+        manager.getTasks(bob);
+        assertEquals(2, manager.getSessionCount());
+
+        Thread.sleep(20);
+        manager.getTasks(bob);
+        assertEquals(1, manager.evictIdleSessions(10));
+        assertEquals(1, manager.getSessionCount());
+
+        // The evicted user's next request starts a new session with the stored tasks
+        assertEquals(1, manager.getTasks(alice).size());
+        assertEquals(2, manager.getSessionCount());
+    }
+
+    @Test
+    void syncPicksUpTasksWrittenByAnotherManager() {
+        manager.getTasks(alice);
+        TaskManager other = new TaskManager(store, new TaskCache(store, 10, 60000, false));
+        Task added = other.createTask(alice, "from elsewhere", "", LocalDate.of(2030, 1, 1));
+
+        manager.loadTasksFromDB(alice);
+        assertTrue(manager.getTasks(alice).containsKey(added.getId()));
+    }
+
+    @Test
+    void refreshesWithinTheIntervalReadNothing() {
+        manager.createTask(alice, "mine", "", LocalDate.of(2030, 1, 1));
+        assertTrue(manager.refreshTasks(alice, 60000));
+        assertFalse(manager.refreshTasks(alice, 60000));
+
+        TaskManager other = new TaskManager(store, new TaskCache(store, 10, 60000, false));
+        Task added = other.createTask(alice, "from elsewhere", "", LocalDate.of(2030, 1, 1));
+        assertFalse(manager.refreshTasks(alice, 60000));
+        assertFalse(manager.getTasks(alice).containsKey(added.getId()));
+
+        assertTrue(manager.refreshTasks(alice, 0));
+        assertTrue(manager.getTasks(alice).containsKey(added.getId()));
+    }
+
+    @Test
+    void removalReportsATaskAnotherClientAlreadyDeleted() {
+        Task first = manager.createTask(alice, "first", "", LocalDate.of(2030, 1, 1));
+        Task second = manager.createTask(alice, "second", "", LocalDate.of(2030, 1, 2));
+        Task third = manager.createTask(alice, "third", "", LocalDate.of(2030, 1, 3));
+        assertTrue(store.removeTask(first.getId(), alice));
+        assertTrue(store.removeTask(second.getId(), alice));
+
+        assertFalse(manager.removeTask(alice, first.getId()));
+        assertFalse(manager.getTasks(alice).containsKey(first.getId()));
+        assertEquals(1, manager.removeTasks(alice, second.getId(), third.getId()));
+        assertTrue(manager.getTasks(alice).isEmpty());
+    }
+}
@@ -0,0 +1,85 @@
+package org.aproject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The filter and reminder queries must be answered from idx_tasks_user_status_end, never by scanning tasks
+class TaskQueriesTest {
+
+    private static final String INDEX = "idx_tasks_user_status_end";
+    private static final LocalDate TODAY = LocalDate.of(2024, 5, 15);
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void seed() throws SQLException {
+        pool = TestDatabase.start("task-queries", 2);
+        DatabaseManager dbm = new DatabaseManager();
+        JdbcUserRepository users = new JdbcUserRepository(dbm);
+        JdbcTaskRepository tasks = new JdbcTaskRepository(dbm);
+        for (int u = 0; u < 10; u++) {
+            users.insertUser("user" + u, "hash", "user" + u + "@example.com");
+            User user = users.findByUsername("user" + u).getUser();
+            for (int t = 0; t < 30; t++) {
+                tasks.insertTask(new Task(0, "Task " + t, null, TODAY.plusDays(t - 15), t % 3 == 0), user);
+            }
+        }
+        try (Connection con = pool.borrow(); Statement statement = con.createStatement()) {
+            statement.execute("ANALYZE");
+        }
+    }
+
+    @AfterEach
+    void stop() {
+        TestDatabase.stop();
+    }
+
+    @Test
+    void everyFilterUsesTheStatusIndex() throws SQLException {
+        for (TaskFilter filter : TaskFilter.values()) {
+            String sql = TaskQueries.selectFor(filter, TODAY);
+            String plan = explain(sql, 3, java.sql.Date.valueOf(TODAY), java.sql.Date.valueOf(TODAY.plusDays(6)));
+            assertUsesIndex(filter.name(), plan);
+        }
+    }
+
+    @Test
+    void dueTaskSweepUsesTheStatusIndex() throws SQLException {
+        String plan = explain(TaskQueries.SELECT_DUE_IN_RANGE, 2, 5, java.sql.Date.valueOf(TODAY));
+        assertUsesIndex("SELECT_DUE_IN_RANGE", plan);
+    }
+
+    private static void assertUsesIndex(String query, String plan) {
+        assertTrue(plan.contains(INDEX), query + " does not use " + INDEX + ":\n" + plan);
+        assertFalse(plan.contains("tableScan"), query + " scans the table:\n" + plan);
+    }
+
+    // Binds as many of the given values as the statement has parameters
+    private String explain(String sql, Object... values) throws SQLException {
+        try (Connection con = pool.borrow();
+             PreparedStatement pstmt = con.prepareStatement("EXPLAIN " + sql)) {
+            int count = pstmt.getParameterMetaData().getParameterCount();
+            for (int i = 0; i < count; i++) {
+                pstmt.setObject(i + 1, values[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                StringBuilder plan = new StringBuilder();
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+                return plan.toString();
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.aproject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TaskSearchIndexTest {
+
+    private static final LocalDate DAY = LocalDate.of(2030, 1, 1);
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedStore store;
+    private User alice;
+    private User bob;
+
+    @BeforeEach
+    void setUp() {
+        store = new EmbeddedStore(dir.resolve("tasks.db"), 60000);
+        alice = user("alice");
+        bob = user("bob");
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void matchingFoldsCaseAndAccentsAndSplitsOnPunctuation() {
+        TaskSearchIndex index = new TaskSearchIndex(store, null);
+        Task cafe = task(alice, "Café meeting", "budget/planning-2030");
+        task(alice, "x y", "z");
+
+        assertArrayEquals(new int[]{cafe.getId()}, index.search(alice, "CAFE", 10));
+        assertArrayEquals(new int[]{cafe.getId()}, index.search(alice, "Mëeting", 10));
+        assertArrayEquals(new int[]{cafe.getId()}, index.search(alice, "planning 2030", 10));
+        // One-letter words are not indexed, but work as prefixes in a query
+        assertArrayEquals(new int[0], index.search(alice, "x", 10));
+        assertArrayEquals(new int[]{cafe.getId()}, index.search(alice, "b", 10));
+        assertArrayEquals(new int[0], index.search(alice, "?!", 10));
+        assertArrayEquals(new int[0], index.search(alice, "cafe", 0));
+        // Other users' tasks are never matched
+        assertArrayEquals(new int[0], index.search(bob, "cafe", 10));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void everyWordMustMatch() {
+        TaskSearchIndex index = new TaskSearchIndex(store, null);
+        Task both = task(alice, "alpha", "beta");
+        task(alice, "alpha", "gamma");
+        task(alice, "beta", "gamma");
+
+        assertArrayEquals(new int[]{both.getId()}, index.search(alice, "beta alpha", 10));
+        assertArrayEquals(new int[0], index.search(alice, "alpha delta", 10));
+    }
+
+    @Test
+    void exactMatchesRankAbovePrefixesAndNamesAboveDescriptions() {
+        TaskSearchIndex index = new TaskSearchIndex(store, null);
+        Task prefix = task(alice, "reporting", null);
+        Task exact = task(alice, "report", null);
+        Task inDescription = task(alice, "weekly", "summary");
+        Task inName = task(alice, "summary", null);
+        task(alice, "unrelated", null);
+
+        assertArrayEquals(new int[]{exact.getId(), prefix.getId()}, index.search(alice, "report", 10));
+        assertArrayEquals(new int[]{exact.getId()}, index.search(alice, "report", 1));
+        assertArrayEquals(new int[]{inName.getId(), inDescription.getId()}, index.search(alice, "summary", 10));
+    }
+
+    @Test
+    void tiesAreOrderedByLowerIdFirst() {
+        TaskSearchIndex index = new TaskSearchIndex(store, null);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(task(alice, "same words", null).getId());
+        }
+
+        assertArrayEquals(ids.stream().mapToInt(Integer::intValue).toArray(), index.search(alice, "same", 10));
+        assertArrayEquals(new int[]{ids.get(0), ids.get(1)}, index.search(alice, "words", 2));
+    }
+
+    @Test
+    void prefixExpansionIsCappedAt64Terms() {
+        TaskSearchIndex index = new TaskSearchIndex(store, null);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(task(alice, String.format("pre%03d", i), null).getId());
+        }
+
+        int[] found = index.search(alice, "pre", 1000);
+        assertEquals(64, found.length);
+        // The dictionary is walked in term order, so pre000 to pre063 are the ones expanded
+        assertArrayEquals(ids.subList(0, 64).stream().mapToInt(Integer::intValue).toArray(), found);
+        assertEquals(1, index.search(alice, "pre099", 10).length);
+    }
+
+    @Test
+    void savedIndexCatchesUpFromTheChangeFeedAfterARestart() {
+        Path file = dir.resolve("search.idx");
+        TaskSearchIndex index = new TaskSearchIndex(store, file);
+        Task kept = task(alice, "kept task", null);
+        Task removed = task(alice, "removed task", null);
+        assertEquals(2, index.search(alice, "task", 10).length);
+        // Only in the index: it survives the restart only if the saved file is used rather than a rebuild
+        index.add(alice, new Task(999_999, "ghost task", null, DAY, false));
+        index.save();
+
+        Task added = task(alice, "added task", null);
+        store.removeTask(removed.getId(), alice);
+
+        TaskSearchIndex reopened = new TaskSearchIndex(store, file);
+        assertEquals(3, reopened.size());
+        assertArrayEquals(new int[]{kept.getId(), added.getId(), 999_999}, reopened.search(alice, "task", 10));
+        assertArrayEquals(new int[0], reopened.search(alice, "removed", 10));
+
+        // Invalidation forces the next search to read the feed again
+        Task late = task(alice, "late task", null);
+        reopened.invalidate(alice);
+        assertArrayEquals(new int[]{late.getId()}, reopened.search(alice, "late", 10));
+    }
+
+    private Task task(User user, String name, String description) {
+        Task task = new Task(0, name, description, DAY, false);
+        store.insertTask(task, user);
+        return task;
+    }
+
+    private User user(String name) {
+        store.insertUser(name, "hash", name + "@example.com");
+        return store.findByUsername(name).getUser();
+    }
+}
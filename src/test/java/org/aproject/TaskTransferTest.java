@@ -0,0 +1,169 @@
+package org.aproject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TaskTransferTest {
+
+    // Small enough that most records straddle a window and some do not fit in one at all
+    private static final int CHUNK_BYTES = 48;
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedStore store;
+    private TaskTransfer transfer;
+    private User source;
+    private User target;
+
+    @BeforeEach
+    void setUp() {
+        store = new EmbeddedStore(dir.resolve("tasks.db"), 60000);
+        transfer = new TaskTransfer(store, CHUNK_BYTES, 3, 2, 7);
+        source = user("source");
+        target = user("target");
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void csvRoundTripsAwkwardValuesAcrossWindows() {
+        List<Task> tasks = awkwardTasks();
+        store.insertTasks(tasks, source);
+        Path file = dir.resolve("tasks.csv");
+
+        assertEquals(tasks.size(), transfer.exportTasks(source, file, TaskTransfer.Format.CSV).getRows());
+        assertEquals(tasks.size(), transfer.importTasks(target, file, TaskTransfer.Format.CSV).getRows());
+        assertSameTasks(tasks, imported());
+    }
+
+    @Test
+    void binaryRoundTripsAwkwardValuesAcrossWindows() {
+        List<Task> tasks = awkwardTasks();
+        store.insertTasks(tasks, source);
+        Path file = dir.resolve("tasks.bin");
+
+        assertEquals(tasks.size(), transfer.exportTasks(source, file, TaskTransfer.Format.BINARY).getRows());
+        assertEquals(tasks.size(), transfer.importTasks(target, file, TaskTransfer.Format.BINARY).getRows());
+        assertSameTasks(tasks, imported());
+    }
+
+    @Test
+    void csvDistinguishesNullFromEmptyAndAcceptsCrLf() throws IOException {
+        Path file = dir.resolve("hand.csv");
+        Files.writeString(file, "name,description,end_date,status\r\n"
+                + "a,,2030-01-01,true\r\n"
+                + "b,\"\",,0\r\n"
+                + "\"c \"\"quoted\"\"\",\"two\r\nlines\",2030-12-31,false\r\n", StandardCharsets.UTF_8);
+
+        transfer.importTasks(target, file, TaskTransfer.Format.CSV);
+        List<Task> tasks = imported();
+        assertEquals(3, tasks.size());
+        assertNull(tasks.get(0).getDescription());
+        assertEquals(LocalDate.of(2030, 1, 1), tasks.get(0).getEnd_Date());
+        assertEquals("", tasks.get(1).getDescription());
+        assertNull(tasks.get(1).getEnd_Date());
+        assertEquals("c \"quoted\"", tasks.get(2).getName());
+        assertEquals("two\r\nlines", tasks.get(2).getDescription());
+    }
+
+    @Test
+    void malformedCsvRowStopsTheImportAndReportsTheRowsAlreadyInserted() throws IOException {
+        StringBuilder csv = new StringBuilder("name,description,end_date,status\n");
+        for (int i = 0; i < 40; i++) {
+            csv.append("task ").append(i).append(",,2030-01-01,false\n");
+        }
+        csv.append("broken,,2030-02-30,false\n");
+        csv.append("after,,2030-01-01,false\n");
+        Path file = dir.resolve("broken.csv");
+        Files.writeString(file, csv, StandardCharsets.UTF_8);
+
+        TaskTransfer.ImportFailedException e = assertThrows(TaskTransfer.ImportFailedException.class,
+                () -> transfer.importTasks(target, file, TaskTransfer.Format.CSV));
+        assertTrue(e.getMessage().contains("invalid date"), e.getMessage());
+        assertEquals(e.getRowsImported(), store.getAllTasks(target).size());
+        assertTrue(e.getRowsImported() < 41);
+    }
+
+    @Test
+    void truncatedBinaryTailIsRejected() throws IOException {
+        store.insertTasks(awkwardTasks(), source);
+        Path file = dir.resolve("truncated.bin");
+        transfer.exportTasks(source, file, TaskTransfer.Format.BINARY);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        TaskTransfer.ImportFailedException e = assertThrows(TaskTransfer.ImportFailedException.class,
+                () -> transfer.importTasks(target, file, TaskTransfer.Format.BINARY));
+        assertTrue(e.getMessage().contains("Truncated record"), e.getMessage());
+        assertEquals(e.getRowsImported(), store.getAllTasks(target).size());
+    }
+
+    @Test
+    void fileWithoutTheBinaryMagicIsRejected() throws IOException {
+        Path file = dir.resolve("not-binary.bin");
+        Files.writeString(file, "name,description,end_date,status\n", StandardCharsets.UTF_8);
+
+        TaskTransfer.ImportFailedException e = assertThrows(TaskTransfer.ImportFailedException.class,
+                () -> transfer.importTasks(target, file, TaskTransfer.Format.BINARY));
+        assertEquals(0, e.getRowsImported());
+    }
+
+    private static List<Task> awkwardTasks() {
+        List<Task> tasks = new ArrayList<>();
+        tasks.add(new Task(0, "plain", "plain description", LocalDate.of(2030, 1, 1), false));
+        tasks.add(new Task(0, "null description", null, LocalDate.of(2030, 1, 2), true));
+        tasks.add(new Task(0, "empty description", "", LocalDate.of(2030, 1, 3), false));
+        tasks.add(new Task(0, "comma, and \"quotes\"", "\"\"", LocalDate.of(2030, 1, 4), true));
+        tasks.add(new Task(0, "newlines", "line one\nline two\r\nline three\n", LocalDate.of(2030, 1, 5), false));
+        tasks.add(new Task(0, "no date", "ünïcødé ✓ 😀", null, false));
+        // Several windows long, with a quoted newline right where a cut would otherwise go
+        tasks.add(new Task(0, "long", "x".repeat(CHUNK_BYTES * 5) + "\n,\"" + "y".repeat(CHUNK_BYTES), LocalDate.of(2030, 1, 6), true));
+        for (int i = 0; i < 30; i++) {
+            tasks.add(new Task(0, "task " + i, i % 3 == 0 ? null : "d" + i, LocalDate.of(2030, 2, 1).plusDays(i), i % 2 == 0));
+        }
+        return tasks;
+    }
+
+    private List<Task> imported() {
+        return new ArrayList<>(store.getAllTasks(target).values());
+    }
+
+    private static void assertSameTasks(List<Task> expected, List<Task> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Task want = expected.get(i);
+            Task got = actual.get(i);
+            assertEquals(want.getName(), got.getName(), "name of task " + i);
+            assertEquals(want.getDescription(), got.getDescription(), "description of task " + i);
+            assertEquals(want.getEnd_Date(), got.getEnd_Date(), "date of task " + i);
+            assertEquals(want.isStatus(), got.isStatus(), "status of task " + i);
+        }
+    }
+
+    private User user(String name) {
+        store.insertUser(name, "hash", name + "@example.com");
+        return store.findByUsername(name).getUser();
+    }
+}
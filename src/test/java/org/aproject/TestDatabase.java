@@ -0,0 +1,30 @@
+package org.aproject;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// In-memory H2 in MySQL mode, standing in for the MySQL server in tests
+final class TestDatabase {
+
+    private TestDatabase() {
+    }
+
+    static String url(String name) {
+        return "jdbc:h2:mem:" + name + "-" + System.nanoTime() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    }
+
+    // Installs a fresh database with the application schema as the DatabaseManager pool
+    static ConnectionPool start(String name, int poolSize) throws SQLException {
+        ConnectionPool pool = new ConnectionPool(url(name), "sa", "", 1, poolSize, 5000, 60000, 0);
+        DatabaseManager.setPool(pool);
+        SchemaManager.invalidate();
+        try (Connection con = pool.borrow()) {
+            SchemaManager.bootstrap(con);
+        }
+        return pool;
+    }
+
+    static void stop() {
+        DatabaseManager.closePool();
+    }
+}
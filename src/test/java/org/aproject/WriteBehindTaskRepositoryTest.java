@@ -0,0 +1,96 @@
+package org.aproject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindTaskRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedStore store;
+    private WriteBehindTaskRepository writeBehind;
+    private User alice;
+    private User bob;
+
+    @BeforeEach
+    void open() {
+        store = new EmbeddedStore(dir.resolve("store.db"), 60000);
+        store.insertUser("alice", "hash", null);
+        store.insertUser("bob", "hash", null);
+        alice = store.findByUsername("alice").getUser();
+        bob = store.findByUsername("bob").getUser();
+        // Only explicit flushes and reads apply anything
+        writeBehind = new WriteBehindTaskRepository(store, dir.resolve("journal.log"), 3_600_000, 1_000_000, false);
+    }
+
+    @AfterEach
+    void close() {
+        writeBehind.close();
+        store.close();
+    }
+
+    @Test
+    void readsApplyOnlyTheReadersMutations() {
+        writeBehind.insertTask(task("Alice's"), alice);
+        writeBehind.insertTask(task("Bob's"), bob);
+
+        assertEquals(1, writeBehind.getAllTasks(alice).size());
+        assertEquals(1, writeBehind.getPendingCount());
+        assertEquals(0, store.getAllTasks(bob).size());
+
+        assertEquals(1, writeBehind.getTasksChangedSince(bob, -1).getUpserts().size());
+        assertEquals(0, writeBehind.getPendingCount());
+    }
+
+    @Test
+    void releasedTempIdsAreNoLongerReported() {
+        Task task = task("Renamed");
+        writeBehind.insertTask(task, alice);
+        int tempId = task.getId();
+        assertTrue(tempId < 0);
+        long before = writeBehind.getVersionStamp(alice);
+        int realId = writeBehind.getAllTasks(alice).keySet().iterator().next();
+
+        writeBehind.setTaskStatus(realId, true, alice);
+        assertArrayEquals(new int[]{tempId}, writeBehind.getTasksChangedSince(alice, before - 1).getRemovedIds());
+
+        assertTrue(writeBehind.release(alice));
+        writeBehind.flush();
+        assertFalse(writeBehind.release(alice));
+        TaskChanges changes = writeBehind.getTasksChangedSince(alice, before - 1);
+        assertEquals(realId, changes.getUpserts().get(0).getId());
+        assertFalse(Arrays.stream(changes.getRemovedIds()).anyMatch(id -> id == tempId));
+    }
+
+    @Test
+    void releaseKeepsTempIdsOfANewerSession() {
+        Task old = task("Old session");
+        writeBehind.insertTask(old, alice);
+        assertTrue(writeBehind.release(alice));
+        Task current = task("New session");
+        writeBehind.insertTask(current, alice);
+        writeBehind.flush();
+
+        // The newer temp id still resolves, so its removal reaches the store
+        writeBehind.removeTask(current.getId(), alice);
+        writeBehind.flush();
+        assertEquals(1, store.getAllTasks(alice).size());
+        assertEquals("Old session", store.getAllTasks(alice).values().iterator().next().getName());
+    }
+
+    private static Task task(String name) {
+        return new Task(0, name, null, LocalDate.now(), false);
+    }
+}